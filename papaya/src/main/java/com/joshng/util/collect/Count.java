@@ -23,6 +23,13 @@ public enum Count implements IncrementingIterable {
     return limit(stop - start);
   }
 
+  /**
+   * @return the same sequence as {@link #upTo}, as an {@link IntFunIterable} that does not box its elements
+   */
+  public IntFunIterable intsUpTo(int stop) {
+    return IntFunIterable.range(start, stop);
+  }
+
   @Override
   public int getStep() {
     return 1;
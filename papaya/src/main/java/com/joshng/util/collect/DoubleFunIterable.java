@@ -0,0 +1,240 @@
+package com.joshng.util.collect;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.OptionalDouble;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleToIntFunction;
+import java.util.function.DoubleToLongFunction;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lazy sequence of primitive doubles: the double-specialized counterpart to {@link FunIterable}, whose
+ * transformations and aggregations never box their elements.<p/>
+ * <p>
+ * As with {@link IntFunIterable}, {@link #map} and {@link #filter} merely wrap the underlying sequence, and each
+ * terminal operation performs a fresh iteration. Obtain one with {@link #of} or {@link FunIterable#mapToDouble}.
+ *
+ * @see IntFunIterable
+ * @see LongFunIterable
+ */
+@FunctionalInterface
+public interface DoubleFunIterable {
+  PrimitiveIterator.OfDouble iterator();
+
+  static DoubleFunIterable of(double... values) {
+    return () -> Arrays.stream(values).iterator();
+  }
+
+  default DoubleFunIterable map(DoubleUnaryOperator transformer) {
+    return () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+          return transformer.applyAsDouble(source.nextDouble());
+        }
+      };
+    };
+  }
+
+  default IntFunIterable mapToInt(DoubleToIntFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public int nextInt() {
+          return transformer.applyAsInt(source.nextDouble());
+        }
+      };
+    };
+  }
+
+  default LongFunIterable mapToLong(DoubleToLongFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+          return transformer.applyAsLong(source.nextDouble());
+        }
+      };
+    };
+  }
+
+  default <O> FunIterable<O> mapToObj(DoubleFunction<? extends O> transformer) {
+    return (AbstractFunIterable<O>) () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new Iterator<O>() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public O next() {
+          return transformer.apply(source.nextDouble());
+        }
+      };
+    };
+  }
+
+  default DoubleFunIterable filter(DoublePredicate predicate) {
+    return () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        private boolean ready;
+        private double next;
+
+        @Override
+        public boolean hasNext() {
+          while (!ready && source.hasNext()) {
+            next = source.nextDouble();
+            ready = predicate.test(next);
+          }
+          return ready;
+        }
+
+        @Override
+        public double nextDouble() {
+          if (!hasNext()) throw new NoSuchElementException();
+          ready = false;
+          return next;
+        }
+      };
+    };
+  }
+
+  default DoubleFunIterable limit(int maxElements) {
+    checkArgument(maxElements >= 0, "limit is negative: %s", maxElements);
+    return () -> {
+      PrimitiveIterator.OfDouble source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        private int remaining = maxElements;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0 && source.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+          if (remaining <= 0) throw new NoSuchElementException();
+          remaining--;
+          return source.nextDouble();
+        }
+      };
+    };
+  }
+
+  default void forEach(DoubleConsumer visitor) {
+    iterator().forEachRemaining(visitor);
+  }
+
+  default double fold(double identity, DoubleBinaryOperator folder) {
+    double result = identity;
+    for (PrimitiveIterator.OfDouble iterator = iterator(); iterator.hasNext(); ) {
+      result = folder.applyAsDouble(result, iterator.nextDouble());
+    }
+    return result;
+  }
+
+  /**
+   * @return the sum of the elements, using compensated (Kahan) summation to limit the accumulated rounding error.
+   * As with {@link DoubleStream#sum}, infinite elements (or an overflow) yield an infinite sum, rather than the NaN
+   * that the compensation would otherwise produce.
+   */
+  default double sum() {
+    double sum = 0;
+    double compensation = 0;
+    double simpleSum = 0;
+    for (PrimitiveIterator.OfDouble iterator = iterator(); iterator.hasNext(); ) {
+      double value = iterator.nextDouble();
+      simpleSum += value;
+      double y = value - compensation;
+      double t = sum + y;
+      compensation = (t - sum) - y;
+      sum = t;
+    }
+    return Double.isNaN(sum) && Double.isInfinite(simpleSum) ? simpleSum : sum;
+  }
+
+  default OptionalDouble min() {
+    PrimitiveIterator.OfDouble iterator = iterator();
+    if (!iterator.hasNext()) return OptionalDouble.empty();
+    double min = iterator.nextDouble();
+    while (iterator.hasNext()) {
+      min = Math.min(min, iterator.nextDouble());
+    }
+    return OptionalDouble.of(min);
+  }
+
+  default OptionalDouble max() {
+    PrimitiveIterator.OfDouble iterator = iterator();
+    if (!iterator.hasNext()) return OptionalDouble.empty();
+    double max = iterator.nextDouble();
+    while (iterator.hasNext()) {
+      max = Math.max(max, iterator.nextDouble());
+    }
+    return OptionalDouble.of(max);
+  }
+
+  default int count() {
+    int count = 0;
+    for (PrimitiveIterator.OfDouble iterator = iterator(); iterator.hasNext(); iterator.nextDouble()) {
+      count++;
+    }
+    return count;
+  }
+
+  default boolean isEmpty() {
+    return !iterator().hasNext();
+  }
+
+  default double[] toArray() {
+    double[] array = new double[16];
+    int size = 0;
+    for (PrimitiveIterator.OfDouble iterator = iterator(); iterator.hasNext(); ) {
+      if (size == array.length) array = Arrays.copyOf(array, size * 2);
+      array[size++] = iterator.nextDouble();
+    }
+    return Arrays.copyOf(array, size);
+  }
+
+  /**
+   * @return a FunIterable of the (boxed) elements
+   */
+  default FunIterable<Double> boxed() {
+    return mapToObj(Double::valueOf);
+  }
+
+  default DoubleStream stream() {
+    return StreamSupport.doubleStream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+  }
+}
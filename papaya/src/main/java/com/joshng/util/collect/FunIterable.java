@@ -26,11 +26,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -623,6 +626,16 @@ public interface FunIterable<T> extends Iterable<T>, Runnable {
     return FunctionalSet.copyOf(delegate());
   }
 
+  /**
+   * <em>Reifies</em> this FunIterable by applying all previously chained transformations, and places the result in a new
+   * {@link PersistentVector}, which supports efficient persistent updates and appends.
+   *
+   * @return a new PersistentVector containing the elements of this sequence
+   */
+  default PersistentVector<T> toPersistentVector() {
+    return PersistentVector.copyOf(delegate());
+  }
+
   default Stream<T> stream() {
     return stream(false);
   }
@@ -702,6 +715,69 @@ public interface FunIterable<T> extends Iterable<T>, Runnable {
     return minBy(ordering.reverse(), valueComputer);
   }
 
+  /**
+   * @return an {@link IntFunIterable} that, when iterated, yields the result of applying the {@code transformer} to
+   * each element of this sequence, without boxing
+   */
+  default IntFunIterable mapToInt(ToIntFunction<? super T> transformer) {
+    return () -> {
+      Iterator<T> source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public int nextInt() {
+          return transformer.applyAsInt(source.next());
+        }
+      };
+    };
+  }
+
+  /**
+   * @return a {@link LongFunIterable} that, when iterated, yields the result of applying the {@code transformer} to
+   * each element of this sequence, without boxing
+   */
+  default LongFunIterable mapToLong(ToLongFunction<? super T> transformer) {
+    return () -> {
+      Iterator<T> source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+          return transformer.applyAsLong(source.next());
+        }
+      };
+    };
+  }
+
+  /**
+   * @return a {@link DoubleFunIterable} that, when iterated, yields the result of applying the {@code transformer} to
+   * each element of this sequence, without boxing
+   */
+  default DoubleFunIterable mapToDouble(ToDoubleFunction<? super T> transformer) {
+    return () -> {
+      Iterator<T> source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+          return transformer.applyAsDouble(source.next());
+        }
+      };
+    };
+  }
+
   /**
    * Iterates this sequence, applying the provided {@code valueComputer} on each element, and sums the results.
    *
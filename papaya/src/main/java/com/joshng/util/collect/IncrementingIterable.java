@@ -1,6 +1,7 @@
 package com.joshng.util.collect;
 
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
 
 /**
  * User: josh
@@ -12,6 +13,27 @@ public interface IncrementingIterable extends AbstractFunIterable<Integer> {
     return new IncrementingIterator(getStart(), getStep());
   }
 
+  /**
+   * @return the same (unbounded) sequence as an {@link IntFunIterable}, which does not box its elements
+   */
+  default IntFunIterable ints() {
+    return () -> new PrimitiveIterator.OfInt() {
+      private int next = getStart();
+
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public int nextInt() {
+        int current = next;
+        next += getStep();
+        return current;
+      }
+    };
+  }
+
   int getStart();
 
   int getStep();
@@ -0,0 +1,254 @@
+package com.joshng.util.collect;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lazy sequence of primitive ints: the int-specialized counterpart to {@link FunIterable}, whose transformations
+ * and aggregations never box their elements.<p/>
+ * <p>
+ * Like a FunIterable, an IntFunIterable is re-evaluated each time it is iterated: {@link #map} and {@link #filter}
+ * merely wrap the underlying sequence, and the terminal operations ({@link #fold}, {@link #sum}, {@link #min},
+ * {@link #max}, {@link #toArray}, ...) each perform a fresh iteration. Obtain one with {@link #of}, {@link #range},
+ * {@link FunIterable#mapToInt}, or {@link IncrementingIterable#ints}; the ops in
+ * {@link com.joshng.util.blocks.IntOp} may be passed directly to {@link #fold}.
+ *
+ * @see LongFunIterable
+ * @see DoubleFunIterable
+ */
+@FunctionalInterface
+public interface IntFunIterable {
+  PrimitiveIterator.OfInt iterator();
+
+  static IntFunIterable of(int... values) {
+    return () -> Arrays.stream(values).iterator();
+  }
+
+  /**
+   * @return the ints from {@code start} (inclusive) to {@code stop} (exclusive)
+   */
+  static IntFunIterable range(int start, int stop) {
+    return () -> new PrimitiveIterator.OfInt() {
+      private int next = start;
+
+      @Override
+      public boolean hasNext() {
+        return next < stop;
+      }
+
+      @Override
+      public int nextInt() {
+        if (next >= stop) throw new NoSuchElementException();
+        return next++;
+      }
+    };
+  }
+
+  default IntFunIterable map(IntUnaryOperator transformer) {
+    return () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public int nextInt() {
+          return transformer.applyAsInt(source.nextInt());
+        }
+      };
+    };
+  }
+
+  default LongFunIterable mapToLong(IntToLongFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+          return transformer.applyAsLong(source.nextInt());
+        }
+      };
+    };
+  }
+
+  default DoubleFunIterable mapToDouble(IntToDoubleFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+          return transformer.applyAsDouble(source.nextInt());
+        }
+      };
+    };
+  }
+
+  default <O> FunIterable<O> mapToObj(IntFunction<? extends O> transformer) {
+    return (AbstractFunIterable<O>) () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new Iterator<O>() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public O next() {
+          return transformer.apply(source.nextInt());
+        }
+      };
+    };
+  }
+
+  default IntFunIterable filter(IntPredicate predicate) {
+    return () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        private boolean ready;
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          while (!ready && source.hasNext()) {
+            next = source.nextInt();
+            ready = predicate.test(next);
+          }
+          return ready;
+        }
+
+        @Override
+        public int nextInt() {
+          if (!hasNext()) throw new NoSuchElementException();
+          ready = false;
+          return next;
+        }
+      };
+    };
+  }
+
+  default IntFunIterable limit(int maxElements) {
+    checkArgument(maxElements >= 0, "limit is negative: %s", maxElements);
+    return () -> {
+      PrimitiveIterator.OfInt source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        private int remaining = maxElements;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0 && source.hasNext();
+        }
+
+        @Override
+        public int nextInt() {
+          if (remaining <= 0) throw new NoSuchElementException();
+          remaining--;
+          return source.nextInt();
+        }
+      };
+    };
+  }
+
+  default void forEach(IntConsumer visitor) {
+    iterator().forEachRemaining(visitor);
+  }
+
+  default int fold(int identity, IntBinaryOperator folder) {
+    int result = identity;
+    for (PrimitiveIterator.OfInt iterator = iterator(); iterator.hasNext(); ) {
+      result = folder.applyAsInt(result, iterator.nextInt());
+    }
+    return result;
+  }
+
+  /**
+   * @return the sum of the elements, accumulated as a long to avoid overflow
+   */
+  default long sum() {
+    long sum = 0;
+    for (PrimitiveIterator.OfInt iterator = iterator(); iterator.hasNext(); ) {
+      sum += iterator.nextInt();
+    }
+    return sum;
+  }
+
+  default OptionalInt min() {
+    PrimitiveIterator.OfInt iterator = iterator();
+    if (!iterator.hasNext()) return OptionalInt.empty();
+    int min = iterator.nextInt();
+    while (iterator.hasNext()) {
+      min = Math.min(min, iterator.nextInt());
+    }
+    return OptionalInt.of(min);
+  }
+
+  default OptionalInt max() {
+    PrimitiveIterator.OfInt iterator = iterator();
+    if (!iterator.hasNext()) return OptionalInt.empty();
+    int max = iterator.nextInt();
+    while (iterator.hasNext()) {
+      max = Math.max(max, iterator.nextInt());
+    }
+    return OptionalInt.of(max);
+  }
+
+  default int count() {
+    int count = 0;
+    for (PrimitiveIterator.OfInt iterator = iterator(); iterator.hasNext(); iterator.nextInt()) {
+      count++;
+    }
+    return count;
+  }
+
+  default boolean isEmpty() {
+    return !iterator().hasNext();
+  }
+
+  default int[] toArray() {
+    int[] array = new int[16];
+    int size = 0;
+    for (PrimitiveIterator.OfInt iterator = iterator(); iterator.hasNext(); ) {
+      if (size == array.length) array = Arrays.copyOf(array, size * 2);
+      array[size++] = iterator.nextInt();
+    }
+    return Arrays.copyOf(array, size);
+  }
+
+  /**
+   * @return a FunIterable of the (boxed) elements
+   */
+  default FunIterable<Integer> boxed() {
+    return mapToObj(Integer::valueOf);
+  }
+
+  default IntStream stream() {
+    return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+  }
+}
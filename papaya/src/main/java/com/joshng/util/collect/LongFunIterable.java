@@ -0,0 +1,253 @@
+package com.joshng.util.collect;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongToIntFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lazy sequence of primitive longs: the long-specialized counterpart to {@link FunIterable}, whose transformations
+ * and aggregations never box their elements.<p/>
+ * <p>
+ * As with {@link IntFunIterable}, {@link #map} and {@link #filter} merely wrap the underlying sequence, and each
+ * terminal operation performs a fresh iteration. Obtain one with {@link #of}, {@link #range}, or
+ * {@link FunIterable#mapToLong}; the ops in {@link com.joshng.util.blocks.LongOp} may be passed directly to
+ * {@link #fold}.
+ *
+ * @see IntFunIterable
+ * @see DoubleFunIterable
+ */
+@FunctionalInterface
+public interface LongFunIterable {
+  PrimitiveIterator.OfLong iterator();
+
+  static LongFunIterable of(long... values) {
+    return () -> Arrays.stream(values).iterator();
+  }
+
+  /**
+   * @return the longs from {@code start} (inclusive) to {@code stop} (exclusive)
+   */
+  static LongFunIterable range(long start, long stop) {
+    return () -> new PrimitiveIterator.OfLong() {
+      private long next = start;
+
+      @Override
+      public boolean hasNext() {
+        return next < stop;
+      }
+
+      @Override
+      public long nextLong() {
+        if (next >= stop) throw new NoSuchElementException();
+        return next++;
+      }
+    };
+  }
+
+  default LongFunIterable map(LongUnaryOperator transformer) {
+    return () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+          return transformer.applyAsLong(source.nextLong());
+        }
+      };
+    };
+  }
+
+  default IntFunIterable mapToInt(LongToIntFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new PrimitiveIterator.OfInt() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public int nextInt() {
+          return transformer.applyAsInt(source.nextLong());
+        }
+      };
+    };
+  }
+
+  default DoubleFunIterable mapToDouble(LongToDoubleFunction transformer) {
+    return () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new PrimitiveIterator.OfDouble() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public double nextDouble() {
+          return transformer.applyAsDouble(source.nextLong());
+        }
+      };
+    };
+  }
+
+  default <O> FunIterable<O> mapToObj(LongFunction<? extends O> transformer) {
+    return (AbstractFunIterable<O>) () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new Iterator<O>() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public O next() {
+          return transformer.apply(source.nextLong());
+        }
+      };
+    };
+  }
+
+  default LongFunIterable filter(LongPredicate predicate) {
+    return () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        private boolean ready;
+        private long next;
+
+        @Override
+        public boolean hasNext() {
+          while (!ready && source.hasNext()) {
+            next = source.nextLong();
+            ready = predicate.test(next);
+          }
+          return ready;
+        }
+
+        @Override
+        public long nextLong() {
+          if (!hasNext()) throw new NoSuchElementException();
+          ready = false;
+          return next;
+        }
+      };
+    };
+  }
+
+  default LongFunIterable limit(int maxElements) {
+    checkArgument(maxElements >= 0, "limit is negative: %s", maxElements);
+    return () -> {
+      PrimitiveIterator.OfLong source = iterator();
+      return new PrimitiveIterator.OfLong() {
+        private int remaining = maxElements;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0 && source.hasNext();
+        }
+
+        @Override
+        public long nextLong() {
+          if (remaining <= 0) throw new NoSuchElementException();
+          remaining--;
+          return source.nextLong();
+        }
+      };
+    };
+  }
+
+  default void forEach(LongConsumer visitor) {
+    iterator().forEachRemaining(visitor);
+  }
+
+  default long fold(long identity, LongBinaryOperator folder) {
+    long result = identity;
+    for (PrimitiveIterator.OfLong iterator = iterator(); iterator.hasNext(); ) {
+      result = folder.applyAsLong(result, iterator.nextLong());
+    }
+    return result;
+  }
+
+  /**
+   * @return the sum of the elements (which, as with {@link LongStream#sum}, may overflow)
+   */
+  default long sum() {
+    long sum = 0;
+    for (PrimitiveIterator.OfLong iterator = iterator(); iterator.hasNext(); ) {
+      sum += iterator.nextLong();
+    }
+    return sum;
+  }
+
+  default OptionalLong min() {
+    PrimitiveIterator.OfLong iterator = iterator();
+    if (!iterator.hasNext()) return OptionalLong.empty();
+    long min = iterator.nextLong();
+    while (iterator.hasNext()) {
+      min = Math.min(min, iterator.nextLong());
+    }
+    return OptionalLong.of(min);
+  }
+
+  default OptionalLong max() {
+    PrimitiveIterator.OfLong iterator = iterator();
+    if (!iterator.hasNext()) return OptionalLong.empty();
+    long max = iterator.nextLong();
+    while (iterator.hasNext()) {
+      max = Math.max(max, iterator.nextLong());
+    }
+    return OptionalLong.of(max);
+  }
+
+  default int count() {
+    int count = 0;
+    for (PrimitiveIterator.OfLong iterator = iterator(); iterator.hasNext(); iterator.nextLong()) {
+      count++;
+    }
+    return count;
+  }
+
+  default boolean isEmpty() {
+    return !iterator().hasNext();
+  }
+
+  default long[] toArray() {
+    long[] array = new long[16];
+    int size = 0;
+    for (PrimitiveIterator.OfLong iterator = iterator(); iterator.hasNext(); ) {
+      if (size == array.length) array = Arrays.copyOf(array, size * 2);
+      array[size++] = iterator.nextLong();
+    }
+    return Arrays.copyOf(array, size);
+  }
+
+  /**
+   * @return a FunIterable of the (boxed) elements
+   */
+  default FunIterable<Long> boxed() {
+    return mapToObj(Long::valueOf);
+  }
+
+  default LongStream stream() {
+    return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false);
+  }
+}
@@ -0,0 +1,167 @@
+package com.joshng.util.collect;
+
+import com.joshng.util.blocks.F2;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent immutable set backed by a {@link PersistentMap} (a hash array mapped trie).<p/>
+ * <p>
+ * Unlike the list-based {@link PersistentSet}, {@link #contains}, {@link #with} and {@link #without} take
+ * O(log<sub>32</sub> N) time and copy only the path to the affected element, sharing the rest of the structure with
+ * the original set; {@link #size} is O(1). {@link #union} with another PersistentHashSet merges the two tries
+ * structurally, reusing the subtrees that only one of them has. Iteration order is determined by the elements' hash
+ * codes.
+ */
+@Immutable
+public class PersistentHashSet<T> extends AbstractSet<T> {
+  @SuppressWarnings("rawtypes")
+  private static final F2 WITH = new F2<Object, PersistentHashSet<Object>, PersistentHashSet<Object>>() {
+    @Override
+    public PersistentHashSet<Object> apply(Object input1, PersistentHashSet<Object> input2) {
+      return input2.with(input1);
+    }
+  };
+
+  @SuppressWarnings("rawtypes")
+  private static final PersistentHashSet EMPTY = new PersistentHashSet<>(PersistentMap.empty());
+
+  private final PersistentMap<T, Boolean> map;
+
+  private PersistentHashSet(PersistentMap<T, Boolean> map) {
+    this.map = map;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> F2<T, PersistentHashSet<T>, PersistentHashSet<T>> with() {
+    return WITH;
+  }
+
+  /**
+   * @return The empty set
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentHashSet<T> empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @return A set containing the specified values
+   */
+  @SafeVarargs
+  public static <T> PersistentHashSet<T> of(T... values) {
+    Builder<T> builder = builder();
+    for (T value : values) {
+      builder.add(value);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return A new set with the values from the Iterable
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentHashSet<T> copyOf(Iterable<? extends T> values) {
+    if (values instanceof PersistentHashSet) return (PersistentHashSet<T>) values;
+    return PersistentHashSet.<T>builder().addAll(values).build();
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<T>();
+  }
+
+  /**
+   * @return A set with the specified value added, or this set if it already contains the value
+   */
+  public PersistentHashSet<T> with(T value) {
+    checkNotNull(value);
+    PersistentMap<T, Boolean> newMap = map.with(value, Boolean.TRUE);
+    return newMap == map ? this : new PersistentHashSet<>(newMap);
+  }
+
+  /**
+   * @return A set omitting the specified value, or this set if it does not contain the value
+   */
+  public PersistentHashSet<T> without(T value) {
+    if (value == null) return this;
+    PersistentMap<T, Boolean> newMap = map.without(value);
+    if (newMap == map) return this;
+    return newMap.isEmpty() ? empty() : new PersistentHashSet<>(newMap);
+  }
+
+  /**
+   * @return A set containing the values from both this set and the given items
+   */
+  @SuppressWarnings("unchecked")
+  public PersistentHashSet<T> union(Iterable<? extends T> items) {
+    if (items instanceof PersistentHashSet) {
+      PersistentMap<T, Boolean> newMap = map.union(((PersistentHashSet<T>) items).map);
+      return newMap == map ? this : new PersistentHashSet<>(newMap);
+    }
+    PersistentHashSet<T> result = this;
+    for (T item : items) {
+      result = result.with(item);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean contains(Object value) {
+    return value != null && map.containsKey(value);
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return map.keySet().iterator();
+  }
+
+  @Override
+  public Spliterator<T> spliterator() {
+    return map.keySet().spliterator();
+  }
+
+  /**
+   * Accumulates values into a private, mutable trie, avoiding the copying performed by repeated calls to
+   * {@link #with}.
+   */
+  public static class Builder<T> {
+    private PersistentMap.Builder<T, Boolean> map = PersistentMap.builder();
+
+    public Builder<T> add(T value) {
+      map.put(value, Boolean.TRUE);
+      return this;
+    }
+
+    public Builder<T> addAll(Iterable<? extends T> values) {
+      for (T value : values)
+        add(value);
+      return this;
+    }
+
+    /**
+     * The Builder cannot be used after calling build()
+     *
+     * @return The set
+     */
+    public PersistentHashSet<T> build() {
+      PersistentHashSet<T> result = map.size() == 0 ? empty() : new PersistentHashSet<>(map.build());
+      map = null;
+      return result;
+    }
+  }
+}
@@ -1,11 +1,26 @@
 package com.joshng.util.collect;
 
 
+import com.google.common.collect.Iterators;
+
 import javax.annotation.concurrent.Immutable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -16,86 +31,351 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p>
  * ripped from here: http://thesoftwarelife.blogspot.com/2009/10/java-immutable-persistent-list.html
  * licensed with GPL http://www.suneido.com/faq/open-source-license
+ * <p>
+ * Every node records the number of entries beneath it, so {@link #size} is O(1), and the
+ * spliterators of its {@link #entrySet views} split along subtrees with exact sizes (making parallel streams effective).
+ * A {@link Builder} (obtained via {@link #builder} or {@link #toBuilder}) is a <em>transient</em> version of the
+ * map: it modifies the nodes it has created in place, rather than copying the path to each change, so loading N
+ * entries allocates O(N) nodes. {@link #merge} and {@link #union} combine two maps node by node, reusing any
+ * subtree that is present in only one of them (or shared by both).
+ * <p>
+ * Keys whose {@code hashCode}s are poorly distributed can be accommodated by {@link #empty(IntUnaryOperator)
+ * spreading} their hashes (eg, with {@link #MURMUR3_SPREADER}), which keeps the trie shallow. Keys whose hashes
+ * collide completely share an OverflowNode, which keeps them sorted (and binary-searches them) when they are
+ * mutually {@link Comparable}; {@link #collisionStats} reports how many keys are in such nodes.
  */
 @Immutable
 public abstract class PersistentMap<K, V> {
   private static final int BITS_PER_LEVEL = 5;
   private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
   private static final int HASH_BITS = 32;
+  // TrieNodes at shifts 0, 5, ..., 30, plus an OverflowNode
+  private static final int MAX_DEPTH = (HASH_BITS + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL + 1;
 
   @SuppressWarnings("rawtypes")
-  private static final TrieNode emptyNode = new TrieNode(0, new Object[0]);
+  private static final BinaryOperator PREFER_OTHER = (mine, theirs) -> theirs;
+  @SuppressWarnings("rawtypes")
+  private static final TrieNode emptyNode = new TrieNode(null, null, 0, new Object[0], 0);
+
+  /**
+   * The finalization mix of MurmurHash3, which spreads the influence of every bit of a {@code hashCode} across all
+   * of the bits of the result.
+   */
+  public static final IntUnaryOperator MURMUR3_SPREADER = h -> {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  };
 
   @SuppressWarnings("unchecked")
   public static final <K, V> PersistentMap<K, V> empty() {
     return emptyNode;
   }
 
+  /**
+   * @param hashSpreader applied to the {@code hashCode} of each key to determine its position in the trie (and
+   *                     inherited by every map derived from the result)
+   */
+  public static <K, V> PersistentMap<K, V> empty(IntUnaryOperator hashSpreader) {
+    return new TrieNode<K, V>(null, checkNotNull(hashSpreader), 0, new Object[0], 0);
+  }
+
+  public static <K, V> PersistentMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+    return PersistentMap.<K, V>builder().putAll(map).build();
+  }
+
   public abstract V get(Object key);
 
   public abstract PersistentMap<K, V> with(K key, V value);
 
   public abstract PersistentMap<K, V> without(K key);
 
-  // TODO size
+  /**
+   * @return the number of entries in this map, in O(1) time
+   */
+  public abstract int size();
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
 
   public boolean containsKey(Object key) {
     return get(key) != null;
   }
 
+  /**
+   * @return a map containing the entries of both maps, preferring the values from {@code other} for keys that
+   * appear in both
+   * @see #merge
+   */
+  @SuppressWarnings("unchecked")
+  public PersistentMap<K, V> union(PersistentMap<K, V> other) {
+    return merge(other, PREFER_OTHER);
+  }
+
+  /**
+   * Combines this map with another, node by node: any subtree present in only one map is reused as-is. For
+   * {@link #union}, subtrees shared by both maps (eg, because both were derived from a common ancestor) are reused
+   * as well; other resolvers are applied to every key present in both.
+   *
+   * @param resolver computes the value for a key present in both maps, given this map's value and then the other's
+   */
+  @SuppressWarnings("unchecked")
+  public PersistentMap<K, V> merge(PersistentMap<K, V> other, BinaryOperator<V> resolver) {
+    checkNotNull(resolver);
+    Node<K, V> x = (Node<K, V>) this;
+    Node<K, V> y = (Node<K, V>) other;
+    if (y.isEmpty()) return x;
+    if (x.spreader != y.spreader) {
+      // the tries are arranged differently; add the other map's entries one at a time
+      Builder<K, V> builder = toBuilder();
+      y.forEach((key, value) -> {
+        V existing = builder.get(key);
+        builder.put(key, existing == null ? value : checkNotNull(resolver.apply(existing, value), "merge resolver returned null"));
+      });
+      return builder.build();
+    }
+    if (x.isEmpty()) return y;
+    return mergeNodes(x, y, 0, resolver);
+  }
+
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Iterator<Entry<K, V>> entries = entryIterator();
+    while (entries.hasNext()) {
+      Entry<K, V> entry = entries.next();
+      action.accept(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @return a lazy view of the entries of this map, in hash order
+   */
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return entryIterator();
+      }
+
+      @Override
+      public Spliterator<Entry<K, V>> spliterator() {
+        return PersistentMap.this.spliterator(Function.identity(), Spliterator.DISTINCT);
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if (!(o instanceof Entry)) return false;
+        Entry<?, ?> entry = (Entry<?, ?>) o;
+        return entry.getKey() != null && entry.getValue() != null && entry.getValue().equals(get(entry.getKey()));
+      }
+
+      @Override
+      public int size() {
+        return PersistentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * @return a lazy view of the keys of this map, in hash order
+   */
+  public Set<K> keySet() {
+    return new AbstractSet<K>() {
+      @Override
+      public Iterator<K> iterator() {
+        return Iterators.transform(entryIterator(), Entry::getKey);
+      }
+
+      @Override
+      public Spliterator<K> spliterator() {
+        return PersistentMap.this.spliterator(Entry::getKey, Spliterator.DISTINCT);
+      }
+
+      @Override
+      public boolean contains(Object key) {
+        return key != null && containsKey(key);
+      }
+
+      @Override
+      public int size() {
+        return PersistentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * @return a lazy view of the values of this map, in the hash order of their keys
+   */
+  public Collection<V> values() {
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        return Iterators.transform(entryIterator(), Entry::getValue);
+      }
+
+      @Override
+      public Spliterator<V> spliterator() {
+        return PersistentMap.this.spliterator(Entry::getValue, 0);
+      }
+
+      @Override
+      public int size() {
+        return PersistentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * @return an unmodifiable {@link Map} view of this map
+   */
+  public Map<K, V> asMap() {
+    return new AbstractMap<K, V>() {
+      @Override
+      public Set<Entry<K, V>> entrySet() {
+        return PersistentMap.this.entrySet();
+      }
+
+      @Override
+      public V get(Object key) {
+        return key == null ? null : PersistentMap.this.get(key);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return key != null && PersistentMap.this.containsKey(key);
+      }
+
+      @Override
+      public Set<K> keySet() {
+        return PersistentMap.this.keySet();
+      }
+
+      @Override
+      public Collection<V> values() {
+        return PersistentMap.this.values();
+      }
+
+      @Override
+      public int size() {
+        return PersistentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * @return a Builder that starts with the entries of this map (which is not affected by changes to the Builder)
+   */
+  public Builder<K, V> toBuilder() {
+    return new Builder<K, V>(this);
+  }
+
+  @SuppressWarnings("unchecked")
+  Iterator<Entry<K, V>> entryIterator() {
+    return new EntryIterator<K, V>((Node<K, V>) this);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Spliterator<T> spliterator(Function<? super Entry<K, V>, ? extends T> projection, int characteristics) {
+    Node<K, V> root = (Node<K, V>) this;
+    return new NodeSpliterator<K, V, T>(root, 0, root.slotCount(), root.size, projection, characteristics);
+  }
+
+  /**
+   * Walks the whole trie, so takes O(N) time.
+   *
+   * @return statistics describing the keys in this map whose hashes collide completely
+   */
+  @SuppressWarnings("unchecked")
+  public CollisionStats collisionStats() {
+    CollisionStats stats = new CollisionStats();
+    stats.visit((Node<K, V>) this, 1);
+    return stats;
+  }
+
   private static abstract class Node<K, V> extends PersistentMap<K, V> {
+    final IntUnaryOperator spreader; // null for the identity function
+    // normally final/immutable but modified in place by the Builder that created the node
+    int size; // the number of entries in this subtree
+
+    Node(IntUnaryOperator spreader) {
+      this.spreader = spreader;
+    }
+
+    int hash(Object key) {
+      int h = key.hashCode();
+      return spreader == null ? h : spreader.applyAsInt(h);
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<K, V> emptyMap() {
+      return spreader == null ? emptyNode : (Node<K, V>) empty(spreader);
+    }
+
     @Override
     public V get(Object key) {
       checkNotNull(key);
-      return get(key, key.hashCode(), 0);
+      return get(key, hash(key), 0);
     }
 
     @Override
     public PersistentMap<K, V> with(K key, V value) {
       checkNotNull(key);
       checkNotNull(value);
-      return with(key, value, key.hashCode(), 0);
+      return with(null, key, value, hash(key), 0);
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public PersistentMap<K, V> without(Object key) {
-      Node<K, V> n = (Node<K, V>) without(key, key.hashCode(), 0);
-      return n == null ? emptyNode : n;
+      Node<K, V> n = (Node<K, V>) without(null, key, hash(key), 0);
+      return n == null ? emptyMap() : n;
     }
 
-    protected abstract Node<K, V> with(K key, V value, int hash, int shift);
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param edit the Builder token that permits modifying nodes in place, or null to copy as usual
+     * @return the updated node; this node if nothing changed, or if it was modified in place
+     */
+    protected abstract Node<K, V> with(Object edit, K key, V value, int hash, int shift);
 
     /**
      * @return either a Node, or null if empty, or sole remaining
-     * SimpleImmutableEntry from OverflowNode
+     * HashEntry from OverflowNode
      */
-    protected abstract Object without(Object key, int hash, int shift);
+    protected abstract Object without(Object edit, Object key, int hash, int shift);
 
     protected abstract V get(Object key, int hash, int shift);
 
-    // Only used by Builder
-    protected void add(K key, V value) {
-      checkNotNull(key);
-      checkNotNull(value);
-      add(key, value, key.hashCode(), 0);
-    }
+    /**
+     * @return the number of occupied slots, each holding either an entry or a child Node
+     */
+    protected abstract int slotCount();
 
-    // Only used by Builder
-    protected abstract void add(K key, V value, int hash, int shift);
+    protected abstract Object slot(int i);
   }
 
   @Immutable
   @SuppressWarnings("unchecked")
   private static class TrieNode<K, V> extends Node<K, V> {
-
-    // normally final/immutable but modified by Builder via add on private copy
+    // the Builder that owns this node (and so may modify it in place), if any
+    final Object edit;
+    // normally final/immutable but modified in place by the Builder that created the node
     int bitmap; // 1's indicate existing slots in a
     Object a[]; // size = number of 1's in bitmap
 
-    protected TrieNode(int bitmap, Object a[]) {
+    protected TrieNode(Object edit, IntUnaryOperator spreader, int bitmap, Object a[], int size) {
+      super(spreader);
+      this.edit = edit;
       this.bitmap = bitmap;
       this.a = a;
+      this.size = size;
     }
 
     @Override
@@ -103,10 +383,10 @@ public abstract class PersistentMap<K, V> {
       int bit = bit(hash, shift);
       if ((bitmap & bit) == 0)
         return null; // slot empty
-      int i = Integer.bitCount(bitmap & (bit - 1));
-      if (a[i] instanceof SimpleImmutableEntry<?, ?>) {
-        SimpleImmutableEntry<K, V> assoc =
-                (SimpleImmutableEntry<K, V>) a[i];
+      int i = index(bit);
+      if (a[i] instanceof HashEntry<?, ?>) {
+        HashEntry<K, V> assoc =
+                (HashEntry<K, V>) a[i];
         return assoc.getKey().equals(key) ? assoc.getValue() : null;
       } else {
         Node<K, V> child = (Node<K, V>) a[i];
@@ -115,96 +395,64 @@ public abstract class PersistentMap<K, V> {
     }
 
     @Override
-    protected void add(K key, V value, int hash, int shift) {
-      SimpleImmutableEntry<K, V> assoc;
+    protected Node<K, V> with(Object edit, K key, V value, int hash, int shift) {
       int bit = bit(hash, shift);
-      int i = Integer.bitCount(bitmap & (bit - 1));
+      int i = index(bit);
       if ((bitmap & bit) == 0) { // not found
-        int len = length();
-        if (len + 1 > a.length)
-          a = Arrays.copyOf(a, a.length * 2);
-        bitmap |= bit;
-        System.arraycopy(a, i, a, i + 1, len - i);
-        // fall thru to bottom
-      } else if (a[i] instanceof SimpleImmutableEntry) {
-        assoc = (SimpleImmutableEntry<K, V>) a[i];
-        if (assoc.getKey().equals(key)) {
-          if (assoc.getValue().equals(value))
-            return; // entry already exists
-          // fall through to bottom
-        } else { // collision
-          // push entry into child node along with new entry
-          a[i] = newChild(assoc, key, value, hash,
-                  shift + BITS_PER_LEVEL);
-          return;
+        Object aa[] = new Object[a.length + 1];
+        System.arraycopy(a, 0, aa, 0, i);
+        System.arraycopy(a, i, aa, i + 1, a.length - i);
+        aa[i] = new HashEntry<K, V>(key, value, hash);
+        if (isEditableBy(edit)) {
+          bitmap |= bit;
+          a = aa;
+          size++;
+          return this;
         }
-      } else { // slot points to child node
-        Node<K, V> child = (Node<K, V>) a[i];
-        Node<K, V> newchild = child.with(key, value, hash,
-                shift + BITS_PER_LEVEL);
-        a[i] = newchild;
-        return;
+        return new TrieNode<K, V>(edit, spreader, bitmap | bit, aa, size + 1);
       }
-      a[i] = new SimpleImmutableEntry<K, V>(key, value);
-    }
 
-    @Override
-    protected TrieNode<K, V> with(K key, V value, int hash, int shift) {
-      SimpleImmutableEntry<K, V> assoc;
-      int bm;
-      Object aa[];
-      int bit = bit(hash, shift);
-      int i = Integer.bitCount(bitmap & (bit - 1));
-      if ((bitmap & bit) == 0) { // not found
-        aa = new Object[a.length + 1];
-        bm = bitmap | bit;
-        System.arraycopy(a, 0, aa, 0, i);
-        System.arraycopy(a, i, aa, i + 1, a.length - i);
-        // fall thru to bottom
-      } else if (a[i] instanceof SimpleImmutableEntry) {
-        assoc = (SimpleImmutableEntry<K, V>) a[i];
+      Object newSlot;
+      int sizeDelta;
+      if (a[i] instanceof HashEntry) {
+        HashEntry<K, V> assoc = (HashEntry<K, V>) a[i];
         if (assoc.getKey().equals(key)) {
           if (assoc.getValue().equals(value))
             return this; // entry already exists
-          aa = a.clone(); // same length since key already existed
-          bm = bitmap;
-          // fall through to bottom
+          newSlot = new HashEntry<K, V>(key, value, hash);
+          sizeDelta = 0;
         } else { // collision
           // push entry into child node along with new entry
-          aa = a.clone();
-          aa[i] = newChild(assoc, key, value, hash,
-                  shift + BITS_PER_LEVEL);
-          return new TrieNode<K, V>(bitmap, aa);
+          newSlot = newChild(edit, spreader, assoc, new HashEntry<K, V>(key, value, hash), shift + BITS_PER_LEVEL);
+          sizeDelta = 1;
         }
       } else { // slot points to child node
         Node<K, V> child = (Node<K, V>) a[i];
-        Node<K, V> newchild =
-                child.with(key, value, hash, shift + BITS_PER_LEVEL);
-        if (newchild == child)
-          return this; // entry already exists
-        aa = a.clone();
-        aa[i] = newchild;
-        return new TrieNode<K, V>(bitmap, aa);
+        int childSize = child.size;
+        Node<K, V> newChild = child.with(edit, key, value, hash, shift + BITS_PER_LEVEL);
+        if (newChild == child && newChild.size == childSize)
+          return this; // entry already exists, or the child was updated in place
+        newSlot = newChild;
+        sizeDelta = newChild.size - childSize;
       }
-      aa[i] = new SimpleImmutableEntry<K, V>(key, value);
-      return new TrieNode<K, V>(bm, aa);
+      TrieNode<K, V> result = editable(edit);
+      result.a[i] = newSlot;
+      result.size += sizeDelta;
+      return result;
     }
 
-    private static <K, V> Node<K, V> newChild(SimpleImmutableEntry<K, V> assoc,
-                                              K key, V value, int hash, int shift) {
+    private static <K, V> Node<K, V> newChild(Object edit, IntUnaryOperator spreader, HashEntry<K, V> assoc,
+                                              HashEntry<K, V> newAssoc, int shift) {
       if (shift >= HASH_BITS)
-        return new OverflowNode<K, V>(assoc, new SimpleImmutableEntry<K, V>(key,
-                value));
-      int ha = (assoc.getKey().hashCode() >> shift) & LEVEL_MASK;
-      int h = (hash >>> shift) & LEVEL_MASK;
+        return OverflowNode.of(spreader, assoc, newAssoc);
+      int ha = (assoc.hash >>> shift) & LEVEL_MASK;
+      int h = (newAssoc.hash >>> shift) & LEVEL_MASK;
       if (ha == h) { // collision
         Object[] aa = new Object[1];
-        aa[0] = newChild(assoc, key, value, hash, shift + BITS_PER_LEVEL);
-        return new TrieNode<K, V>(1 << h, aa);
+        aa[0] = newChild(edit, spreader, assoc, newAssoc, shift + BITS_PER_LEVEL);
+        return new TrieNode<K, V>(edit, spreader, 1 << h, aa, 2);
       }
       Object[] aa = new Object[2];
-      SimpleImmutableEntry<K, V> newAssoc =
-              new SimpleImmutableEntry<K, V>(key, value);
       if (h < ha) {
         aa[0] = newAssoc;
         aa[1] = assoc;
@@ -213,34 +461,72 @@ public abstract class PersistentMap<K, V> {
         aa[1] = newAssoc;
       }
       int bm = (1 << h) | (1 << ha);
-      return new TrieNode<K, V>(bm, aa);
+      return new TrieNode<K, V>(edit, spreader, bm, aa, 2);
     }
 
     @Override
-    protected Object without(Object key, int hash, int shift) {
+    protected Object without(Object edit, Object key, int hash, int shift) {
       int bit = bit(hash, shift);
       if ((bitmap & bit) == 0)
         return this; // slot empty
-      int i = Integer.bitCount(bitmap & (bit - 1));
+      int i = index(bit);
       if (a[i] instanceof Node<?, ?>) {
-        Object newChild =
-                ((Node<K, V>) a[i]).without(key, hash, shift
-                        + BITS_PER_LEVEL);
-        if (newChild == a[i])
+        Node<K, V> child = (Node<K, V>) a[i];
+        int childSize = child.size;
+        Object newChild = child.without(edit, key, hash, shift + BITS_PER_LEVEL);
+        if (newChild == child && child.size == childSize)
           return this; // not present
         if (newChild != null) {
-          Object aa[] = a.clone();
-          aa[i] = newChild;
-          return new TrieNode<K, V>(bitmap, aa);
+          TrieNode<K, V> result = editable(edit);
+          result.a[i] = collapse(newChild);
+          result.size--;
+          return result;
         } // else fall through
-      } else if (!((SimpleImmutableEntry<K, V>) a[i]).getKey().equals(key))
+      } else if (!((HashEntry<K, V>) a[i]).getKey().equals(key))
         return this; // slot has different key, key not present
       if (a.length == 1)
         return null;
       Object aa[] = new Object[a.length - 1];
       System.arraycopy(a, 0, aa, 0, i);
       System.arraycopy(a, i + 1, aa, i, a.length - i - 1);
-      return new TrieNode<K, V>(bitmap & ~bit, aa);
+      if (isEditableBy(edit)) {
+        bitmap &= ~bit;
+        a = aa;
+        size--;
+        return this;
+      }
+      return new TrieNode<K, V>(edit, spreader, bitmap & ~bit, aa, size - 1);
+    }
+
+    // a child that has been reduced to a single entry is replaced by that entry
+    private static Object collapse(Object slot) {
+      if (slot instanceof TrieNode) {
+        TrieNode<?, ?> node = (TrieNode<?, ?>) slot;
+        if (node.size == 1 && node.a[0] instanceof HashEntry) return node.a[0];
+      }
+      return slot;
+    }
+
+    private boolean isEditableBy(Object edit) {
+      return edit != null && this.edit == edit;
+    }
+
+    private TrieNode<K, V> editable(Object edit) {
+      return isEditableBy(edit) ? this : new TrieNode<K, V>(edit, spreader, bitmap, a.clone(), size);
+    }
+
+    @Override
+    protected int slotCount() {
+      return a.length;
+    }
+
+    @Override
+    protected Object slot(int i) {
+      return a[i];
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
     }
 
     private static int bit(int hash, int shift) {
@@ -248,124 +534,492 @@ public abstract class PersistentMap<K, V> {
       int bit = 1 << h;
       return bit;
     }
-
-    private int length() {
-      // could use bitCount instead
-      int i = a.length - 1;
-      while (i > 0 && a[i] == null)
-        --i;
-      return i + 1;
-    }
-
   }
 
   /**
-   * Used for overflow leaf nodes when multiple identical hash
+   * Used for overflow leaf nodes when multiple identical hash. If the keys are mutually {@link Comparable}
+   * (instances of the same Comparable class), they are kept sorted, so they can be found by binary search.
    */
   @Immutable
   @SuppressWarnings("unchecked")
   private static class OverflowNode<K, V> extends Node<K, V> {
-    // normally final but modified by Builder via add on private copy
-    private SimpleImmutableEntry<K, V> assocs[];
-
-    private OverflowNode(SimpleImmutableEntry<K, V> assoc1,
-                         SimpleImmutableEntry<K, V> assoc2) {
-      this.assocs = new SimpleImmutableEntry[2];
-      assocs[0] = assoc1;
-      assocs[1] = assoc2;
-    }
+    private final HashEntry<K, V> assocs[];
+    private final boolean sorted;
 
-    private OverflowNode(SimpleImmutableEntry<K, V>[] assocs) {
+    private OverflowNode(IntUnaryOperator spreader, HashEntry<K, V>[] assocs, boolean sorted) {
+      super(spreader);
       this.assocs = assocs;
+      this.sorted = sorted;
+      this.size = assocs.length;
     }
 
-    @Override
-    protected V get(Object key, int hash, int shift) {
-      int i = find(key);
-      return i == -1 ? null : assocs[i].getValue();
+    static <K, V> OverflowNode<K, V> of(IntUnaryOperator spreader, HashEntry<K, V> assoc1, HashEntry<K, V> assoc2) {
+      K key1 = assoc1.getKey();
+      K key2 = assoc2.getKey();
+      if (areComparable(key1, key2)) {
+        int c = compare(key1, key2);
+        if (c < 0) return new OverflowNode<K, V>(spreader, entryArray(assoc1, assoc2), true);
+        if (c > 0) return new OverflowNode<K, V>(spreader, entryArray(assoc2, assoc1), true);
+      }
+      return new OverflowNode<K, V>(spreader, entryArray(assoc1, assoc2), false);
     }
 
     @Override
-    protected void add(K key, V value, int hash, int shift) {
+    protected V get(Object key, int hash, int shift) {
       int i = find(key);
-      if (i == -1) { // key not found
-        i = length();
-        if (i > assocs.length - 1)
-          assocs = Arrays.copyOf(assocs, assocs.length * 2);
-      }
-      assocs[i] = new SimpleImmutableEntry<K, V>(key, value);
+      return i < 0 ? null : assocs[i].getValue();
     }
 
+    // overflow nodes are rare, so they are always copied, even by a Builder
     @Override
-    protected OverflowNode<K, V> with(K key, V value, int hash, int shift) {
+    protected OverflowNode<K, V> with(Object edit, K key, V value, int hash, int shift) {
       int i = find(key);
-      SimpleImmutableEntry<K, V>[] a;
-      if (i == -1) { // key not found
-        i = length();
-        a = Arrays.copyOf(assocs, i + 1);
-      } else if (assocs[i].getValue().equals(value))
-        return this; // already there
-      else
+      if (i >= 0) {
+        if (assocs[i].getValue().equals(value))
+          return this; // already there
         // key exists but value wrong
-        a = Arrays.copyOf(assocs, length());
-      a[i] = new SimpleImmutableEntry<K, V>(key, value);
-      return new OverflowNode<K, V>(a);
+        HashEntry<K, V>[] a = assocs.clone();
+        a[i] = new HashEntry<K, V>(key, value, hash);
+        return new OverflowNode<K, V>(spreader, a, sorted);
+      }
+      int pos = -(i + 1);
+      boolean stillSorted = sorted
+              && areComparable(key, assocs[0].getKey())
+              && (pos == 0 || compare(assocs[pos - 1].getKey(), key) < 0)
+              && (pos == assocs.length || compare(key, assocs[pos].getKey()) < 0);
+      HashEntry<K, V>[] a = newEntryArray(assocs.length + 1);
+      System.arraycopy(assocs, 0, a, 0, pos);
+      System.arraycopy(assocs, pos, a, pos + 1, assocs.length - pos);
+      a[pos] = new HashEntry<K, V>(key, value, hash);
+      return new OverflowNode<K, V>(spreader, a, stillSorted);
     }
 
     @Override
-    protected Object without(Object key, int hash, int shift) {
+    protected Object without(Object edit, Object key, int hash, int shift) {
       int i = find(key);
-      if (i == -1)
+      if (i < 0)
         return this; // not there
-      if (length() == 2)
+      if (assocs.length == 2)
         return assocs[i ^ 1];
-      SimpleImmutableEntry<K, V> a[] = new SimpleImmutableEntry[length() - 1];
+      HashEntry<K, V>[] a = newEntryArray(assocs.length - 1);
       System.arraycopy(assocs, 0, a, 0, i);
       System.arraycopy(assocs, i + 1, a, i, a.length - i);
-      return new OverflowNode<K, V>(a);
+      return new OverflowNode<K, V>(spreader, a, sorted);
     }
 
+    @Override
+    protected int slotCount() {
+      return assocs.length;
+    }
+
+    @Override
+    protected Object slot(int i) {
+      return assocs[i];
+    }
+
+    /**
+     * @return the index of the key, or (-(insertion point) - 1) if it is absent
+     */
     private int find(Object key) {
-      for (int i = 0; i < length(); ++i)
+      if (sorted && areComparable(key, assocs[0].getKey())) {
+        int low = 0;
+        int high = assocs.length - 1;
+        while (low <= high) {
+          int mid = (low + high) >>> 1;
+          int c = compare(assocs[mid].getKey(), key);
+          if (c < 0) {
+            low = mid + 1;
+          } else if (c > 0) {
+            high = mid - 1;
+          } else if (assocs[mid].getKey().equals(key)) {
+            return mid;
+          } else {
+            break; // compareTo is inconsistent with equals for this key; fall back to scanning
+          }
+        }
+        if (low > high) return -(low + 1);
+      }
+      for (int i = 0; i < assocs.length; ++i)
         if (assocs[i].getKey().equals(key))
           return i;
-      return -1;
+      return -(assocs.length + 1);
+    }
+
+    private static boolean areComparable(Object key, Object other) {
+      return key instanceof Comparable && key.getClass() == other.getClass();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static int compare(Object a, Object b) {
+      return ((Comparable) a).compareTo(b);
+    }
+  }
+
+  /**
+   * Remembers the (spread) hash of its key, so that the key need not be rehashed when the entry is pushed down the
+   * trie, or merged into another map.
+   */
+  private static final class HashEntry<K, V> extends SimpleImmutableEntry<K, V> {
+    private static final long serialVersionUID = -3107283649203754198L;
+
+    final int hash;
+
+    HashEntry(K key, V value, int hash) {
+      super(key, value);
+      this.hash = hash;
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static <K, V> HashEntry<K, V>[] newEntryArray(int length) {
+    return new HashEntry[length];
+  }
+
+  private static <K, V> HashEntry<K, V>[] entryArray(HashEntry<K, V> first, HashEntry<K, V> second) {
+    HashEntry<K, V>[] entries = newEntryArray(2);
+    entries[0] = first;
+    entries[1] = second;
+    return entries;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Node<K, V> mergeNodes(Node<K, V> x, Node<K, V> y, int shift, BinaryOperator<V> resolver) {
+    if (x == y && resolver == PREFER_OTHER) return x;
+    if (!(x instanceof TrieNode && y instanceof TrieNode)) {
+      // OverflowNodes: fold in the entries one by one
+      Node<K, V> result = x;
+      for (int i = 0; i < y.slotCount(); i++) {
+        result = mergeEntry(result, (HashEntry<K, V>) y.slot(i), shift, resolver, false);
+      }
+      return result;
+    }
+
+    TrieNode<K, V> tx = (TrieNode<K, V>) x;
+    TrieNode<K, V> ty = (TrieNode<K, V>) y;
+    int bitmap = tx.bitmap | ty.bitmap;
+    Object aa[] = new Object[Integer.bitCount(bitmap)];
+    int size = 0;
+    boolean sameAsX = bitmap == tx.bitmap;
+    boolean sameAsY = bitmap == ty.bitmap;
+    int i = 0;
+    for (int remaining = bitmap; remaining != 0; remaining &= remaining - 1) {
+      int bit = Integer.lowestOneBit(remaining);
+      Object xs = (tx.bitmap & bit) == 0 ? null : tx.a[tx.index(bit)];
+      Object ys = (ty.bitmap & bit) == 0 ? null : ty.a[ty.index(bit)];
+      Object slot = xs == null ? ys : ys == null ? xs : mergeSlots(tx.spreader, xs, ys, shift + BITS_PER_LEVEL, resolver);
+      sameAsX &= slot == xs;
+      sameAsY &= slot == ys;
+      size += slot instanceof Node ? ((Node<?, ?>) slot).size : 1;
+      aa[i++] = slot;
+    }
+    if (sameAsX) return tx;
+    if (sameAsY) return ty;
+    return new TrieNode<K, V>(null, tx.spreader, bitmap, aa, size);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Object mergeSlots(IntUnaryOperator spreader, Object x, Object y, int shift, BinaryOperator<V> resolver) {
+    if (x == y && resolver == PREFER_OTHER) return x;
+    if (x instanceof Node) {
+      return y instanceof Node
+              ? mergeNodes((Node<K, V>) x, (Node<K, V>) y, shift, resolver)
+              : mergeEntry((Node<K, V>) x, (HashEntry<K, V>) y, shift, resolver, false);
+    }
+    HashEntry<K, V> xe = (HashEntry<K, V>) x;
+    if (y instanceof Node) return mergeEntry((Node<K, V>) y, xe, shift, resolver, true);
+
+    HashEntry<K, V> ye = (HashEntry<K, V>) y;
+    if (!xe.getKey().equals(ye.getKey())) {
+      return TrieNode.newChild(null, spreader, xe, ye, shift);
+    }
+    V value = checkNotNull(resolver.apply(xe.getValue(), ye.getValue()), "merge resolver returned null");
+    if (value.equals(xe.getValue())) return xe;
+    if (value.equals(ye.getValue())) return ye;
+    return new HashEntry<K, V>(xe.getKey(), value, xe.hash);
+  }
+
+  /**
+   * @param entryIsFromLeft whether the entry comes from the left-hand (this) map, and so supplies the first
+   *                        argument to the resolver
+   */
+  private static <K, V> Node<K, V> mergeEntry(Node<K, V> node, HashEntry<K, V> entry, int shift,
+                                              BinaryOperator<V> resolver, boolean entryIsFromLeft) {
+    K key = entry.getKey();
+    V existing = node.get(key, entry.hash, shift);
+    V value = existing == null ? entry.getValue()
+            : entryIsFromLeft ? resolver.apply(entry.getValue(), existing)
+            : resolver.apply(existing, entry.getValue());
+    return node.with(null, key, checkNotNull(value, "merge resolver returned null"), entry.hash, shift);
+  }
+
+  /**
+   * Walks the trie depth-first, holding only the path to the current entry.
+   */
+  private static class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+    private final Node<?, ?>[] nodes = new Node<?, ?>[MAX_DEPTH];
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth = 0;
+    private Entry<K, V> next;
+
+    EntryIterator(Node<K, V> root) {
+      nodes[0] = root;
+      next = advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> advance() {
+      while (depth >= 0) {
+        Node<?, ?> node = nodes[depth];
+        int position = positions[depth];
+        if (position == node.slotCount()) {
+          nodes[depth--] = null;
+          continue;
+        }
+        positions[depth] = position + 1;
+        Object slot = node.slot(position);
+        if (slot instanceof Node) {
+          nodes[++depth] = (Node<?, ?>) slot;
+          positions[depth] = 0;
+        } else {
+          return (Entry<K, V>) slot;
+        }
+      }
+      return null;
     }
 
-    private int length() {
-      int i = assocs.length - 1;
-      while (i > 0 && assocs[i] == null)
-        --i;
-      return i + 1;
+    @Override
+    public boolean hasNext() {
+      return next != null;
     }
 
+    @Override
+    public Entry<K, V> next() {
+      Entry<K, V> result = next;
+      if (result == null) throw new NoSuchElementException();
+      next = advance();
+      return result;
+    }
   }
 
+  /**
+   * Covers a range of the slots in one node. Splitting divides the range in half, or descends into the node's only
+   * remaining child, so each half's size is known exactly.
+   */
+  private static class NodeSpliterator<K, V, T> implements Spliterator<T> {
+    private final Function<? super Entry<K, V>, ? extends T> projection;
+    private final int characteristics;
+    private Node<K, V> node;
+    private int index;
+    private int fence;
+    private long remaining;
+    private Iterator<Entry<K, V>> current; // the entries of a child slot that is being traversed
+
+    NodeSpliterator(Node<K, V> node, int index, int fence, long size, Function<? super Entry<K, V>, ? extends T> projection, int characteristics) {
+      this.node = node;
+      this.index = index;
+      this.fence = fence;
+      this.remaining = size;
+      this.projection = projection;
+      this.characteristics = characteristics | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super T> action) {
+      while (true) {
+        if (current != null) {
+          if (current.hasNext()) {
+            remaining--;
+            action.accept(projection.apply(current.next()));
+            return true;
+          }
+          current = null;
+        }
+        if (index >= fence) return false;
+        Object slot = node.slot(index++);
+        if (slot instanceof Node) {
+          current = new EntryIterator<K, V>((Node<K, V>) slot);
+        } else {
+          remaining--;
+          action.accept(projection.apply((Entry<K, V>) slot));
+          return true;
+        }
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Spliterator<T> trySplit() {
+      while (current == null && fence - index == 1 && node.slot(index) instanceof Node) {
+        node = (Node<K, V>) node.slot(index);
+        index = 0;
+        fence = node.slotCount();
+      }
+      if (fence - index < 2) return null;
+      int mid = (index + fence) >>> 1;
+      long prefixSize = 0;
+      for (int i = index; i < mid; i++) {
+        Object slot = node.slot(i);
+        prefixSize += slot instanceof Node ? ((Node<?, ?>) slot).size : 1;
+      }
+      Spliterator<T> prefix = new NodeSpliterator<K, V, T>(node, index, mid, prefixSize, projection, characteristics);
+      index = mid;
+      remaining -= prefixSize;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+      return characteristics;
+    }
+  }
+
+  /**
+   * Describes how the keys of a PersistentMap are distributed through its trie: in particular, how many share
+   * OverflowNodes because their hashes collide completely (where lookups must search a chain of entries).
+   *
+   * @see #collisionStats
+   */
+  public static final class CollisionStats {
+    private int entryCount;
+    private int maxDepth;
+    private int overflowNodeCount;
+    private int collidingEntryCount;
+    private int maxChainLength;
+
+    private CollisionStats() {
+    }
+
+    private void visit(Node<?, ?> node, int depth) {
+      if (depth == 1) entryCount = node.size;
+      maxDepth = Math.max(maxDepth, depth);
+      if (node instanceof OverflowNode) {
+        overflowNodeCount++;
+        collidingEntryCount += node.size;
+        maxChainLength = Math.max(maxChainLength, node.size);
+        return;
+      }
+      for (int i = 0; i < node.slotCount(); i++) {
+        Object slot = node.slot(i);
+        if (slot instanceof Node) visit((Node<?, ?>) slot, depth + 1);
+      }
+    }
+
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    /**
+     * @return the number of nodes on the longest path from the root to an entry
+     */
+    public int getMaxDepth() {
+      return maxDepth;
+    }
+
+    /**
+     * @return the number of distinct complete hash collisions
+     */
+    public int getOverflowNodeCount() {
+      return overflowNodeCount;
+    }
+
+    /**
+     * @return the number of entries whose key's hash is shared with another key
+     */
+    public int getCollidingEntryCount() {
+      return collidingEntryCount;
+    }
+
+    /**
+     * @return the greatest number of keys sharing a single hash (or 0 if there are no collisions)
+     */
+    public int getMaxChainLength() {
+      return maxChainLength;
+    }
+
+    public double getMeanChainLength() {
+      return overflowNodeCount == 0 ? 0 : (double) collidingEntryCount / overflowNodeCount;
+    }
+
+    @Override
+    public String toString() {
+      return "CollisionStats{entries=" + entryCount + ", maxDepth=" + maxDepth + ", overflowNodes=" + overflowNodeCount
+              + ", collidingEntries=" + collidingEntryCount + ", maxChainLength=" + maxChainLength + "}";
+    }
+  }
+
+  /**
+   * A transient map: changes are made in place to the nodes that this Builder has created, and only the nodes it
+   * shares with other maps are copied (once each), so loading N entries takes O(N) time and allocation.
+   * {@link #build} yields an immutable map; the Builder may continue to be used afterward, without affecting it.
+   */
   public static class Builder<K, V> {
+    private Object edit = new Object();
+    private Node<K, V> map;
 
-    private Node<K, V> map = new TrieNode<K, V>(0, new Object[4]);
+    public Builder() {
+      this(PersistentMap.<K, V>empty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Builder(PersistentMap<K, V> map) {
+      this.map = (Node<K, V>) map;
+    }
 
     public Builder<K, V> put(K key, V value) {
-      map.add(key, value);
+      checkNotNull(key);
+      checkNotNull(value);
+      map = map.with(edit, key, value, map.hash(key), 0);
       return this;
     }
 
     public Builder<K, V> putAll(Map<? extends K, ? extends V> m) {
       for (Entry<? extends K, ? extends V> e : m.entrySet())
-        map.add(e.getKey(), e.getValue());
+        put(e.getKey(), e.getValue());
       return this;
     }
 
     /**
-     * The Builder cannot be used after calling build()
-     *
-     * @return The working map, which may contain some unused space, but
-     * doesn't require copying.
+     * Adds all of the entries of the given map (replacing any existing values), reusing its subtrees where possible.
+     */
+    @SuppressWarnings("unchecked")
+    public Builder<K, V> putAll(PersistentMap<K, V> m) {
+      map = (Node<K, V>) map.union(m);
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Builder<K, V> remove(Object key) {
+      checkNotNull(key);
+      Node<K, V> n = (Node<K, V>) map.without(edit, key, map.hash(key), 0);
+      map = n == null ? map.emptyMap() : n;
+      return this;
+    }
+
+    public V get(Object key) {
+      return map.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+      return map.containsKey(key);
+    }
+
+    public int size() {
+      return map.size;
+    }
+
+    /**
+     * @return The map, which is not affected by any further changes to this Builder
      */
     public PersistentMap<K, V> build() {
-      PersistentMap<K, V> result = map;
-      map = null;
-      return result;
+      // relinquish ownership of the nodes built so far
+      edit = new Object();
+      return map;
     }
   }
 
@@ -13,7 +13,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A persistent immutable single linked set class.
  *
- * NOTE: this is not an efficient structure for large sets: insertion is O(N)
+ * NOTE: this is not an efficient structure for large sets: insertion is O(N). Prefer {@link PersistentHashSet}
+ * unless the insertion-ordered List view is needed.
  */
 @Immutable
 public class PersistentSet<T> extends AbstractSequentialList<T> implements Set<T> {
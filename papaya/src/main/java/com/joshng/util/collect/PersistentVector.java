@@ -0,0 +1,450 @@
+package com.joshng.util.collect;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A persistent immutable list with efficient random access and appends: a bit-partitioned trie of 32-element arrays,
+ * in the style of Clojure's PersistentVector, with the last (partial) array held aside as a <em>tail</em>.<p/>
+ * <p>
+ * {@link #get} and {@link #with(int, Object) with(index, value)} take O(log<sub>32</sub> N) time (at most 7 array
+ * hops for any int-sized vector), and copy only the path to the affected element; {@link #append} copies just the
+ * tail, touching the trie only once every 32 elements, so it is amortized O(1). A {@link Builder} (see
+ * {@link #builder} and {@link #toBuilder}) modifies its own arrays in place, for O(N) bulk loading.<p/>
+ * <p>
+ * In contrast, {@link PersistentList} offers O(1) prepends, but O(N) indexed access. A PersistentVector may be
+ * obtained from any {@link FunIterable} with {@link FunIterable#toPersistentVector}, or viewed as one with
+ * {@link #funIterable}. Null elements are not permitted.
+ */
+@Immutable
+public class PersistentVector<T> extends AbstractList<T> implements RandomAccess {
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int WIDTH = 1 << BITS_PER_LEVEL;
+  private static final int LEVEL_MASK = WIDTH - 1;
+
+  // shared by every empty (and emptied) trie: it is owned by no Builder, so editable() always copies it, and its
+  // array must never be modified in place
+  private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+  @SuppressWarnings("rawtypes")
+  private static final PersistentVector EMPTY = new PersistentVector(0, BITS_PER_LEVEL, EMPTY_NODE, new Object[0]);
+
+  private final int size;
+  private final int shift;
+  private final Node root;
+  private final Object[] tail;
+
+  private PersistentVector(int size, int shift, Node root, Object[] tail) {
+    this.size = size;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  /**
+   * @return The empty vector
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentVector<T> empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @return A vector containing the specified values
+   */
+  @SafeVarargs
+  @SuppressWarnings("varargs") // addFromArray only reads from the array
+  public static <T> PersistentVector<T> of(T... values) {
+    return PersistentVector.<T>builder().addFromArray(values, 0, values.length).build();
+  }
+
+  /**
+   * @return A new vector with the values from the Iterable
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentVector<T> copyOf(Iterable<? extends T> values) {
+    if (values instanceof PersistentVector) return (PersistentVector<T>) values;
+    return PersistentVector.<T>builder().addAll(values).build();
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<T>(PersistentVector.<T>empty());
+  }
+
+  /**
+   * @return a Collector that accumulates elements into a PersistentVector, via a {@link Builder}
+   */
+  public static <T> Collector<T, ?, PersistentVector<T>> collector() {
+    return Collector.<T, Builder<T>, PersistentVector<T>>of(
+            PersistentVector::builder,
+            Builder::add,
+            (left, right) -> left.addAll(right.build()),
+            Builder::build);
+  }
+
+  /**
+   * @return a Builder that starts with the elements of this vector (which is not affected by changes to the Builder)
+   */
+  public Builder<T> toBuilder() {
+    return new Builder<T>(this);
+  }
+
+  /**
+   * @return a FunIterable view of this vector
+   */
+  public FunIterable<T> funIterable() {
+    return Functional.extend(this);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    return (T) arrayFor(index)[index & LEVEL_MASK];
+  }
+
+  /**
+   * @return A new vector with the element at the given index replaced by value
+   */
+  public PersistentVector<T> with(int index, T value) {
+    checkNotNull(value);
+    checkElementIndex(index, size);
+    if (index >= tailOffset()) {
+      Object[] newTail = tail.clone();
+      newTail[index & LEVEL_MASK] = value;
+      return new PersistentVector<T>(size, shift, root, newTail);
+    }
+    return new PersistentVector<T>(size, shift, assoc(null, shift, root, index, value), tail);
+  }
+
+  /**
+   * @return A new vector with value added at the end
+   */
+  public PersistentVector<T> append(T value) {
+    checkNotNull(value);
+    if (size - tailOffset() < WIDTH) {
+      Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = value;
+      return new PersistentVector<T>(size + 1, shift, root, newTail);
+    }
+    // the tail is full: push it into the trie, and start a new one
+    Node tailNode = new Node(null, tail);
+    int newShift = shift;
+    Node newRoot;
+    if ((size >>> BITS_PER_LEVEL) > (1 << shift)) { // the trie is full: add a level
+      newRoot = new Node(null, new Object[WIDTH]);
+      newRoot.array[0] = root;
+      newRoot.array[1] = newPath(null, shift, tailNode);
+      newShift += BITS_PER_LEVEL;
+    } else {
+      newRoot = pushTail(null, size, shift, root, tailNode);
+    }
+    return new PersistentVector<T>(size + 1, newShift, newRoot, new Object[]{value});
+  }
+
+  /**
+   * @return A new vector with the values from the Iterable added at the end
+   */
+  public PersistentVector<T> appendAll(Iterable<? extends T> values) {
+    return toBuilder().addAll(values).build();
+  }
+
+  /**
+   * @return A new vector without the last element
+   * @throws NoSuchElementException if this vector is empty
+   */
+  public PersistentVector<T> withoutLast() {
+    if (size == 0) throw new NoSuchElementException("Vector is empty");
+    if (size == 1) return empty();
+    if (size - tailOffset() > 1) {
+      return new PersistentVector<T>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+    }
+    // the tail will be empty: the last array in the trie becomes the new tail
+    Object[] newTail = arrayFor(size - 2);
+    Node newRoot = popTail(shift, root);
+    int newShift = shift;
+    if (newRoot == null) newRoot = EMPTY_NODE;
+    if (shift > BITS_PER_LEVEL && newRoot.array[1] == null) { // only one branch remains: remove a level
+      newRoot = (Node) newRoot.array[0];
+      newShift -= BITS_PER_LEVEL;
+    }
+    return new PersistentVector<T>(size - 1, newShift, newRoot, newTail);
+  }
+
+  /**
+   * Note: O(toIndex - fromIndex), copying whole 32-element arrays at a time. For a transient view, use
+   * {@link #subList}.
+   *
+   * @return A new vector with the elements from fromIndex (inclusive) to toIndex (exclusive)
+   */
+  public PersistentVector<T> slice(int fromIndex, int toIndex) {
+    checkPositionIndexes(fromIndex, toIndex, size);
+    if (fromIndex == 0 && toIndex == size) return this;
+    Builder<T> builder = builder();
+    int i = fromIndex;
+    while (i < toIndex) {
+      Object[] array = arrayFor(i);
+      int start = i & LEVEL_MASK;
+      int count = Math.min(toIndex - i, (array == tail ? tail.length : WIDTH) - start);
+      builder.addFromArray(array, start, count);
+      i += count;
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int index = 0;
+      private Object[] array = size == 0 ? null : arrayFor(0);
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (index >= size) throw new NoSuchElementException();
+        if (index != 0 && (index & LEVEL_MASK) == 0) array = arrayFor(index);
+        return (T) array[index++ & LEVEL_MASK];
+      }
+    };
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void forEach(Consumer<? super T> action) {
+    for (int i = 0; i < size; i += WIDTH) {
+      Object[] array = arrayFor(i);
+      int count = Math.min(WIDTH, size - i);
+      for (int j = 0; j < count; j++) {
+        action.accept((T) array[j]);
+      }
+    }
+  }
+
+  private int tailOffset() {
+    return size < WIDTH ? 0 : ((size - 1) >>> BITS_PER_LEVEL) << BITS_PER_LEVEL;
+  }
+
+  private Object[] arrayFor(int index) {
+    checkElementIndex(index, size);
+    return arrayFor(index, tailOffset(), shift, root, tail);
+  }
+
+  private static Object[] arrayFor(int index, int tailOffset, int shift, Node root, Object[] tail) {
+    if (index >= tailOffset) return tail;
+    Node node = root;
+    for (int level = shift; level > 0; level -= BITS_PER_LEVEL) {
+      node = (Node) node.array[(index >>> level) & LEVEL_MASK];
+    }
+    return node.array;
+  }
+
+  private static Node assoc(Object edit, int level, Node node, int index, Object value) {
+    Node result = node.editable(edit);
+    if (level == 0) {
+      result.array[index & LEVEL_MASK] = value;
+    } else {
+      int subIndex = (index >>> level) & LEVEL_MASK;
+      result.array[subIndex] = assoc(edit, level - BITS_PER_LEVEL, (Node) node.array[subIndex], index, value);
+    }
+    return result;
+  }
+
+  /**
+   * @param size the number of elements before the tail is pushed, including those in the tail
+   */
+  private static Node pushTail(Object edit, int size, int level, Node parent, Node tailNode) {
+    int subIndex = ((size - 1) >>> level) & LEVEL_MASK;
+    Node result = parent.editable(edit);
+    Node toInsert;
+    if (level == BITS_PER_LEVEL) {
+      toInsert = tailNode;
+    } else {
+      Node child = (Node) parent.array[subIndex];
+      toInsert = child != null
+              ? pushTail(edit, size, level - BITS_PER_LEVEL, child, tailNode)
+              : newPath(edit, level - BITS_PER_LEVEL, tailNode);
+    }
+    result.array[subIndex] = toInsert;
+    return result;
+  }
+
+  private static Node newPath(Object edit, int level, Node node) {
+    if (level == 0) return node;
+    Node result = new Node(edit, new Object[WIDTH]);
+    result.array[0] = newPath(edit, level - BITS_PER_LEVEL, node);
+    return result;
+  }
+
+  /**
+   * @return the node without its last leaf, or null if that leaves it empty
+   */
+  private Node popTail(int level, Node node) {
+    int subIndex = ((size - 2) >>> level) & LEVEL_MASK;
+    if (level > BITS_PER_LEVEL) {
+      Node newChild = popTail(level - BITS_PER_LEVEL, (Node) node.array[subIndex]);
+      if (newChild == null && subIndex == 0) return null;
+      Node result = node.editable(null);
+      result.array[subIndex] = newChild;
+      return result;
+    } else if (subIndex == 0) {
+      return null;
+    } else {
+      Node result = node.editable(null);
+      result.array[subIndex] = null;
+      return result;
+    }
+  }
+
+  /**
+   * An interior node, or a leaf holding 32 elements.
+   */
+  private static final class Node {
+    // the Builder that owns this node (and so may modify it in place), if any
+    final Object edit;
+    final Object[] array;
+
+    Node(Object edit, Object[] array) {
+      this.edit = edit;
+      this.array = array;
+    }
+
+    Node editable(Object edit) {
+      return edit != null && this.edit == edit ? this : new Node(edit, array.clone());
+    }
+  }
+
+  /**
+   * A transient vector: appends and updates modify the arrays that this Builder has created in place, and only the
+   * nodes it shares with other vectors are copied (once each). {@link #build} yields an immutable vector; the
+   * Builder may continue to be used afterward, without affecting it.
+   */
+  public static class Builder<T> {
+    private Object edit = new Object();
+    private int size;
+    private int shift;
+    private Node root;
+    private Object[] tail; // always WIDTH long, while owned by the Builder
+
+    private Builder(PersistentVector<T> vector) {
+      size = vector.size;
+      shift = vector.shift;
+      root = vector.root;
+      tail = Arrays.copyOf(vector.tail, WIDTH);
+    }
+
+    public Builder<T> add(T value) {
+      checkNotNull(value);
+      if (size - tailOffset() < WIDTH) {
+        tail[size & LEVEL_MASK] = value;
+        size++;
+        return this;
+      }
+      Node tailNode = new Node(edit, tail);
+      tail = new Object[WIDTH];
+      tail[0] = value;
+      if ((size >>> BITS_PER_LEVEL) > (1 << shift)) {
+        Node newRoot = new Node(edit, new Object[WIDTH]);
+        newRoot.array[0] = root;
+        newRoot.array[1] = newPath(edit, shift, tailNode);
+        root = newRoot;
+        shift += BITS_PER_LEVEL;
+      } else {
+        root = pushTail(edit, size, shift, root, tailNode);
+      }
+      size++;
+      return this;
+    }
+
+    public Builder<T> addAll(Iterable<? extends T> values) {
+      if (values instanceof Collection) {
+        // copy in whole arrays where possible
+        Object[] array = ((Collection<?>) values).toArray();
+        return addFromArray(array, 0, array.length);
+      }
+      for (T value : values)
+        add(value);
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Builder<T> addFromArray(Object[] array, int offset, int count) {
+      int end = offset + count;
+      while (offset < end) {
+        int tailCount = size - tailOffset();
+        if (tailCount == WIDTH) {
+          // let add() push the full tail into the trie
+          add((T) array[offset++]);
+          continue;
+        }
+        int n = Math.min(WIDTH - tailCount, end - offset);
+        for (int i = offset; i < offset + n; i++) checkNotNull(array[i]);
+        System.arraycopy(array, offset, tail, tailCount, n);
+        size += n;
+        offset += n;
+      }
+      return this;
+    }
+
+    /**
+     * Replaces the element at the given index
+     */
+    public Builder<T> set(int index, T value) {
+      checkNotNull(value);
+      checkElementIndex(index, size);
+      if (index >= tailOffset()) {
+        tail[index & LEVEL_MASK] = value;
+      } else {
+        root = assoc(edit, shift, root, index, value);
+      }
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      checkElementIndex(index, size);
+      return (T) arrayFor(index, tailOffset(), shift, root, tail)[index & LEVEL_MASK];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return The vector, which is not affected by any further changes to this Builder
+     */
+    public PersistentVector<T> build() {
+      if (size == 0) return empty();
+      // relinquish ownership of the nodes built so far
+      edit = new Object();
+      return new PersistentVector<T>(size, shift, root, Arrays.copyOf(tail, size - tailOffset()));
+    }
+
+    private int tailOffset() {
+      return size < WIDTH ? 0 : ((size - 1) >>> BITS_PER_LEVEL) << BITS_PER_LEVEL;
+    }
+  }
+}
@@ -12,6 +12,6 @@ import java.util.concurrent.Executor;
 public abstract class AbstractFunFuture<T> extends AbstractFuture<T> implements FunFuture<T> {
   @Override
   public void addListener(Runnable listener, Executor exec) {
-    super.addListener(AsyncContext.snapshot().wrapRunnable(listener), exec);
+    super.addListener(AsyncContext.wrapRunnable(listener), exec);
   }
 }
@@ -0,0 +1,154 @@
+package com.joshng.util.concurrent;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link BatchSizingPolicy} that adjusts the batch size and linger time between configured bounds, based upon the
+ * observed arrival rate and batch-completion latency:
+ * <ul>
+ * <li>when batches fill completely (bursty arrivals), or recent batch latency rises well above its long-run
+ * baseline (a slow batchConsumer), both the batch size and linger time grow</li>
+ * <li>when batches are less than half full, or arrivals are too sparse to expect another job within the maximum
+ * linger time, both shrink back toward their minimums</li>
+ * </ul>
+ * The chosen sizes and per-batch latencies are recorded in {@link Histogram Histograms}, which may be published
+ * with {@link #registerMetrics}.
+ */
+public class AdaptiveBatchSizingPolicy implements BatchSizingPolicy {
+  private static final double GROWTH_FACTOR = 1.25;
+  private static final double SHRINK_FACTOR = 0.8;
+  private static final double SLOW_LATENCY_RATIO = 1.5;
+  private static final double RECENT_WEIGHT = 0.25;
+  private static final double BASELINE_WEIGHT = 0.02;
+
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long minLingerNanos;
+  private final long maxLingerNanos;
+  private final long lingerStepNanos;
+  private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
+  private final Histogram batchLatencyNanos = new Histogram(new ExponentiallyDecayingReservoir());
+  private final Ewma recentLatencyNanos = new Ewma(RECENT_WEIGHT);
+  private final Ewma baselineLatencyNanos = new Ewma(BASELINE_WEIGHT);
+  private final Ewma arrivalsPerSecond = new Ewma(RECENT_WEIGHT);
+  private volatile int batchSize;
+  private volatile long lingerNanos;
+  private long lastDispatchNanos; // only accessed by the drainer
+
+  public AdaptiveBatchSizingPolicy(int minBatchSize, int maxBatchSize, long minLingerTime, long maxLingerTime, TimeUnit lingerUnit) {
+    checkArgument(minBatchSize > 0 && minBatchSize <= maxBatchSize, "batch sizes must satisfy 0 < min <= max: %s, %s", minBatchSize, maxBatchSize);
+    checkArgument(minLingerTime >= 0 && minLingerTime <= maxLingerTime, "linger times must satisfy 0 <= min <= max: %s, %s", minLingerTime, maxLingerTime);
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.minLingerNanos = lingerUnit.toNanos(minLingerTime);
+    this.maxLingerNanos = lingerUnit.toNanos(maxLingerTime);
+    lingerStepNanos = Math.max(1, (maxLingerNanos - minLingerNanos) / 32);
+    batchSize = minBatchSize;
+    lingerNanos = minLingerNanos;
+  }
+
+  public static AdaptiveBatchSizingPolicy newAdaptivePolicy(int minBatchSize, int maxBatchSize, long minLingerTime, long maxLingerTime, TimeUnit lingerUnit) {
+    return new AdaptiveBatchSizingPolicy(minBatchSize, maxBatchSize, minLingerTime, maxLingerTime, lingerUnit);
+  }
+
+  @Override public int maxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @Override public int currentBatchSize() {
+    return batchSize;
+  }
+
+  @Override public long currentLingerNanos() {
+    return lingerNanos;
+  }
+
+  @Override public void onBatchDispatched(int dispatchedSize, int batchesInFlight) {
+    batchSizes.update(dispatchedSize);
+
+    long now = System.nanoTime();
+    if (lastDispatchNanos != 0) {
+      long elapsed = Math.max(1, now - lastDispatchNanos);
+      arrivalsPerSecond.update(dispatchedSize * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+    lastDispatchNanos = now;
+
+    int currentSize = batchSize;
+    boolean downstreamSlow = isDownstreamSlow();
+    boolean sparseArrivals = arrivalsPerSecond.get() * maxLingerNanos < TimeUnit.SECONDS.toNanos(1);
+    if (dispatchedSize >= currentSize || downstreamSlow) {
+      batchSize = (int) Math.min(maxBatchSize, Math.ceil(currentSize * GROWTH_FACTOR));
+      lingerNanos = Math.min(maxLingerNanos, Math.max((long) (lingerNanos * GROWTH_FACTOR), lingerNanos + lingerStepNanos));
+    } else if (dispatchedSize * 2 < currentSize || sparseArrivals) {
+      batchSize = Math.max(minBatchSize, (int) (currentSize * SHRINK_FACTOR));
+      lingerNanos = sparseArrivals ? minLingerNanos : Math.max(minLingerNanos, (long) (lingerNanos * SHRINK_FACTOR));
+    }
+  }
+
+  @Override public void onBatchCompleted(int completedSize, long latencyNanos) {
+    batchLatencyNanos.update(latencyNanos);
+    recentLatencyNanos.update(latencyNanos);
+    baselineLatencyNanos.update(latencyNanos);
+  }
+
+  public boolean isDownstreamSlow() {
+    double baseline = baselineLatencyNanos.get();
+    return baseline > 0 && recentLatencyNanos.get() > baseline * SLOW_LATENCY_RATIO;
+  }
+
+  public double getArrivalsPerSecond() {
+    return arrivalsPerSecond.get();
+  }
+
+  public Histogram getBatchSizeHistogram() {
+    return batchSizes;
+  }
+
+  public Histogram getBatchLatencyNanosHistogram() {
+    return batchLatencyNanos;
+  }
+
+  public AdaptiveBatchSizingPolicy registerMetrics(MetricRegistry registry, String prefix) {
+    registry.register(MetricRegistry.name(prefix, "batchSize"), batchSizes);
+    registry.register(MetricRegistry.name(prefix, "batchLatencyNanos"), batchLatencyNanos);
+    registry.register(MetricRegistry.name(prefix, "currentBatchSize"), (Gauge<Integer>) this::currentBatchSize);
+    registry.register(MetricRegistry.name(prefix, "currentLingerNanos"), (Gauge<Long>) this::currentLingerNanos);
+    registry.register(MetricRegistry.name(prefix, "arrivalsPerSecond"), (Gauge<Double>) this::getArrivalsPerSecond);
+    return this;
+  }
+
+  /**
+   * An exponentially-weighted moving average that tolerates concurrent updates without locking.
+   */
+  private static class Ewma {
+    private final double weight;
+    private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+    Ewma(double weight) {
+      this.weight = weight;
+    }
+
+    void update(double sample) {
+      long prevBits;
+      double next;
+      do {
+        prevBits = bits.get();
+        double prev = Double.longBitsToDouble(prevBits);
+        next = Double.isNaN(prev) ? sample : prev + weight * (sample - prev);
+      } while (!bits.compareAndSet(prevBits, Double.doubleToRawLongBits(next)));
+    }
+
+    double get() {
+      double value = Double.longBitsToDouble(bits.get());
+      return Double.isNaN(value) ? 0 : value;
+    }
+  }
+}
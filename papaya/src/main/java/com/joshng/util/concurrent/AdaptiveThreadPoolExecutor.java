@@ -0,0 +1,336 @@
+package com.joshng.util.concurrent;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link ThreadPoolExecutor} that sizes itself by the time tasks spend waiting in its queue (their
+ * <em>sojourn time</em>), in the manner of the CoDel ("controlled delay") queue-management algorithm.<p/>
+ * <p>
+ * A queue that is merely bursty drains quickly, so the <em>minimum</em> sojourn time seen over an interval stays
+ * low; a standing queue keeps it above the {@code targetQueueDelay}. When the sojourn time has stayed above the
+ * target for a full interval, the pool's core size is grown by one thread (up to {@code maxPoolSize}), and the
+ * queue is given another interval to respond. If the pool is already at its maximum size, the executor begins
+ * <em>shedding</em>: tasks that have waited longer than the target are passed to the configured
+ * {@link RejectedExecutionHandler} (see {@link #onTaskShed}) rather than run, at a rate that increases with the square root of the number
+ * shed, until the sojourn time falls below the target again. This keeps the delay seen by the tasks that do run
+ * bounded, rather than letting the whole queue go stale. Conversely, when a full interval passes with every task
+ * starting promptly while some core threads sat idle, the core size is shrunk by one (down to {@code minPoolSize}),
+ * and the surplus thread exits once it has been idle for an interval.<p/>
+ * <p>
+ * Tasks rejected outright (because the queue is full or the executor is shut down) are passed to the configured
+ * {@link RejectedExecutionHandler}, typically a {@link ThreadPoolSaturationPolicy}. The sojourn times, pool sizes,
+ * and shed and rejected counts may be published with {@link #registerMetrics}.<p/>
+ * <p>
+ * Decisions are made by the worker threads as they dequeue each task; the common case (a task whose sojourn time
+ * is below the target) only reads a few volatile fields.
+ *
+ * @see FunctionalExecutorService#adaptiveThreadPool
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+  private final int minPoolSize;
+  private final int maxPoolSize;
+  private final long targetNanos;
+  private final long intervalNanos;
+  private final RejectedExecutionHandler saturationPolicy;
+
+  private final Histogram queueSojournNanos = new Histogram(new ExponentiallyDecayingReservoir());
+  private final LongAdder shedCount = new LongAdder();
+  private final LongAdder rejectedCount = new LongAdder();
+  private volatile boolean delayedSinceShrinkCheck;
+
+  // CoDel state; only written while holding controlLock
+  private final Object controlLock = new Object();
+  private volatile long firstAboveNanos;      // when the sojourn time will have been above target for an interval; 0 if it is below target
+  private volatile boolean dropping;
+  private long dropNextNanos;
+  private int dropCount;
+  private int lastDropCount;
+  private volatile long nextShrinkCheckNanos;
+
+  public AdaptiveThreadPoolExecutor(
+          int minPoolSize,
+          int maxPoolSize,
+          long targetQueueDelay,
+          long interval,
+          TimeUnit unit,
+          ThreadFactory threadFactory
+  ) {
+    this(minPoolSize, maxPoolSize, targetQueueDelay, interval, unit, Integer.MAX_VALUE, threadFactory, ThreadPoolSaturationPolicy.Abort);
+  }
+
+  /**
+   * @param targetQueueDelay the longest sojourn time that is acceptable as a standing delay
+   * @param interval         how long the sojourn time must stay above the target before the pool grows (or sheds
+   *                         load), and below it before the pool shrinks; should comfortably exceed the typical
+   *                         task duration (CoDel recommends 10-20 times the target)
+   * @param queueCapacity    the capacity of the task queue, or {@link Integer#MAX_VALUE} for an unbounded queue
+   * @param saturationPolicy handles tasks that cannot be queued
+   */
+  public AdaptiveThreadPoolExecutor(
+          int minPoolSize,
+          int maxPoolSize,
+          long targetQueueDelay,
+          long interval,
+          TimeUnit unit,
+          int queueCapacity,
+          ThreadFactory threadFactory,
+          RejectedExecutionHandler saturationPolicy
+  ) {
+    super(minPoolSize, maxPoolSize, interval, unit, newQueue(queueCapacity), threadFactory, ThreadPoolSaturationPolicy.Abort);
+    checkArgument(minPoolSize > 0 && maxPoolSize >= minPoolSize, "Invalid pool size bounds: min=%s, max=%s", minPoolSize, maxPoolSize);
+    checkArgument(targetQueueDelay > 0 && interval > 0, "targetQueueDelay and interval must be positive: %s, %s", targetQueueDelay, interval);
+    this.minPoolSize = minPoolSize;
+    this.maxPoolSize = maxPoolSize;
+    this.targetNanos = unit.toNanos(targetQueueDelay);
+    this.intervalNanos = unit.toNanos(interval);
+    this.saturationPolicy = saturationPolicy;
+    nextShrinkCheckNanos = System.nanoTime() + intervalNanos;
+    // installed after construction, so that the handler can reach the fields above
+    setRejectedExecutionHandler(this::rejectQueuedTask);
+  }
+
+  private static BlockingQueue<Runnable> newQueue(int capacity) {
+    checkArgument(capacity > 0, "queueCapacity must be positive: %s", capacity);
+    return capacity == Integer.MAX_VALUE ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(capacity);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    super.execute(new QueuedTask(command, System.nanoTime()));
+  }
+
+  /**
+   * @return the tasks that never commenced execution
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> queued = super.shutdownNow();
+    List<Runnable> tasks = new ArrayList<>(queued.size());
+    for (Runnable task : queued) {
+      tasks.add(unwrap(task));
+    }
+    return tasks;
+  }
+
+  /**
+   * Removes the given task from the queue, if it has not yet started.
+   */
+  @Override
+  public boolean remove(Runnable task) {
+    for (Runnable queued : getQueue()) {
+      if (unwrap(queued).equals(task)) return super.remove(queued);
+    }
+    return super.remove(task);
+  }
+
+  /**
+   * Removes all queued tasks that are cancelled {@link Future Futures}.
+   */
+  @Override
+  public void purge() {
+    getQueue().removeIf(queued -> {
+      Runnable task = unwrap(queued);
+      return task instanceof Future && ((Future<?>) task).isCancelled();
+    });
+    super.purge();
+  }
+
+  /**
+   * Note that the queue holds wrappers around the submitted tasks, which record when each was enqueued (their
+   * {@code toString} is that of the task). Use {@link #remove} or {@link #shutdownNow} to obtain or remove the tasks
+   * themselves.
+   */
+  @Override
+  public BlockingQueue<Runnable> getQueue() {
+    return super.getQueue();
+  }
+
+  /**
+   * Invoked (in a worker thread) in place of running a task that has been shed. The default implementation passes
+   * the task to the configured {@link RejectedExecutionHandler}. If that throws a {@link RejectedExecutionException}
+   * (as {@link ThreadPoolSaturationPolicy#Abort} does, after cancelling any Future), the exception is reported to the
+   * worker thread's {@link Thread.UncaughtExceptionHandler} for plain Runnables, which would otherwise be dropped
+   * without notice. Note that handlers which run or requeue the task (such as {@link ThreadPoolSaturationPolicy#CallerRuns}
+   * or {@link ThreadPoolSaturationPolicy#Block}) defeat the purpose of shedding.
+   */
+  protected void onTaskShed(Runnable task, long sojournNanos) {
+    try {
+      saturationPolicy.rejectedExecution(task, this);
+    } catch (RejectedExecutionException e) {
+      // throwing would kill the worker thread; a cancelled Future already tells its waiters what happened
+      if (!(task instanceof Future)) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  public int getMinPoolSize() {
+    return minPoolSize;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  public boolean isShedding() {
+    return dropping;
+  }
+
+  public long getShedTaskCount() {
+    return shedCount.sum();
+  }
+
+  public long getRejectedTaskCount() {
+    return rejectedCount.sum();
+  }
+
+  public Histogram getQueueSojournNanosHistogram() {
+    return queueSojournNanos;
+  }
+
+  public AdaptiveThreadPoolExecutor registerMetrics(MetricRegistry registry, String prefix) {
+    registry.register(MetricRegistry.name(prefix, "queueSojournNanos"), queueSojournNanos);
+    registry.register(MetricRegistry.name(prefix, "activeCount"), (Gauge<Integer>) this::getActiveCount);
+    registry.register(MetricRegistry.name(prefix, "poolSize"), (Gauge<Integer>) this::getPoolSize);
+    registry.register(MetricRegistry.name(prefix, "corePoolSize"), (Gauge<Integer>) this::getCorePoolSize);
+    registry.register(MetricRegistry.name(prefix, "queueSize"), (Gauge<Integer>) () -> getQueue().size());
+    registry.register(MetricRegistry.name(prefix, "shedCount"), (Gauge<Long>) this::getShedTaskCount);
+    registry.register(MetricRegistry.name(prefix, "rejectedCount"), (Gauge<Long>) this::getRejectedTaskCount);
+    return this;
+  }
+
+  private void rejectQueuedTask(Runnable task, ThreadPoolExecutor executor) {
+    rejectedCount.increment();
+    saturationPolicy.rejectedExecution(unwrap(task), executor);
+  }
+
+  private static Runnable unwrap(Runnable task) {
+    return task instanceof QueuedTask ? ((QueuedTask) task).task : task;
+  }
+
+  /**
+   * @return true if the task should be shed rather than run
+   */
+  private boolean onDequeued(long enqueuedNanos) {
+    long now = System.nanoTime();
+    long sojourn = now - enqueuedNanos;
+    queueSojournNanos.update(sojourn);
+
+    if (sojourn < targetNanos) {
+      if (firstAboveNanos != 0 || dropping) {
+        synchronized (controlLock) {
+          firstAboveNanos = 0;
+          dropping = false;
+        }
+      }
+      if (now - nextShrinkCheckNanos >= 0) maybeShrink(now);
+      return false;
+    }
+
+    if (!delayedSinceShrinkCheck) delayedSinceShrinkCheck = true;
+    synchronized (controlLock) {
+      return shouldShed(now);
+    }
+  }
+
+  // follows the dequeue logic of RFC 8289, except that an overloaded queue first tries growing the pool
+  private boolean shouldShed(long now) {
+    boolean overloaded;
+    if (firstAboveNanos == 0) {
+      firstAboveNanos = now + intervalNanos;
+      overloaded = false;
+    } else {
+      overloaded = now - firstAboveNanos >= 0;
+    }
+
+    if (dropping) {
+      if (!overloaded) {
+        dropping = false;
+        return false;
+      }
+      if (now - dropNextNanos < 0) return false;
+      dropCount++;
+      dropNextNanos = controlLaw(dropNextNanos);
+      return true;
+    }
+
+    if (!overloaded) return false;
+
+    int coreSize = getCorePoolSize();
+    if (coreSize < maxPoolSize) {
+      setCorePoolSize(coreSize + 1);
+      // give the new thread an interval to make a difference before judging again
+      firstAboveNanos = now + intervalNanos;
+      return false;
+    }
+
+    dropping = true;
+    // if we were shedding recently, resume at the rate that was last effective
+    int delta = dropCount - lastDropCount;
+    dropCount = delta > 1 && now - dropNextNanos < 16 * intervalNanos ? delta : 1;
+    lastDropCount = dropCount;
+    dropNextNanos = controlLaw(now);
+    return true;
+  }
+
+  private long controlLaw(long t) {
+    return t + (long) (intervalNanos / Math.sqrt(dropCount));
+  }
+
+  private void maybeShrink(long now) {
+    synchronized (controlLock) {
+      if (now - nextShrinkCheckNanos < 0) return;
+      nextShrinkCheckNanos = now + intervalNanos;
+      boolean delayed = delayedSinceShrinkCheck;
+      delayedSinceShrinkCheck = false;
+      int coreSize = getCorePoolSize();
+      if (!delayed && !dropping && coreSize > minPoolSize && getActiveCount() < coreSize) {
+        setCorePoolSize(coreSize - 1);
+      }
+    }
+  }
+
+  private class QueuedTask implements Runnable {
+    final Runnable task;
+    final long enqueuedNanos;
+
+    QueuedTask(Runnable task, long enqueuedNanos) {
+      this.task = task;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+
+    @Override
+    public void run() {
+      if (onDequeued(enqueuedNanos)) {
+        shedCount.increment();
+        onTaskShed(task, System.nanoTime() - enqueuedNanos);
+      } else {
+        task.run();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return task.toString();
+    }
+  }
+}
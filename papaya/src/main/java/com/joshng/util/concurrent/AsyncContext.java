@@ -1,14 +1,13 @@
 package com.joshng.util.concurrent;
 
 import com.google.common.base.Objects;
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
 import com.joshng.util.collect.ForwardingMaybe;
 import com.joshng.util.collect.Maybe;
 import com.joshng.util.collect.MutableReference;
 import com.joshng.util.context.TransientContext;
 
-import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -17,7 +16,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * Time: 10:22 AM
  */
 public class AsyncContext<T> implements ForwardingMaybe<T>, MutableReference<T> {
-  private static final ThreadLocalRef<TLongObjectMap<Object>> CURRENT_VALUES = new ThreadLocalRef<>();
+  // an immutable PersistentLongMap (or null, if no values are set), so that snapshots needn't copy anything
+  private static final ThreadLocalRef<PersistentLongMap<Object>> CURRENT_VALUES = new ThreadLocalRef<>();
   private static final AtomicLong IDENTITY = new AtomicLong();
 
   private final long key = IDENTITY.getAndIncrement();
@@ -36,25 +36,44 @@ public class AsyncContext<T> implements ForwardingMaybe<T>, MutableReference<T>
   }
 
   public static TransientContext snapshot() {
-    TLongObjectMap<Object> values = CURRENT_VALUES.get();
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
     if (values == null) return TransientContext.NULL;
-    return CURRENT_VALUES.contextWithValue(new TLongObjectHashMap<>(values));
+    return CURRENT_VALUES.contextWithValue(values);
   }
 
-  @Override public void set(T value) {
-    doSet(value, CURRENT_VALUES.get());
+  /**
+   * @return a Runnable that runs the given block with the AsyncContext values that are current now; if no values
+   * are set, the block itself is returned, without allocating a snapshot
+   */
+  public static Runnable wrapRunnable(Runnable block) {
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    return values == null ? block : CURRENT_VALUES.contextWithValue(values).wrapRunnable(block);
   }
 
-  private void doSet(T value, TLongObjectMap<Object> values) {
-    if (value == null) {
-      doRemove(values);
-    } else {
-      setNonNull(value, values);
-    }
+  /**
+   * @return a Callable that calls the given block with the AsyncContext values that are current now; if no values
+   * are set, the block itself is returned, without allocating a snapshot
+   */
+  public static <T> Callable<T> wrapCallable(Callable<T> block) {
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    return values == null ? block : CURRENT_VALUES.contextWithValue(values).wrapCallable(block);
+  }
+
+  /**
+   * @return an Executor that runs each command with the AsyncContext values that were current when it was submitted
+   * @see FunctionalExecutorService#propagatingAsyncContext
+   */
+  public static Executor propagatingExecutor(Executor executor) {
+    return command -> executor.execute(wrapRunnable(command));
+  }
+
+  @Override public void set(T value) {
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    update(values, value == null ? without(values) : with(values, value));
   }
 
   @SuppressWarnings("unchecked") @Override public T get() {
-    TLongObjectMap<Object> values = CURRENT_VALUES.get();
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
     if (values != null) {
       T value = (T) values.get(key);
       if (value != null) return value;
@@ -67,19 +86,8 @@ public class AsyncContext<T> implements ForwardingMaybe<T>, MutableReference<T>
   }
 
   public void remove() {
-    doRemove(CURRENT_VALUES.get());
-  }
-
-  private void doRemove(TLongObjectMap<Object> values) {
-    if (values != null) values.remove(key);
-  }
-
-  private void setNonNull(T value, TLongObjectMap<Object> values) {
-    if (values == null) {
-      values = new TLongObjectHashMap<>();
-      CURRENT_VALUES.set(values);
-    }
-    values.put(key, value);
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    update(values, without(values));
   }
 
   @Override public Maybe<T> getMaybe() {
@@ -87,49 +95,34 @@ public class AsyncContext<T> implements ForwardingMaybe<T>, MutableReference<T>
   }
 
   @Override public boolean compareAndSet(T expect, T update) {
-    TLongObjectMap<Object> values = CURRENT_VALUES.get();
-    boolean matched;
-    if (values != null) {
-      Object actual = values.get(key);
-      matched = Objects.equal(expect, actual);
-      if (matched) {
-        if (update != null) {
-          values.put(key, update);
-        } else {
-          values.remove(key);
-        }
-      }
-    } else {
-      matched = expect == null;
-      if (matched) {
-        if (update != null) {
-          initialize(update);
-        }
-      }
-    }
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    Object actual = values == null ? null : values.get(key);
+    boolean matched = Objects.equal(expect, actual);
+    if (matched) update(values, update == null ? without(values) : with(values, update));
     return matched;
   }
 
-  private void initialize(@Nonnull T update) {
-    TLongObjectHashMap<Object> values = new TLongObjectHashMap<>();
-    values.put(key, update);
-    CURRENT_VALUES.set(values);
-  }
-
   @SuppressWarnings("unchecked") @Override public T getAndSet(T value) {
-    TLongObjectMap<Object> values = CURRENT_VALUES.get();
-    T prev;
-    if (values == null) {
-      prev = null;
-      if (value != null) initialize(value);
-    } else if (value != null) {
-      prev = (T) values.put(key, value);
-    } else {
-      prev = (T) values.remove(key);
-    }
+    PersistentLongMap<Object> values = CURRENT_VALUES.get();
+    T prev = values == null ? null : (T) values.get(key);
+    update(values, value == null ? without(values) : with(values, value));
     return prev;
   }
 
+  private PersistentLongMap<Object> with(PersistentLongMap<Object> values, T value) {
+    return (values == null ? PersistentLongMap.empty() : values).with(key, value);
+  }
+
+  private PersistentLongMap<Object> without(PersistentLongMap<Object> values) {
+    if (values == null) return null;
+    PersistentLongMap<Object> remaining = values.without(key);
+    return remaining.isEmpty() ? null : remaining;
+  }
+
+  private static void update(PersistentLongMap<Object> prevValues, PersistentLongMap<Object> newValues) {
+    if (newValues != prevValues) CURRENT_VALUES.set(newValues);
+  }
+
   //TODO
 //  @Override public T modify(Function<? super T, ? extends T> transformer) {
 //
@@ -0,0 +1,77 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.Collections2;
+import com.google.common.util.concurrent.ForwardingListeningExecutorService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs every submitted task with the {@link AsyncContext} values that were current in the submitting thread.
+ * Submissions made while no values are set are passed through untouched.
+ *
+ * @see FunctionalExecutorService#propagatingAsyncContext
+ */
+class AsyncContextPropagatingExecutorService extends ForwardingListeningExecutorService {
+  private final ListeningExecutorService delegate;
+
+  AsyncContextPropagatingExecutorService(ListeningExecutorService delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  protected ListeningExecutorService delegate() {
+    return delegate;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    delegate.execute(AsyncContext.wrapRunnable(command));
+  }
+
+  @Override
+  public <T> ListenableFuture<T> submit(Callable<T> task) {
+    return delegate.submit(AsyncContext.wrapCallable(task));
+  }
+
+  @Override
+  public ListenableFuture<?> submit(Runnable task) {
+    return delegate.submit(AsyncContext.wrapRunnable(task));
+  }
+
+  @Override
+  public <T> ListenableFuture<T> submit(Runnable task, T result) {
+    return delegate.submit(AsyncContext.wrapRunnable(task), result);
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+    return delegate.invokeAll(wrapAll(tasks));
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+  }
+
+  @Override
+  public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+    return delegate.invokeAny(wrapAll(tasks));
+  }
+
+  @Override
+  public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+  }
+
+  private static <T> Collection<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+    return Collections2.transform(tasks, AsyncContext::wrapCallable);
+  }
+}
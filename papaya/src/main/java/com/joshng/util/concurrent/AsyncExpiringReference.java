@@ -0,0 +1,60 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An asynchronous counterpart to {@link ExpiringReference}: the value is reloaded (with single-flight
+ * {@link AsyncLazyReference loading}) once the expiry duration has passed since it was loaded.<p/>
+ * <p>
+ * Optionally, an expired value may continue to be returned for up to a maximum staleness while it is reloaded in the
+ * background ("stale-while-revalidate"), so that callers never wait for a reload unless the value is older than that.
+ */
+public abstract class AsyncExpiringReference<T> extends AsyncLazyReference<T> {
+  private final long expiryDurationNanos;
+  private final long maxStalenessNanos;
+  private volatile long expiryDeadline = 0;
+
+  public static <T> AsyncExpiringReference<T> fromAsyncSupplier(long expiryDuration, TimeUnit expiryDurationUnit, Callable<? extends ListenableFuture<T>> valueLoader) {
+    return fromAsyncSupplier(expiryDuration, 0, expiryDurationUnit, valueLoader);
+  }
+
+  /**
+   * @param maxStaleness the time after expiry for which the expired value will still be returned while it is reloaded
+   */
+  public static <T> AsyncExpiringReference<T> fromAsyncSupplier(long expiryDuration, long maxStaleness, TimeUnit timeUnit, Callable<? extends ListenableFuture<T>> valueLoader) {
+    return new AsyncExpiringReference<T>(expiryDuration, maxStaleness, timeUnit) {
+      @Override
+      protected ListenableFuture<T> loadAsync() throws Exception {
+        return valueLoader.call();
+      }
+    };
+  }
+
+  protected AsyncExpiringReference(long expiryDuration, TimeUnit expiryDurationUnit) {
+    this(expiryDuration, 0, expiryDurationUnit);
+  }
+
+  protected AsyncExpiringReference(long expiryDuration, long maxStaleness, TimeUnit timeUnit) {
+    this.expiryDurationNanos = timeUnit.toNanos(expiryDuration);
+    this.maxStalenessNanos = timeUnit.toNanos(maxStaleness);
+  }
+
+  @Override
+  protected void onLoaded(@Nullable T value) {
+    expiryDeadline = System.nanoTime() + expiryDurationNanos;
+  }
+
+  @Override
+  protected boolean needsLoad(FunFuture<T> value) {
+    return value.isDone() && System.nanoTime() - expiryDeadline >= 0;
+  }
+
+  @Override
+  protected boolean canReturnStale(FunFuture<T> value) {
+    return maxStalenessNanos > 0 && System.nanoTime() - expiryDeadline < maxStalenessNanos;
+  }
+}
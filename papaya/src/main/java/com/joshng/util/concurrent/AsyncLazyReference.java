@@ -0,0 +1,99 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An asynchronous counterpart to {@link LazyReference}: the value is loaded by a {@link FunFuture}-returning
+ * {@link #loadAsync}, and {@link #get} never blocks.<p/>
+ * <p>
+ * Loading is single-flight: callers that arrive while a load is in progress share its future, rather than starting
+ * loads of their own. If a load fails, the failure is delivered to the callers that shared it, and the next call to
+ * {@link #get} starts a new load.
+ *
+ * @see AsyncExpiringReference
+ */
+public abstract class AsyncLazyReference<T> {
+  private final AtomicReference<FunFuture<T>> current = new AtomicReference<>();
+  private final AtomicReference<Promise<T>> loadInFlight = new AtomicReference<>();
+
+  public static <T> AsyncLazyReference<T> from(Callable<? extends ListenableFuture<T>> valueLoader) {
+    return new AsyncLazyReference<T>() {
+      @Override
+      protected ListenableFuture<T> loadAsync() throws Exception {
+        return valueLoader.call();
+      }
+    };
+  }
+
+  protected abstract ListenableFuture<T> loadAsync() throws Exception;
+
+  /**
+   * @return a future for the current value, loading it first if it hasn't been loaded (or {@link #needsLoad needs
+   * to be reloaded}). Cancelling the returned future does not interrupt a load shared with other callers.
+   */
+  public FunFuture<T> get() {
+    FunFuture<T> value = current.get();
+    if (value != null && !needsLoad(value)) return shared(value);
+    FunFuture<T> load = loadOnce();
+    if (value != null && canReturnStale(value)) return value;
+    return shared(load);
+  }
+
+  /**
+   * Discards the current value, if any; the next call to {@link #get} will load a new one.
+   */
+  public void remove() {
+    current.set(null);
+  }
+
+  public boolean isSet() {
+    return current.get() != null;
+  }
+
+  /**
+   * @return true if a (completed) value must be reloaded before it may be returned
+   */
+  protected boolean needsLoad(FunFuture<T> value) {
+    return false;
+  }
+
+  /**
+   * @return true if the given value, for which a reload has just been requested, may be returned while the
+   * reload proceeds
+   */
+  protected boolean canReturnStale(FunFuture<T> value) {
+    return false;
+  }
+
+  /**
+   * Invoked when a load succeeds, before its value is published to any caller.
+   */
+  protected void onLoaded(@Nullable T value) {
+  }
+
+  private static <T> FunFuture<T> shared(FunFuture<T> future) {
+    return future.isDone() ? future : FunFuture.newFuture(Futures.nonCancellationPropagating(future));
+  }
+
+  private FunFuture<T> loadOnce() {
+    Promise<T> load;
+    while ((load = loadInFlight.get()) == null) {
+      Promise<T> promise = Promise.newPromise();
+      if (loadInFlight.compareAndSet(null, promise)) {
+        promise.completeWith(FunFuture.callSafely(this::loadAsync).map(value -> {
+          onLoaded(value);
+          current.set(promise);
+          return value;
+        }));
+        promise.uponCompletion(() -> loadInFlight.compareAndSet(promise, null));
+        return promise;
+      }
+    }
+    return load;
+  }
+}
@@ -0,0 +1,156 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.joshng.util.collect.Nothing;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A fair, weighted semaphore whose permits are granted asynchronously, via {@link FunFuture FunFutures}.<p/>
+ * <p>
+ * When permits are available and nobody is waiting, {@link #acquire} claims them with a single CAS and returns
+ * a shared, already-completed future. Otherwise, the request joins a FIFO queue of waiters; as permits are
+ * {@link #release released}, waiters are granted their permits strictly in arrival order (so a heavy waiter at
+ * the head of the queue will hold back lighter waiters behind it), and each waiter is woken individually.<p/>
+ * <p>
+ * Cancelling a waiting acquisition removes it from consideration (promptly letting the waiters behind it proceed,
+ * if permits allow); its permits are never taken.
+ */
+public class AsyncSemaphore {
+  private final long maxPermits;
+  private final AtomicLong availablePermits;
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queueLength = new AtomicInteger();
+  private final AtomicInteger grantRequests = new AtomicInteger();
+
+  public AsyncSemaphore(long permits) {
+    checkArgument(permits > 0, "permits must be positive", permits);
+    maxPermits = permits;
+    availablePermits = new AtomicLong(permits);
+  }
+
+  public FunFuture<Nothing> acquire(long permits) {
+    checkPermits(permits);
+    if (queueLength.get() == 0 && tryTake(permits)) return Nothing.FUTURE;
+
+    Waiter waiter = new Waiter(permits);
+    queueLength.incrementAndGet();
+    waiters.offer(waiter);
+    // a cancelled waiter at the head of the queue must not hold back the waiters behind it
+    waiter.addSameThreadListener(() -> {
+      if (waiter.isCancelled()) grantToWaiters();
+    });
+    grantToWaiters();
+    return waiter;
+  }
+
+  public boolean tryAcquire(long permits) {
+    checkPermits(permits);
+    return queueLength.get() == 0 && tryTake(permits);
+  }
+
+  /**
+   * Takes the given permits immediately, even if that leaves fewer than zero available (in which case subsequent
+   * acquisitions will wait until enough have been {@link #release released}). Useful for accounting for work that
+   * was started without waiting for permission.
+   */
+  public void reducePermits(long permits) {
+    checkArgument(permits >= 0, "permits must not be negative", permits);
+    availablePermits.addAndGet(-permits);
+  }
+
+  /**
+   * @throws IllegalStateException if this would leave more than {@link #getMaxPermits} permits available (ie, more
+   *                               permits are being released than were acquired)
+   */
+  public void release(long permits) {
+    checkArgument(permits >= 0, "permits must not be negative", permits);
+    long available;
+    do {
+      available = availablePermits.get();
+      checkState(available + permits <= maxPermits, "Released more permits than were acquired: %s available + %s released > %s max", available, permits, maxPermits);
+    } while (!availablePermits.compareAndSet(available, available + permits));
+    grantToWaiters();
+  }
+
+  /**
+   * Fails every acquisition that is currently waiting for permits with the given exception (eg, upon shutdown).
+   * Acquisitions requested subsequently are unaffected.
+   */
+  public void failWaiters(Throwable cause) {
+    for (Waiter waiter : waiters) {
+      waiter.setFailure(cause);
+    }
+    grantToWaiters(); // removes the failed waiters from the queue
+  }
+
+  /**
+   * Acquires the requested permits, then invokes the given jobStarter, releasing the permits when the job
+   * completes. If the returned future is cancelled before the permits are granted, the job is never started.
+   */
+  public <T> FunFuture<T> callWithPermits(long permits, Callable<? extends ListenableFuture<T>> jobStarter) {
+    return acquire(permits).flatMap(granted -> FunFuture.callSafely(jobStarter).uponCompletion(() -> release(permits)));
+  }
+
+  public long getMaxPermits() {
+    return maxPermits;
+  }
+
+  public long availablePermits() {
+    return availablePermits.get();
+  }
+
+  public int getQueueLength() {
+    return queueLength.get();
+  }
+
+  private void checkPermits(long permits) {
+    checkArgument(permits >= 0 && permits <= maxPermits, "permits must be in [0, %s]: %s", maxPermits, permits);
+  }
+
+  private boolean tryTake(long permits) {
+    long available;
+    do {
+      available = availablePermits.get();
+      if (available < permits) return false;
+    } while (!availablePermits.compareAndSet(available, available - permits));
+    return true;
+  }
+
+  /**
+   * Grants permits to waiters in FIFO order. Only one thread at a time performs the granting; concurrent callers
+   * just register that another pass is needed, which the active granter will perform before it returns.
+   */
+  private void grantToWaiters() {
+    if (grantRequests.getAndIncrement() != 0) return;
+    int missed = 1;
+    do {
+      Waiter waiter;
+      while ((waiter = waiters.peek()) != null) {
+        if (!waiter.isDone()) {
+          if (!tryTake(waiter.permits)) break;
+          // if the waiter was cancelled in the meantime, it didn't take the permits after all
+          if (!waiter.setSuccess(Nothing.NOTHING)) availablePermits.addAndGet(waiter.permits);
+        }
+        waiters.poll();
+        queueLength.decrementAndGet();
+      }
+      missed = grantRequests.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private static class Waiter extends Promise<Nothing> {
+    private final long permits;
+
+    private Waiter(long permits) {
+      this.permits = permits;
+    }
+  }
+}
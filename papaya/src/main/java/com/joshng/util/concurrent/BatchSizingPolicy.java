@@ -0,0 +1,61 @@
+package com.joshng.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Determines how large the batches assembled by a {@link ConcurrentBatchingAsyncFunction} may grow, and how long
+ * its drainer may linger for a partial batch to fill.<p/>
+ * <p>
+ * {@link #currentBatchSize}, {@link #currentLingerNanos} and {@link #onBatchDispatched} are only ever invoked by
+ * the (single) drainer thread; {@link #onBatchCompleted} may be invoked concurrently from any thread that completes
+ * a batch's results.
+ *
+ * @see AdaptiveBatchSizingPolicy
+ */
+public interface BatchSizingPolicy {
+  static BatchSizingPolicy fixed(int batchSize, long lingerTime, TimeUnit lingerUnit) {
+    checkArgument(batchSize > 0, "batchSize must be positive", batchSize);
+    long lingerNanos = lingerUnit.toNanos(lingerTime);
+    return new BatchSizingPolicy() {
+      @Override public int maxBatchSize() {
+        return batchSize;
+      }
+
+      @Override public int currentBatchSize() {
+        return batchSize;
+      }
+
+      @Override public long currentLingerNanos() {
+        return lingerNanos;
+      }
+    };
+  }
+
+  /**
+   * @return the largest value that {@link #currentBatchSize} will ever return
+   */
+  int maxBatchSize();
+
+  int currentBatchSize();
+
+  long currentLingerNanos();
+
+  /**
+   * Invoked by the drainer as each batch is handed to the batchConsumer.
+   *
+   * @param batchSize       the number of jobs in the batch
+   * @param batchesInFlight the number of batches in flight, including this one
+   */
+  default void onBatchDispatched(int batchSize, int batchesInFlight) {
+  }
+
+  /**
+   * Invoked when all of the results of a batch have completed.
+   *
+   * @param latencyNanos the time elapsed between dispatching the batch and the completion of its last result
+   */
+  default void onBatchCompleted(int batchSize, long latencyNanos) {
+  }
+}
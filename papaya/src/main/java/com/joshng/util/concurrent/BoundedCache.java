@@ -0,0 +1,679 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A size-bounded concurrent map, for use as a cache where an {@link AtomicMap} would grow without bound (or copy too
+ * much on every write).<p/>
+ * <p>
+ * Entries are stored in a {@link ConcurrentHashMap}; the eviction policy follows W-TinyLFU: new entries enter a small
+ * LRU "window", and entries leaving the window compete for admission to the main space (a segmented LRU) against
+ * its least-recently-used entry, based on their access frequencies as estimated by a compact count-min sketch.
+ * This retains frequently-used entries in the face of scans and one-hit wonders, while still admitting bursts of
+ * new entries.<p/>
+ * <p>
+ * Reads never block: each is recorded in a small per-thread-stripe buffer, and the buffers are applied to the
+ * policy by whichever thread next acquires the eviction lock (reads that find their buffer full are dropped from
+ * the policy's bookkeeping, but still succeed). Writes apply their changes to the policy under that lock.<p/>
+ * <p>
+ * Entries may also expire after a fixed time since they were written and/or last read. Expired entries are
+ * invisible to all operations, and are removed when they are encountered, or when they reach the head of their
+ * queue.<p/>
+ * <p>
+ * Values may be loaded asynchronously via {@link #getAsync}: concurrent requests for the same missing key share a
+ * single load.
+ */
+public class BoundedCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+  private static final int READ_BUFFER_SIZE = 32;
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+  private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<K, Promise<V>> loading = new ConcurrentHashMap<>();
+  private final long maximumSize;
+  private final long windowMaximum;
+  private final long protectedMaximum;
+  private final long expireAfterWriteNanos;
+  private final long expireAfterAccessNanos;
+  private final Ticker ticker;
+
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final MpscRingBuffer<Node<K, V>>[] readBuffers;
+  // guarded by evictionLock:
+  private final FrequencySketch sketch;
+  private final AccessQueue<K, V> window = new AccessQueue<>();
+  private final AccessQueue<K, V> probation = new AccessQueue<>();
+  private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LongAdder expirationCount = new LongAdder();
+  private final LongAdder loadSuccessCount = new LongAdder();
+  private final LongAdder loadFailureCount = new LongAdder();
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static <K, V> BoundedCache<K, V> newBoundedCache(long maximumSize) {
+    return newBuilder().maximumSize(maximumSize).build();
+  }
+
+  private BoundedCache(Builder builder) {
+    maximumSize = builder.maximumSize;
+    windowMaximum = Math.max(1, maximumSize / 100);
+    protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+    expireAfterWriteNanos = builder.expireAfterWriteNanos;
+    expireAfterAccessNanos = builder.expireAfterAccessNanos;
+    ticker = builder.ticker;
+    sketch = new FrequencySketch(maximumSize);
+    readBuffers = newReadBufferArray(READ_BUFFER_STRIPES);
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new MpscRingBuffer<>(READ_BUFFER_SIZE);
+    }
+  }
+
+  @Override
+  public V get(Object key) {
+    Node<K, V> node = data.get(key);
+    long now = ticker.read();
+    if (node == null || expireIfNecessary(node, now)) {
+      missCount.increment();
+      return null;
+    }
+    hitCount.increment();
+    if (expireAfterAccessNanos > 0) node.accessNanos = now;
+    afterRead(node);
+    return node.value;
+  }
+
+  /**
+   * @return the value for the given key, or the result of loading it with the given loader if it is absent. Concurrent
+   * requests for the same absent key share a single load; failed loads are not cached. Cancelling the returned future
+   * does not cancel the load.
+   */
+  public FunFuture<V> getAsync(K key, Function<? super K, ? extends ListenableFuture<V>> loader) {
+    V value = get(key);
+    if (value != null) return FunFuture.immediateFuture(value);
+
+    Promise<V> promise = Promise.newPromise();
+    Promise<V> inFlight = loading.putIfAbsent(key, promise);
+    if (inFlight != null) return FunFuture.newFuture(Futures.nonCancellationPropagating(inFlight));
+
+    promise.completeWith(FunFuture.<V>callSafely(() -> loader.apply(key)).map(loaded -> {
+      checkNotNull(loaded, "loader returned null for key %s", key);
+      put(key, loaded);
+      return loaded;
+    }));
+    promise.uponCompletion(() -> loading.remove(key, promise));
+    promise.uponSuccess(loaded -> loadSuccessCount.increment());
+    promise.uponFailure(e -> loadFailureCount.increment());
+    return FunFuture.newFuture(Futures.nonCancellationPropagating(promise));
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    Node<K, V> node = data.get(key);
+    return node != null && !isExpired(node, ticker.read());
+  }
+
+  @Override
+  public V put(K key, V value) {
+    return doPut(key, value, false);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    return doPut(key, value, true);
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    V value = get(key);
+    if (value != null) return value;
+    long now = ticker.read();
+    WriteResult<K, V> result = new WriteResult<>();
+    Node<K, V> node = data.compute(key, (k, existing) -> {
+      if (existing != null && !isExpired(existing, now)) return existing;
+      result.replaced = existing;
+      V computed = mappingFunction.apply(k);
+      return computed == null ? null : (result.added = new Node<>(k, computed, now));
+    });
+    afterWrite(result);
+    return node == null ? null : node.value;
+  }
+
+  @Override
+  public V remove(Object key) {
+    Node<K, V> node = data.remove(key);
+    if (node == null) return null;
+    boolean expired = isExpired(node, ticker.read());
+    afterRemoval(node, expired);
+    return expired ? null : node.value;
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    long now = ticker.read();
+    WriteResult<K, V> result = new WriteResult<>();
+    @SuppressWarnings("unchecked") K k = (K) key;
+    data.computeIfPresent(k, (ignored, node) -> {
+      boolean expired = isExpired(node, now);
+      if (!expired && !Objects.equal(node.value, value)) return node;
+      result.replaced = node;
+      result.removedValue = !expired;
+      return null;
+    });
+    if (result.replaced != null) afterRemoval(result.replaced, !result.removedValue);
+    return result.removedValue;
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    checkNotNull(newValue);
+    return replaceValue(key, oldValue, newValue, true) != null;
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    checkNotNull(value);
+    return replaceValue(key, null, value, false);
+  }
+
+  @Override
+  public void clear() {
+    for (K key : data.keySet()) {
+      remove(key);
+    }
+  }
+
+  /**
+   * @return the number of entries, which may include expired entries that have not yet been removed
+   */
+  @Override
+  public int size() {
+    return data.size();
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        long now = ticker.read();
+        Iterator<Node<K, V>> live = Iterators.filter(data.values().iterator(), node -> !isExpired(node, now));
+        return new Iterator<Entry<K, V>>() {
+          private Entry<K, V> last;
+
+          @Override
+          public boolean hasNext() {
+            return live.hasNext();
+          }
+
+          @Override
+          public Entry<K, V> next() {
+            Node<K, V> node = live.next();
+            return last = new SimpleImmutableEntry<>(node.key, node.value);
+          }
+
+          @Override
+          public void remove() {
+            checkState(last != null, "next() has not been called");
+            BoundedCache.this.remove(last.getKey(), last.getValue());
+            last = null;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return BoundedCache.this.size();
+      }
+    };
+  }
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public double getHitRate() {
+    long hits = hitCount.sum();
+    long requests = hits + missCount.sum();
+    return requests == 0 ? 1.0 : (double) hits / requests;
+  }
+
+  /**
+   * @return the number of entries that have been evicted to keep the cache within its maximum size
+   */
+  public long getEvictionCount() {
+    return evictionCount.sum();
+  }
+
+  public long getExpirationCount() {
+    return expirationCount.sum();
+  }
+
+  public long getLoadSuccessCount() {
+    return loadSuccessCount.sum();
+  }
+
+  public long getLoadFailureCount() {
+    return loadFailureCount.sum();
+  }
+
+  /**
+   * Applies any buffered reads to the eviction policy, and removes expired entries from the heads of its queues.
+   * This happens routinely as the cache is used; calling it explicitly is only useful to reclaim space in an idle
+   * cache.
+   */
+  public void cleanUp() {
+    evictionLock.lock();
+    try {
+      maintain(ticker.read());
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private V doPut(K key, V value, boolean onlyIfAbsent) {
+    checkNotNull(key);
+    checkNotNull(value);
+    long now = ticker.read();
+    WriteResult<K, V> result = new WriteResult<>();
+    data.compute(key, (k, node) -> {
+      if (node == null || isExpired(node, now)) {
+        result.replaced = node;
+        return result.added = new Node<>(k, value, now);
+      }
+      result.previous = node.value;
+      result.updated = node;
+      if (!onlyIfAbsent) {
+        node.value = value;
+        node.writeNanos = now;
+      }
+      node.accessNanos = now;
+      return node;
+    });
+    afterWrite(result);
+    return result.previous;
+  }
+
+  private V replaceValue(K key, V expectedValue, V newValue, boolean compareValue) {
+    long now = ticker.read();
+    WriteResult<K, V> result = new WriteResult<>();
+    data.computeIfPresent(key, (k, node) -> {
+      if (isExpired(node, now)) {
+        result.replaced = node;
+        return null;
+      }
+      if (compareValue && !Objects.equal(node.value, expectedValue)) return node;
+      result.previous = node.value;
+      result.updated = node;
+      node.value = newValue;
+      node.writeNanos = now;
+      node.accessNanos = now;
+      return node;
+    });
+    afterWrite(result);
+    return result.previous;
+  }
+
+  private boolean isExpired(Node<K, V> node, long now) {
+    return (expireAfterWriteNanos > 0 && now - node.writeNanos >= expireAfterWriteNanos)
+            || (expireAfterAccessNanos > 0 && now - node.accessNanos >= expireAfterAccessNanos);
+  }
+
+  /**
+   * @return true if the node had expired (in which case it has been removed)
+   */
+  private boolean expireIfNecessary(Node<K, V> node, long now) {
+    if (!isExpired(node, now)) return false;
+    if (data.remove(node.key, node)) afterRemoval(node, true);
+    return true;
+  }
+
+  private void afterRead(Node<K, V> node) {
+    MpscRingBuffer<Node<K, V>> buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1)];
+    // if the buffer is full, the read is simply not recorded
+    if ((!buffer.offer(node) || buffer.size() >= READ_BUFFER_DRAIN_THRESHOLD) && evictionLock.tryLock()) {
+      try {
+        maintain(ticker.read());
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void afterWrite(WriteResult<K, V> result) {
+    if (result.replaced == null && result.added == null && result.updated == null) return;
+    long now = ticker.read();
+    evictionLock.lock();
+    try {
+      if (result.replaced != null) {
+        retire(result.replaced);
+        expirationCount.increment();
+      }
+      if (result.added != null && !result.added.retired) {
+        sketch.increment(result.added.key);
+        window.linkLast(result.added);
+      } else if (result.updated != null) {
+        onAccess(result.updated);
+      }
+      maintain(now);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void afterRemoval(Node<K, V> node, boolean expired) {
+    if (expired) expirationCount.increment();
+    evictionLock.lock();
+    try {
+      retire(node);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  // the remaining methods must be invoked while holding the evictionLock
+
+  private void maintain(long now) {
+    drainReadBuffers();
+    expireHead(window, now);
+    expireHead(probation, now);
+    expireHead(protectedQueue, now);
+    evict();
+  }
+
+  private void drainReadBuffers() {
+    for (MpscRingBuffer<Node<K, V>> buffer : readBuffers) {
+      Node<K, V> node;
+      while ((node = buffer.poll()) != null) {
+        if (!node.retired) {
+          sketch.increment(node.key);
+          onAccess(node);
+        }
+      }
+    }
+  }
+
+  private void onAccess(Node<K, V> node) {
+    AccessQueue<K, V> queue = node.queue;
+    if (queue == probation) {
+      // promote to the protected segment, demoting its least-recently-used entry if it's full
+      probation.unlink(node);
+      protectedQueue.linkLast(node);
+      if (protectedQueue.size > protectedMaximum) {
+        Node<K, V> demoted = protectedQueue.first();
+        protectedQueue.unlink(demoted);
+        probation.linkLast(demoted);
+      }
+    } else if (queue != null) {
+      queue.moveToLast(node);
+    }
+  }
+
+  private void expireHead(AccessQueue<K, V> queue, long now) {
+    Node<K, V> node;
+    while ((node = queue.first()) != null && isExpired(node, now)) {
+      if (data.remove(node.key, node)) expirationCount.increment();
+      retire(node);
+    }
+  }
+
+  private void evict() {
+    // entries leaving the window become candidates for the probation segment
+    while (window.size > windowMaximum) {
+      Node<K, V> candidate = window.first();
+      window.unlink(candidate);
+      probation.linkLast(candidate);
+    }
+
+    while (window.size + probation.size + protectedQueue.size > maximumSize) {
+      if (probation.size == 0) {
+        Node<K, V> demoted = protectedQueue.first();
+        protectedQueue.unlink(demoted);
+        probation.linkLast(demoted);
+      }
+      // the most recent arrival competes with the least-recently-used entry for admission
+      Node<K, V> victim = probation.first();
+      Node<K, V> candidate = probation.last();
+      if (candidate != victim && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+        victim = candidate;
+      }
+      if (data.remove(victim.key, victim)) evictionCount.increment();
+      retire(victim);
+    }
+  }
+
+  private void retire(Node<K, V> node) {
+    node.retired = true;
+    if (node.queue != null) node.queue.unlink(node);
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static <K, V> MpscRingBuffer<Node<K, V>>[] newReadBufferArray(int length) {
+    return new MpscRingBuffer[length];
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x) - 1));
+  }
+
+  public static class Builder {
+    private long maximumSize = -1;
+    private long expireAfterWriteNanos;
+    private long expireAfterAccessNanos;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder() {
+    }
+
+    public Builder maximumSize(long maximumSize) {
+      checkArgument(maximumSize > 0, "maximumSize must be positive", maximumSize);
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    public Builder expireAfterWrite(long duration, TimeUnit unit) {
+      checkArgument(duration > 0, "duration must be positive", duration);
+      expireAfterWriteNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder expireAfterAccess(long duration, TimeUnit unit) {
+      checkArgument(duration > 0, "duration must be positive", duration);
+      expireAfterAccessNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder ticker(Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    public <K, V> BoundedCache<K, V> build() {
+      checkArgument(maximumSize > 0, "maximumSize is required");
+      return new BoundedCache<>(this);
+    }
+  }
+
+  private static class WriteResult<K, V> {
+    Node<K, V> added;
+    Node<K, V> updated;
+    Node<K, V> replaced; // removed because it was expired (or, for remove(key, value), because it matched)
+    V previous;
+    boolean removedValue;
+  }
+
+  private static final class Node<K, V> {
+    final K key;
+    volatile V value;
+    volatile long writeNanos;
+    volatile long accessNanos;
+    // guarded by evictionLock:
+    boolean retired;
+    AccessQueue<K, V> queue;
+    Node<K, V> prev;
+    Node<K, V> next;
+
+    Node(K key, V value, long now) {
+      this.key = key;
+      this.value = value;
+      this.writeNanos = now;
+      this.accessNanos = now;
+    }
+  }
+
+  /**
+   * A doubly-linked list of nodes in access order, least-recently-used first.
+   */
+  private static final class AccessQueue<K, V> {
+    private Node<K, V> head;
+    private Node<K, V> tail;
+    private long size;
+
+    Node<K, V> first() {
+      return head;
+    }
+
+    Node<K, V> last() {
+      return tail;
+    }
+
+    void linkLast(Node<K, V> node) {
+      node.queue = this;
+      node.prev = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      size++;
+    }
+
+    void unlink(Node<K, V> node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = node.next = null;
+      node.queue = null;
+      size--;
+    }
+
+    void moveToLast(Node<K, V> node) {
+      if (node != tail) {
+        unlink(node);
+        linkLast(node);
+      }
+    }
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters, estimating the popularity of keys within a time window. Counters are
+   * halved periodically (after sampling ten times the cache's maximum size) so that the estimates favor recent
+   * history.
+   */
+  private static final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final long sampleSize;
+    private long additions;
+
+    FrequencySketch(long maximumSize) {
+      int tableSize = ceilingPowerOfTwo((int) Math.min(maximumSize, 1 << 26));
+      table = new long[Math.max(tableSize, 8)];
+      tableMask = table.length - 1;
+      sampleSize = 10 * maximumSize;
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++additions == sampleSize) reset();
+    }
+
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      if ((table[index] & mask) == mask) return false;
+      table[index] += 1L << offset;
+      return true;
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return (int) h & tableMask;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+}
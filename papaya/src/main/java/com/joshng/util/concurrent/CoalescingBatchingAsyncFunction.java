@@ -0,0 +1,116 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link ConcurrentBatchingAsyncFunction} that merges identical inputs (as determined by {@link Object#equals})
+ * into a single slot of the {@link ImmutableList} passed to the {@code batchConsumer}: every caller that requests
+ * a key while that key is already waiting to be batched receives the same result.<p/>
+ * <p>
+ * If {@code joinInFlightBatches} is true, callers are also joined onto an identical key whose batch has already
+ * been dispatched but has not yet completed; otherwise, a request that arrives after its key was dispatched will
+ * be included in a subsequent batch.<p/>
+ * <p>
+ * Note that the futures returned to coalesced callers do not propagate cancellation: cancelling one caller's
+ * future does not affect the others.
+ */
+public class CoalescingBatchingAsyncFunction<K, O> implements AsyncF<K, O> {
+  private final ConcurrentMap<K, Promise<O>> pending = new ConcurrentHashMap<>();
+  private final boolean joinInFlightBatches;
+  private final ConcurrentBatchingAsyncFunction<K, O> batcher;
+  private final LongAdder coalescedCount = new LongAdder();
+
+  private CoalescingBatchingAsyncFunction(
+          BatchSizingPolicy sizingPolicy,
+          int maxBatchesInFlight,
+          boolean joinInFlightBatches,
+          Executor executor,
+          Function<? super ImmutableList<K>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    this.joinInFlightBatches = joinInFlightBatches;
+    batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(sizingPolicy, maxBatchesInFlight, executor, keys -> {
+      if (!joinInFlightBatches) {
+        // subsequent requests for these keys must start a new batch
+        for (K key : keys) {
+          pending.remove(key);
+        }
+      }
+      return batchConsumer.apply(keys);
+    });
+  }
+
+  public static <K, O> CoalescingBatchingAsyncFunction<K, O> newCoalescingAsyncBatcher(
+          int batchSize,
+          long lingerTime,
+          TimeUnit lingerUnit,
+          int maxBatchesInFlight,
+          boolean joinInFlightBatches,
+          Executor executor,
+          Function<? super ImmutableList<K>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    return newCoalescingAsyncBatcher(BatchSizingPolicy.fixed(batchSize, lingerTime, lingerUnit), maxBatchesInFlight, joinInFlightBatches, executor, batchConsumer);
+  }
+
+  public static <K, O> CoalescingBatchingAsyncFunction<K, O> newCoalescingAsyncBatcher(
+          BatchSizingPolicy sizingPolicy,
+          int maxBatchesInFlight,
+          boolean joinInFlightBatches,
+          Executor executor,
+          Function<? super ImmutableList<K>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    return new CoalescingBatchingAsyncFunction<>(sizingPolicy, maxBatchesInFlight, joinInFlightBatches, executor, batchConsumer);
+  }
+
+  public FunFuture<O> applyAsync(K key) throws InterruptedException {
+    Promise<O> promise = pending.get(key);
+    if (promise == null) {
+      Promise<O> newPromise = Promise.newPromise();
+      promise = pending.putIfAbsent(key, newPromise);
+      if (promise == null) return submit(key, newPromise);
+    }
+    coalescedCount.increment();
+    return FunFuture.newFuture(Futures.nonCancellationPropagating(promise));
+  }
+
+  private FunFuture<O> submit(K key, Promise<O> promise) throws InterruptedException {
+    FunFuture<O> result;
+    try {
+      result = batcher.applyAsync(key);
+    } catch (InterruptedException | RuntimeException e) {
+      pending.remove(key, promise);
+      promise.setFailure(e);
+      throw e;
+    }
+    result.addSameThreadListener(() -> pending.remove(key, promise));
+    promise.completeWith(result);
+    return FunFuture.newFuture(Futures.nonCancellationPropagating(promise));
+  }
+
+  public boolean isJoiningInFlightBatches() {
+    return joinInFlightBatches;
+  }
+
+  /**
+   * @return the number of requests that were satisfied by joining an identical pending request
+   */
+  public long getCoalescedRequestCount() {
+    return coalescedCount.sum();
+  }
+
+  public int getPendingKeyCount() {
+    return pending.size();
+  }
+
+  public ConcurrentBatchingAsyncFunction<K, O> getBatcher() {
+    return batcher;
+  }
+}
@@ -0,0 +1,258 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.joshng.util.blocks.Source;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock-free alternative to {@link BatchingAsyncFunction}.<p/>
+ * <p>
+ * Producers hand off jobs through an {@link MpscRingBuffer} with a single CAS, and a single drainer (elected
+ * with another CAS whenever work arrives) assembles batches of up to {@code batchSize} jobs, lingering up to
+ * {@code lingerTime} for a partial batch to fill. (Alternatively, the batch size and linger time may be chosen
+ * dynamically by a {@link BatchSizingPolicy}, such as an {@link AdaptiveBatchSizingPolicy}.) Each batch is then
+ * passed to the {@code batchConsumer} on the {@code executor}, so up to {@code maxBatchesInFlight} batches may be
+ * running concurrently; a batch remains "in flight" until all of its result-futures have completed.<p/>
+ * <p>
+ * When the ring is full, {@link #applyAsync} backs off until the drainer makes room (or the calling thread is
+ * interrupted), analogous to the blocking {@code put} performed by {@link BatchingAsyncFunction}.
+ */
+public class ConcurrentBatchingAsyncFunction<I, O> implements AsyncF<I, O> {
+  private static final long FULL_BUFFER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final BatchSizingPolicy sizingPolicy;
+  private final int maxBatchesInFlight;
+  private final Executor executor;
+  private final Function<? super ImmutableList<I>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer;
+  private final MpscRingBuffer<Job<I, O>> buffer;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicInteger batchesInFlight = new AtomicInteger();
+  private final Runnable drainer = this::drain;
+  private volatile Thread lingeringDrainer;
+
+  private ConcurrentBatchingAsyncFunction(
+          BatchSizingPolicy sizingPolicy,
+          int maxBatchesInFlight,
+          int bufferCapacity,
+          Executor executor,
+          Function<? super ImmutableList<I>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    checkArgument(maxBatchesInFlight > 0, "maxBatchesInFlight must be positive", maxBatchesInFlight);
+    checkArgument(bufferCapacity >= sizingPolicy.maxBatchSize(), "bufferCapacity must be at least the maximum batch size", bufferCapacity);
+    this.sizingPolicy = sizingPolicy;
+    this.maxBatchesInFlight = maxBatchesInFlight;
+    this.executor = executor;
+    this.batchConsumer = batchConsumer;
+    buffer = new MpscRingBuffer<>(bufferCapacity);
+  }
+
+  public static <I, O> ConcurrentBatchingAsyncFunction<I, O> newConcurrentAsyncBatcher(
+          int batchSize,
+          long lingerTime,
+          TimeUnit lingerUnit,
+          int maxBatchesInFlight,
+          Executor executor,
+          Function<? super ImmutableList<I>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    return newConcurrentAsyncBatcher(BatchSizingPolicy.fixed(batchSize, lingerTime, lingerUnit), maxBatchesInFlight, executor, batchConsumer);
+  }
+
+  public static <I, O> ConcurrentBatchingAsyncFunction<I, O> newConcurrentAsyncBatcher(
+          BatchSizingPolicy sizingPolicy,
+          int maxBatchesInFlight,
+          Executor executor,
+          Function<? super ImmutableList<I>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    return newConcurrentAsyncBatcher(sizingPolicy, maxBatchesInFlight, sizingPolicy.maxBatchSize() * (maxBatchesInFlight + 1), executor, batchConsumer);
+  }
+
+  public static <I, O> ConcurrentBatchingAsyncFunction<I, O> newConcurrentAsyncBatcher(
+          BatchSizingPolicy sizingPolicy,
+          int maxBatchesInFlight,
+          int bufferCapacity,
+          Executor executor,
+          Function<? super ImmutableList<I>, ? extends Iterable<? extends ListenableFuture<O>>> batchConsumer
+  ) {
+    return new ConcurrentBatchingAsyncFunction<>(sizingPolicy, maxBatchesInFlight, bufferCapacity, executor, batchConsumer);
+  }
+
+  public FunFuture<O> applyAsync(I input) throws InterruptedException {
+    Job<I, O> job = new Job<>(input);
+    while (!buffer.offer(job)) {
+      scheduleDrain();
+      if (Thread.interrupted()) throw new InterruptedException();
+      LockSupport.parkNanos(this, FULL_BUFFER_BACKOFF_NANOS);
+    }
+
+    Thread lingerer = lingeringDrainer;
+    if (lingerer != null) {
+      LockSupport.unpark(lingerer);
+    } else {
+      scheduleDrain();
+    }
+    return job.promise;
+  }
+
+  public int getPendingJobCount() {
+    return buffer.size();
+  }
+
+  public int getBatchesInFlight() {
+    return batchesInFlight.get();
+  }
+
+  public BatchSizingPolicy getSizingPolicy() {
+    return sizingPolicy;
+  }
+
+  private void scheduleDrain() {
+    if (!draining.get() && draining.compareAndSet(false, true)) {
+      try {
+        executor.execute(drainer); // could throw RejectedExecutionException, etc
+      } catch (RuntimeException e) {
+        handleRejectedExecution(e);
+      }
+    }
+  }
+
+  private void handleRejectedExecution(RuntimeException e) {
+    // we still hold the drainer role, so it's safe to consume from the buffer here
+    try {
+      Job<I, O> deadJob;
+      while ((deadJob = buffer.poll()) != null) {
+        deadJob.promise.setFailure(e);
+      }
+    } finally {
+      draining.set(false);
+    }
+  }
+
+  private void drain() {
+    do {
+      try {
+        while (batchesInFlight.get() < maxBatchesInFlight) {
+          List<Job<I, O>> jobs = collectBatch();
+          if (jobs.isEmpty()) break;
+          dispatch(jobs);
+        }
+      } finally {
+        draining.set(false);
+      }
+      // a producer (or a completing batch) may have observed us still draining after our last look at the buffer
+    } while (hasDispatchableWork() && draining.compareAndSet(false, true));
+  }
+
+  private boolean hasDispatchableWork() {
+    return !buffer.isEmpty() && batchesInFlight.get() < maxBatchesInFlight;
+  }
+
+  private List<Job<I, O>> collectBatch() {
+    int batchSize = sizingPolicy.currentBatchSize();
+    long lingerNanos = sizingPolicy.currentLingerNanos();
+    List<Job<I, O>> jobs = Lists.newArrayListWithCapacity(batchSize);
+    int collected = buffer.drainTo(jobs, batchSize);
+    if (collected > 0 && collected < batchSize && lingerNanos > 0) {
+      long deadline = System.nanoTime() + lingerNanos;
+      lingeringDrainer = Thread.currentThread();
+      try {
+        long remaining;
+        while (collected < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+          int drained = buffer.drainTo(jobs, batchSize - collected);
+          if (drained == 0) {
+            LockSupport.parkNanos(this, remaining);
+          } else {
+            collected += drained;
+          }
+        }
+      } finally {
+        lingeringDrainer = null;
+      }
+    }
+    return jobs;
+  }
+
+  private void dispatch(List<Job<I, O>> jobs) {
+    BatchCompletion completion = new BatchCompletion(jobs.size());
+    sizingPolicy.onBatchDispatched(jobs.size(), batchesInFlight.incrementAndGet());
+    for (Job<I, O> job : jobs) {
+      job.promise.addListener(completion, MoreExecutors.directExecutor());
+    }
+    try {
+      executor.execute(() -> runBatch(jobs));
+    } catch (RuntimeException e) {
+      failAll(jobs, e);
+    }
+  }
+
+  private void runBatch(List<Job<I, O>> jobs) {
+    try {
+      Iterable<? extends ListenableFuture<O>> results = batchConsumer.apply(ImmutableList.copyOf(Lists.transform(jobs, Source.<I>getter())));
+      Iterator<? extends ListenableFuture<O>> resultIterator = results.iterator();
+      for (Job<I, O> job : jobs) {
+        if (resultIterator.hasNext()) {
+          job.promise.completeWith(resultIterator.next());
+        } else {
+          job.promise.setFailure(new IllegalStateException("batchConsumer returned fewer results than inputs"));
+        }
+      }
+    } catch (Throwable e) {
+      // fail every job, even for an Error (which the Promises escalate to the FatalErrorHandler): otherwise the
+      // batch would never complete, and would hold its in-flight slot forever
+      failAll(jobs, e);
+      if (e instanceof Error) throw (Error) e;
+    }
+  }
+
+  private static void failAll(List<? extends Job<?, ?>> jobs, Throwable e) {
+    for (Job<?, ?> job : jobs) {
+      job.promise.setFailure(e);
+    }
+  }
+
+  private class BatchCompletion implements Runnable {
+    private final int jobCount;
+    private final long dispatchNanos = System.nanoTime();
+    private final AtomicInteger remaining;
+
+    BatchCompletion(int jobCount) {
+      this.jobCount = jobCount;
+      remaining = new AtomicInteger(jobCount);
+    }
+
+    @Override
+    public void run() {
+      if (remaining.decrementAndGet() == 0) {
+        sizingPolicy.onBatchCompleted(jobCount, System.nanoTime() - dispatchNanos);
+        batchesInFlight.decrementAndGet();
+        if (!buffer.isEmpty()) scheduleDrain();
+      }
+    }
+  }
+
+  private static class Job<I, O> implements Source<I> {
+    private final I input;
+    private final Promise<O> promise = Promise.newPromise();
+
+    private Job(I input) {
+      this.input = input;
+    }
+
+    @Override
+    public I get() {
+      return input;
+    }
+  }
+}
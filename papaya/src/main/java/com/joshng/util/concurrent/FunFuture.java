@@ -541,7 +541,7 @@ public interface FunFuture<T> extends ListenableFuture<T>, Cancellable {
 
     @Override
     public void addListener(Runnable listener, Executor exec) {
-      super.addListener(AsyncContext.snapshot().wrapRunnable(listener), exec);
+      super.addListener(AsyncContext.wrapRunnable(listener), exec);
     }
   }
 
@@ -596,6 +596,10 @@ public interface FunFuture<T> extends ListenableFuture<T>, Cancellable {
       this.priority = priority;
     }
 
+    P getPriority() {
+      return priority;
+    }
+
     @Override
     public int compareTo(PrioritizedFutureTask<T, P> that) {
       assert comparator.equals(that.comparator) : "Mismatched PrioritizedFutureTask comparators";
@@ -11,6 +11,7 @@ import com.joshng.util.collect.Nothing;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -37,6 +38,59 @@ public class FunctionalExecutorService extends ForwardingListeningExecutorServic
             : new FunctionalExecutorService(MoreExecutors.listeningDecorator(executorService));
   }
 
+  /**
+   * @return a FunctionalExecutorService that runs each task on its own virtual thread, carrying the submitter's
+   * {@link AsyncContext} to that thread
+   * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+   * @see ThreadPerTaskExecutor#isVirtualThreadSupported
+   */
+  public static FunctionalExecutorService virtualThreadExecutor() {
+    return functionalDecorator(ThreadPerTaskExecutor.newVirtualThreadExecutor());
+  }
+
+  /**
+   * @return a FunctionalExecutorService that runs each task on its own virtual thread, with at most
+   * {@code maxConcurrency} tasks running at once (tasks waiting for their turn do not occupy a thread)
+   * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+   */
+  public static FunctionalExecutorService virtualThreadExecutor(int maxConcurrency) {
+    return functionalDecorator(ThreadPerTaskExecutor.newVirtualThreadExecutor(maxConcurrency));
+  }
+
+  /**
+   * @return a FunctionalExecutorService that runs each task on a new thread from the given {@code threadFactory},
+   * with at most {@code maxConcurrency} tasks running at once (tasks waiting for their turn do not occupy a thread)
+   * @see ThreadPerTaskExecutor
+   */
+  public static FunctionalExecutorService threadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+    return functionalDecorator(new ThreadPerTaskExecutor(threadFactory, maxConcurrency));
+  }
+
+  /**
+   * @return a FunctionalExecutorService backed by an {@link AdaptiveThreadPoolExecutor}, which grows its pool
+   * between {@code minPoolSize} and {@code maxPoolSize} threads (and then sheds load) when tasks wait in its
+   * unbounded queue longer than {@code targetQueueDelay} for a full {@code interval}
+   */
+  public static FunctionalExecutorService adaptiveThreadPool(int minPoolSize, int maxPoolSize, long targetQueueDelay, long interval, TimeUnit unit, ThreadFactory threadFactory) {
+    return functionalDecorator(new AdaptiveThreadPoolExecutor(minPoolSize, maxPoolSize, targetQueueDelay, interval, unit, threadFactory));
+  }
+
+  /**
+   * @return a {@link PriorityExecutorService} with {@code threadCount} threads, which runs queued tasks in order of
+   * priority (higher first; 0 by default), aging waiting tasks by one priority level per {@code agingPeriod}
+   */
+  public static PriorityExecutorService priorityThreadPool(int threadCount, long agingPeriod, TimeUnit unit, ThreadFactory threadFactory) {
+    return new PriorityExecutorService(threadCount, 0, agingPeriod, unit, threadFactory);
+  }
+
+  /**
+   * @return a FunctionalExecutorService that runs each task with the {@link AsyncContext} values that were current
+   * when it was submitted
+   */
+  public static FunctionalExecutorService asyncContextPropagatingDecorator(ExecutorService executorService) {
+    return functionalDecorator(executorService).propagatingAsyncContext();
+  }
+
   FunctionalExecutorService(ListeningExecutorService delegate) {
     this.delegate = delegate;
   }
@@ -79,6 +133,16 @@ public class FunctionalExecutorService extends ForwardingListeningExecutorServic
     return FunFuture.<T>dereference(submit(asyncCallable));
   }
 
+  /**
+   * @return a view of this executor that runs each task with the {@link AsyncContext} values that were current
+   * when it was submitted (shutting down the view shuts down this executor). Tasks submitted while no values are
+   * set are passed through without any wrapping.
+   */
+  public FunctionalExecutorService propagatingAsyncContext() {
+    if (delegate instanceof AsyncContextPropagatingExecutorService) return this;
+    return new FunctionalExecutorService(new AsyncContextPropagatingExecutorService(delegate));
+  }
+
   public boolean shutdownWithTimeout(long timeout, TimeUnit unit) throws InterruptedException {
     shutdown();
     boolean clean = awaitTermination(timeout, unit);
@@ -0,0 +1,80 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.joshng.util.collect.Nothing;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Serializes asynchronous jobs by key: each job {@link #append appended} for a key is started only after the
+ * previously-appended job for that key has completed, while jobs for different keys run independently.<p/>
+ * <p>
+ * Only keys with incomplete jobs are retained: when the last job for a key completes, the key's tail is removed,
+ * so memory is proportional to the number of active keys rather than the number of keys ever seen.<p/>
+ * <p>
+ * Unlike {@link FutureChain}, a failed job does not prevent subsequent jobs for its key from running (a failure
+ * could not be propagated consistently once an idle tail has been dropped), and each job is independent of the
+ * result of its predecessor. Cancelling the future returned by {@link #append} before the job starts causes it to
+ * be skipped.
+ */
+public class KeyedFutureChain<K> {
+  private final ConcurrentMap<K, Promise<Nothing>> tails = new ConcurrentHashMap<>();
+  private final Executor successorExecutor;
+
+  public KeyedFutureChain() {
+    this(MoreExecutors.directExecutor());
+  }
+
+  /**
+   * @param successorExecutor the executor used to start each job that had to wait for its predecessor (eg, to
+   *                          avoid deep stacks when many queued jobs complete synchronously)
+   */
+  public KeyedFutureChain(Executor successorExecutor) {
+    this.successorExecutor = successorExecutor;
+  }
+
+  public <T> FunFuture<T> append(K key, Callable<? extends ListenableFuture<T>> job) {
+    Promise<T> result = Promise.newPromise();
+    Promise<Nothing> done = Promise.newPromise();
+    Promise<Nothing> prevTail = tails.put(key, done);
+    Runnable start = () -> {
+      if (result.isDone()) {
+        // cancelled before it started
+        finish(key, done);
+      } else {
+        FunFuture<T> future = FunFuture.callSafely(job);
+        result.completeWith(future);
+        future.addListener(() -> finish(key, done), MoreExecutors.directExecutor());
+      }
+    };
+    if (prevTail == null) {
+      start.run();
+    } else {
+      prevTail.addListener(start, successorExecutor);
+    }
+    return result;
+  }
+
+  /**
+   * @return a future that completes when all jobs appended for the given key so far have completed
+   */
+  public FunFuture<Nothing> getTail(K key) {
+    Promise<Nothing> tail = tails.get(key);
+    return tail == null ? Nothing.FUTURE : FunFuture.newFuture(Futures.nonCancellationPropagating(tail));
+  }
+
+  public int getActiveKeyCount() {
+    return tails.size();
+  }
+
+  private void finish(K key, Promise<Nothing> done) {
+    // drop the tail if nothing has been appended after this job; otherwise, the successor will take care of it
+    tails.remove(key, done);
+    done.setSuccess(Nothing.NOTHING);
+  }
+}
@@ -0,0 +1,97 @@
+package com.joshng.util.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded, lock-free multi-producer/single-consumer queue backed by a power-of-two ring of slots.<p/>
+ * <p>
+ * Any number of threads may {@link #offer} concurrently (each claims a slot with a single CAS on the producer
+ * index), but {@link #poll} and {@link #drainTo} must only ever be invoked by one thread at a time: callers
+ * are responsible for electing a single drainer (see {@link ConcurrentBatchingAsyncFunction} for an example).
+ */
+public class MpscRingBuffer<T> {
+  private final AtomicReferenceArray<T> slots;
+  private final int mask;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  public MpscRingBuffer(int minCapacity) {
+    checkArgument(minCapacity > 0 && minCapacity <= (1 << 30), "capacity must be in [1, 2^30]: %s", minCapacity);
+    int capacity = minCapacity == 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+    slots = new AtomicReferenceArray<>(capacity);
+    mask = capacity - 1;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return {@code false} if the buffer was full; the value was not enqueued
+   */
+  public boolean offer(T value) {
+    checkNotNull(value, "value");
+    long capacity = mask + 1;
+    long index;
+    do {
+      index = producerIndex.get();
+      if (index - consumerIndex.get() >= capacity) return false;
+    } while (!producerIndex.compareAndSet(index, index + 1));
+    slots.lazySet((int) index & mask, value);
+    return true;
+  }
+
+  /**
+   * Removes the oldest value. Must only be called by the (single) consumer thread.
+   *
+   * @return the oldest value, or {@code null} if the buffer was empty
+   */
+  public T poll() {
+    long index = consumerIndex.get();
+    int offset = (int) index & mask;
+    T value = slots.get(offset);
+    if (value == null) {
+      if (index == producerIndex.get()) return null;
+      // a producer has claimed this slot, but hasn't published its value yet; it will do so imminently
+      do {
+        Thread.yield();
+      } while ((value = slots.get(offset)) == null);
+    }
+    slots.lazySet(offset, null);
+    consumerIndex.lazySet(index + 1);
+    return value;
+  }
+
+  /**
+   * Moves up to {@code limit} values into the given sink. Must only be called by the (single) consumer thread.
+   *
+   * @return the number of values drained
+   */
+  public int drainTo(Collection<? super T> sink, int limit) {
+    int drained = 0;
+    T value;
+    while (drained < limit && (value = poll()) != null) {
+      sink.add(value);
+      drained++;
+    }
+    return drained;
+  }
+
+  public boolean isEmpty() {
+    return consumerIndex.get() == producerIndex.get();
+  }
+
+  /**
+   * @return an estimate of the number of enqueued values (exact when called from the consumer thread
+   * with no concurrent producers)
+   */
+  public int size() {
+    long size = producerIndex.get() - consumerIndex.get();
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+}
@@ -1,14 +1,23 @@
 package com.joshng.util.concurrent;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.joshng.util.collect.Nothing;
 import com.joshng.util.identity.StringIdentifier;
 import com.joshng.util.collect.Maybe;
 import com.joshng.util.exceptions.UncheckedInterruptedException;
 import com.joshng.util.context.TransientContext;
 
-import java.time.Instant;
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * User: josh
@@ -63,17 +72,51 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *     }
  * }
  * }</pre>
+ * <p>
+ * Asynchronous consumers may use {@link #obtainAsync} (or {@link #callInContextAsync}) instead, which do not occupy
+ * a thread while the resource is paused: waiters are queued, and granted access together when the pause ends.
+ * Access is tracked with striped counters, so concurrent obtain/release calls do not contend with each other.<p/>
+ * <p>
+ * As before, access obtained with {@link #obtain} (or {@link #enter}) is reentrant: a thread that already holds it
+ * may obtain it again without waiting, even while a pause is being attempted, provided that it makes the matching
+ * calls to {@link #release} itself.<p/>
+ * <p>
+ * A pause whose maxPauseDuration expires is ended by the next thread to observe it (blocked callers of obtain() wake
+ * up to do so), or promptly by the {@code expiryScheduler}, if one was supplied to the constructor. Without one,
+ * asynchronous waiters may therefore be granted access somewhat after the pause expires.
  */
 public class PausableResource implements TransientContext {
-  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-  private final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
-  private final ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
-  private final Condition resumeCondition = writeLock.newCondition();
-  private PauseId currentPauseId = null;
-  private Instant pauseExpiry = null;
+  // how often a blocked obtain() re-checks while a pause is being attempted (its expiry is not yet known)
+  private static final long PENDING_PAUSE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Nullable private final ScheduledExecutorService expiryScheduler;
+  private final Object monitor = new Object();
+  // monotonic counts of grants and releases: released is always read first, so that equal sums imply a moment
+  // with no holders (a single up/down counter could appear to reach zero while a holder remained)
+  private final LongAdder obtainedCount = new LongAdder();
+  private final LongAdder releasedCount = new LongAdder();
+  // true while a pause is in effect or being attempted; new requests to obtain access must then wait
+  private volatile boolean closed;
+  private volatile PauseId currentPauseId = null;
+  private volatile long pauseExpiryNanos; // written before currentPauseId
+  private Future<?> scheduledExpiry; // guarded by monitor
+  private List<Promise<Nothing>> waiters = new ArrayList<>(); // guarded by monitor
+  // the number of times the current thread has obtained access via obtain(), if any (removed when it reaches zero)
+  private final ThreadLocal<Integer> holdCount = new ThreadLocal<>();
 
   private final State lockedState = this::release;
 
+  public PausableResource() {
+    this(null);
+  }
+
+  /**
+   * @param expiryScheduler used to resume the resource promptly when the maxPauseDuration of a pause expires
+   */
+  public PausableResource(@Nullable ScheduledExecutorService expiryScheduler) {
+    this.expiryScheduler = expiryScheduler;
+  }
+
   public State enter() {
     try {
       obtain();
@@ -87,36 +130,100 @@ public class PausableResource implements TransientContext {
    * Obtains permission to access the resource, preventing a pause() operation from succeeding until release() is
    * invoked by the same thread.
    * <p>
-   * If the resource is currently "paused", this will block and wait until access is "resumed" again.
+   * If the resource is currently "paused", this will block and wait until access is "resumed" again (unless this
+   * thread already holds access).
    *
    * @throws InterruptedException if the calling thread is interrupted prior to obtaining permission
    */
   public void obtain() throws InterruptedException {
-    readLock.lockInterruptibly();
-    if (isPaused()) {
-      // need to obtain write-lock to wait for resumeCondition,
-      // but we can't upgrade directly from read-lock, so unlock first
-      readLock.unlock();
-      writeLock.lockInterruptibly();
-      try {
-        while (isStillPaused()) resumeCondition.await(remainingPauseMillis(), TimeUnit.MILLISECONDS);
-        // downgrade to read-lock
-        readLock.lockInterruptibly();
-      } finally {
-        writeLock.unlock();
+    Integer held = holdCount.get();
+    if (held != null) {
+      // reentrant: while this thread holds access, no pause can take effect
+      obtainedCount.increment();
+      holdCount.set(held + 1);
+      return;
+    }
+    FunFuture<Nothing> obtained = obtainAsync();
+    if (!obtained.isDone()) awaitAccess(obtained);
+    holdCount.set(1);
+  }
+
+  private void awaitAccess(FunFuture<Nothing> obtained) throws InterruptedException {
+    try {
+      while (true) {
+        long waitNanos = isPaused() ? Math.max(pauseExpiryNanos - System.nanoTime(), 1) : PENDING_PAUSE_POLL_NANOS;
+        try {
+          obtained.get(waitNanos, TimeUnit.NANOSECONDS);
+          return;
+        } catch (TimeoutException e) {
+          expireIfDue();
+        }
       }
+    } catch (InterruptedException e) {
+      // if access was granted in the meantime, give it back
+      if (!obtained.cancel(false)) releaseAccess();
+      throw e;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Unexpected failure obtaining PausableResource", e.getCause());
+    }
+  }
+
+  /**
+   * Obtains permission to access the resource without blocking: the returned future completes when access is
+   * granted, after which release() must be invoked exactly once (from any thread). If the resource is currently
+   * "paused", the future will complete when the pause ends.<p/>
+   * <p>
+   * Cancelling the returned future before it completes withdraws the request.
+   */
+  public FunFuture<Nothing> obtainAsync() {
+    if (tryObtain()) return Nothing.FUTURE;
+    expireIfDue();
+    synchronized (monitor) {
+      // waiters are only granted access while holding the monitor, so this can't race with resume()
+      if (tryObtain()) return Nothing.FUTURE;
+      Promise<Nothing> waiter = Promise.newPromise();
+      waiters.add(waiter);
+      return waiter;
     }
   }
 
+  /**
+   * Obtains access to the resource asynchronously, then invokes the given block, releasing access when the
+   * future it returns completes.
+   */
+  @Override
+  public <T> FunFuture<T> callInContextAsync(Callable<? extends ListenableFuture<T>> futureBlock) {
+    return obtainAsync().flatMap(obtained -> FunFuture.callSafely(futureBlock).uponCompletion(this::releaseAccess));
+  }
+
   public boolean isPaused() {
     return currentPauseId != null;
   }
 
   /**
-   * Releases access to this resource. Must be called exactly once after every successful call to obtain().
+   * Releases access to this resource. Must be called exactly once after every successful call to obtain() (by the
+   * same thread), or upon the completion of each future returned by obtainAsync() (by any thread).
    */
   public void release() {
-    readLock.unlock();
+    Integer held = holdCount.get();
+    if (held != null) {
+      if (held == 1) {
+        holdCount.remove();
+      } else {
+        holdCount.set(held - 1);
+      }
+    }
+    releaseAccess();
+  }
+
+  private void releaseAccess() {
+    releasedCount.increment();
+    if (closed) {
+      // a pause may be waiting for access to be released
+      synchronized (monitor) {
+        monitor.notifyAll();
+      }
+    }
   }
 
   /**
@@ -138,20 +245,31 @@ public class PausableResource implements TransientContext {
    */
   public Maybe<PauseId> pause(int tryTimeout, int maxPauseDuration, TimeUnit timeUnit) throws InterruptedException {
     final PauseId pauseId = new PauseId();
-    if (!writeLock.tryLock(tryTimeout, timeUnit)) return Maybe.not();
-
-    try {
-      if (isPaused()) return Maybe.not();
-
-      currentPauseId = pauseId;
-      pauseExpiry = Instant.now().plusMillis((int) timeUnit.toMillis(maxPauseDuration));
+    expireIfDue();
+    List<Promise<Nothing>> abandonedWaiters;
+    synchronized (monitor) {
+      if (closed) return Maybe.not();
+      closed = true;
+      try {
+        if (awaitNoHolders(timeUnit.toNanos(tryTimeout))) {
+          pauseExpiryNanos = System.nanoTime() + timeUnit.toNanos(maxPauseDuration);
+          if (expiryScheduler != null) {
+            scheduledExpiry = expiryScheduler.schedule(() -> doResume(pauseId), maxPauseDuration, timeUnit);
+          }
+          currentPauseId = pauseId;
 
-      onPaused();
+          onPaused();
 
-      return Maybe.definitely(currentPauseId);
-    } finally {
-      writeLock.unlock();
+          return Maybe.definitely(pauseId);
+        }
+        abandonedWaiters = reopen();
+      } catch (InterruptedException | RuntimeException | Error e) {
+        if (currentPauseId != pauseId) grantAccess(reopen());
+        throw e;
+      }
     }
+    grantAccess(abandonedWaiters);
+    return Maybe.not();
   }
 
   /**
@@ -162,45 +280,92 @@ public class PausableResource implements TransientContext {
   protected void onPaused() {  }
 
   /**
-   * Resumes access to this resource, allowing requests to obtain() the resource to proceed.
+   * Resumes access to this resource, allowing requests to obtain() the resource to proceed. Requests that were
+   * waiting for the pause to end are all granted access at once.
    *
-   * @param pauseId  a unique identifier obtained from a call to pause() this resource.
-   * @param timeout  the time to wait before giving up (while unlikely, it's possible that resume() could be prevented
-   *                 by extreme contention with other threads trying to obtain() the resource. In this case, the caller may wish to
-   *                 fail and return rather than waiting indefinitely. The maxPauseDuration should still
-   * @param timeUnit
+   * @param pauseId a unique identifier obtained from a call to pause() this resource.
    * @return <code>true</code> if the resource was fully paused for the entire duration since the corresponding call to pause(),<br/>
    * or <code>false</code> if the pause was already cancelled (either by another thread using this same PauseId, or because
    * the maxPauseDuration expired first).
-   * @throws InterruptedException
    */
+  public boolean resume(PauseId pauseId) {
+    return doResume(pauseId);
+  }
+
+  /**
+   * @deprecated resuming no longer contends with requests to obtain() the resource, so there is nothing to time out;
+   * use {@link #resume(PauseId)}
+   */
+  @Deprecated
   public boolean resume(PauseId pauseId, int timeout, TimeUnit timeUnit) throws InterruptedException {
-    if (!writeLock.tryLock(timeout, timeUnit)) return false;
-    try {
-      boolean matched = pauseId.equals(currentPauseId);
-      if (matched) {
-        currentPauseId = null;
-        pauseExpiry = null;
-        resumeCondition.signalAll();
+    return resume(pauseId);
+  }
 
-        onResumed();
+  protected void onResumed() {
+  }
+
+  private boolean tryObtain() {
+    obtainedCount.increment();
+    if (!closed) return true;
+    // a pause is in effect or pending: back out
+    releaseAccess();
+    return false;
+  }
+
+  // must be invoked while holding the monitor
+  private boolean awaitNoHolders(long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    long remaining;
+    while (hasHolders()) {
+      if ((remaining = deadline - System.nanoTime()) <= 0) return false;
+      TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+    }
+    return true;
+  }
+
+  private boolean hasHolders() {
+    long released = releasedCount.sum();
+    return obtainedCount.sum() != released;
+  }
+
+  private boolean doResume(PauseId pauseId) {
+    List<Promise<Nothing>> resumedWaiters;
+    synchronized (monitor) {
+      if (!pauseId.equals(currentPauseId)) return false;
+      currentPauseId = null;
+      if (scheduledExpiry != null) {
+        scheduledExpiry.cancel(false);
+        scheduledExpiry = null;
       }
-      return matched;
-    } finally {
-      writeLock.unlock();
+      resumedWaiters = reopen();
+
+      onResumed();
     }
+    grantAccess(resumedWaiters);
+    return true;
   }
 
-  protected void onResumed() {
+  // in case the expiryScheduler is delayed (or has been shut down)
+  private void expireIfDue() {
+    PauseId pauseId = currentPauseId;
+    if (pauseId != null && pauseExpiryNanos - System.nanoTime() <= 0) doResume(pauseId);
   }
 
-  private long remainingPauseMillis() {
-    return pauseExpiry.toEpochMilli() - System.currentTimeMillis();
+  // must be invoked while holding the monitor; the returned waiters must then be passed to grantAccess
+  private List<Promise<Nothing>> reopen() {
+    closed = false;
+    List<Promise<Nothing>> reopenedWaiters = waiters;
+    // count the waiters as holders before releasing the monitor, so that a subsequent pause will wait for them
+    obtainedCount.add(reopenedWaiters.size());
+    waiters = new ArrayList<>();
+    return reopenedWaiters;
   }
 
-  // must be invoked while holding the writeLock
-  private boolean isStillPaused() throws InterruptedException {
-    return isPaused() && (remainingPauseMillis() > 0 || !resume(currentPauseId, 0, TimeUnit.SECONDS));
+  private void grantAccess(List<Promise<Nothing>> grantedWaiters) {
+    for (Promise<Nothing> waiter : grantedWaiters) {
+      // a waiter that was cancelled doesn't take its grant
+      if (!waiter.setSuccess(Nothing.NOTHING)) releaseAccess();
+    }
   }
 
   public static class PauseId extends StringIdentifier {
@@ -217,4 +382,3 @@ public class PausableResource implements TransientContext {
     }
   }
 }
-
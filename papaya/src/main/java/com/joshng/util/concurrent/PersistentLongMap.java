@@ -0,0 +1,154 @@
+package com.joshng.util.concurrent;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A minimal persistent hash-array-mapped trie keyed by primitive {@code long}s, used to hold the
+ * {@link AsyncContext} values for a thread: snapshots are just references, and updates copy only the path
+ * from the root to the affected leaf.<p/>
+ * <p>
+ * The key itself is used as the hash, consuming 5 bits per level starting from the least-significant end, so
+ * distinct keys never collide; small, densely-allocated keys (like those issued to AsyncContexts) yield a shallow,
+ * compact trie.
+ */
+@Immutable
+final class PersistentLongMap<V> {
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+  private static final Object[] NO_SLOTS = new Object[0];
+  @SuppressWarnings("rawtypes")
+  private static final PersistentLongMap EMPTY = new PersistentLongMap<>(0, NO_SLOTS, 0);
+
+  private final int bitmap;   // 1's indicate occupied slots
+  private final Object[] slots; // each either a Leaf or a nested PersistentLongMap; length == bitCount(bitmap)
+  private final int size;
+
+  private PersistentLongMap(int bitmap, Object[] slots, int size) {
+    this.bitmap = bitmap;
+    this.slots = slots;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <V> PersistentLongMap<V> empty() {
+    return EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    PersistentLongMap<V> node = this;
+    for (int shift = 0; ; shift += BITS_PER_LEVEL) {
+      int bit = bit(key, shift);
+      if ((node.bitmap & bit) == 0) return null;
+      Object slot = node.slots[node.index(bit)];
+      if (slot instanceof Leaf) {
+        Leaf<V> leaf = (Leaf<V>) slot;
+        return leaf.key == key ? leaf.value : null;
+      }
+      node = (PersistentLongMap<V>) slot;
+    }
+  }
+
+  PersistentLongMap<V> with(long key, V value) {
+    return with(key, value, 0);
+  }
+
+  PersistentLongMap<V> without(long key) {
+    PersistentLongMap<V> result = without(key, 0);
+    return result == null ? empty() : result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private PersistentLongMap<V> with(long key, V value, int shift) {
+    int bit = bit(key, shift);
+    int i = index(bit);
+    if ((bitmap & bit) == 0) {
+      Object[] newSlots = new Object[slots.length + 1];
+      System.arraycopy(slots, 0, newSlots, 0, i);
+      System.arraycopy(slots, i, newSlots, i + 1, slots.length - i);
+      newSlots[i] = new Leaf<>(key, value);
+      return new PersistentLongMap<>(bitmap | bit, newSlots, size + 1);
+    }
+
+    Object slot = slots[i];
+    Object newSlot;
+    int sizeDelta = 0;
+    if (slot instanceof Leaf) {
+      Leaf<V> leaf = (Leaf<V>) slot;
+      if (leaf.key == key) {
+        if (leaf.value == value) return this;
+        newSlot = new Leaf<>(key, value);
+      } else {
+        newSlot = EMPTY.with(leaf.key, leaf.value, shift + BITS_PER_LEVEL).with(key, value, shift + BITS_PER_LEVEL);
+        sizeDelta = 1;
+      }
+    } else {
+      PersistentLongMap<V> child = (PersistentLongMap<V>) slot;
+      PersistentLongMap<V> newChild = child.with(key, value, shift + BITS_PER_LEVEL);
+      if (newChild == child) return this;
+      newSlot = newChild;
+      sizeDelta = newChild.size - child.size;
+    }
+    Object[] newSlots = slots.clone();
+    newSlots[i] = newSlot;
+    return new PersistentLongMap<>(bitmap, newSlots, size + sizeDelta);
+  }
+
+  /**
+   * @return the updated node, or null if it would be empty
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private PersistentLongMap<V> without(long key, int shift) {
+    int bit = bit(key, shift);
+    if ((bitmap & bit) == 0) return this;
+    int i = index(bit);
+    Object slot = slots[i];
+    if (slot instanceof Leaf) {
+      if (((Leaf<V>) slot).key != key) return this;
+    } else {
+      PersistentLongMap<V> child = (PersistentLongMap<V>) slot;
+      PersistentLongMap<V> newChild = child.without(key, shift + BITS_PER_LEVEL);
+      if (newChild == child) return this;
+      if (newChild != null) {
+        Object[] newSlots = slots.clone();
+        // collapse a child that has been reduced to a single leaf
+        newSlots[i] = newChild.size == 1 && newChild.slots[0] instanceof Leaf ? newChild.slots[0] : newChild;
+        return new PersistentLongMap<>(bitmap, newSlots, size - 1);
+      }
+    }
+    if (slots.length == 1) return null;
+    Object[] newSlots = new Object[slots.length - 1];
+    System.arraycopy(slots, 0, newSlots, 0, i);
+    System.arraycopy(slots, i + 1, newSlots, i, slots.length - i - 1);
+    return new PersistentLongMap<>(bitmap & ~bit, newSlots, size - 1);
+  }
+
+  private int index(int bit) {
+    return Integer.bitCount(bitmap & (bit - 1));
+  }
+
+  private static int bit(long key, int shift) {
+    return 1 << ((int) (key >>> shift) & LEVEL_MASK);
+  }
+
+  private static final class Leaf<V> {
+    final long key;
+    final V value;
+
+    Leaf(long key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.joshng.util.blocks.SideEffect;
+import com.joshng.util.collect.Nothing;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link FunctionalExecutorService} whose fixed pool of threads runs queued tasks in order of priority, so that
+ * (for example) interactive requests can overtake bulk background work on a shared pool.<p/>
+ * <p>
+ * Priorities are ints; <em>higher</em> values are more urgent. Tasks submitted without a priority (including
+ * those submitted via the ordinary {@link #submit} and {@link #execute} methods) get the {@code defaultPriority}.
+ * Tasks of equal priority run in the order they were submitted.<p/>
+ * <p>
+ * To prevent starvation, queued tasks <em>age</em>: a task is ordered as if its priority rose by one for every
+ * {@code agingPeriod} it has been waiting. Concretely, each task is ranked by
+ * {@code submissionTime - priority * agingPeriod}, so a task is never overtaken by a task of priority {@code p}
+ * that is submitted more than {@code (p - itsPriority) * agingPeriod} after it. Because that rank is fixed when the
+ * task is submitted, the queue remains a simple heap (each task is a {@link FunFuture#prioritizedFutureTask}).
+ * {@code |priority| * agingPeriod} must fit in a long's worth of nanoseconds.<p/>
+ * <p>
+ * {@link #atPriority} offers a view that submits everything at a given priority, for handing to code that only
+ * knows how to use an {@link java.util.concurrent.ExecutorService}.
+ *
+ * @see FunctionalExecutorService#priorityThreadPool
+ */
+public class PriorityExecutorService extends FunctionalExecutorService {
+  private static final Comparator<Rank> RANK_ORDER = Comparator.<Rank>comparingLong(rank -> rank.deadline).thenComparingLong(rank -> rank.sequence);
+  private static final Comparator<Runnable> QUEUE_ORDER = Comparator.comparing(PriorityExecutorService::rankOf, RANK_ORDER);
+
+  private final PriorityThreadPool pool;
+  private final int defaultPriority;
+  private final long agingNanos;
+  private final long originNanos = System.nanoTime();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public PriorityExecutorService(int threadCount, int defaultPriority, long agingPeriod, TimeUnit unit, ThreadFactory threadFactory) {
+    this(new PriorityThreadPool(threadCount, threadFactory), defaultPriority, unit.toNanos(agingPeriod));
+  }
+
+  private PriorityExecutorService(PriorityThreadPool pool, int defaultPriority, long agingNanos) {
+    super(MoreExecutors.listeningDecorator(pool));
+    checkArgument(agingNanos > 0, "agingPeriod must be positive: %s", agingNanos);
+    this.pool = pool;
+    this.defaultPriority = defaultPriority;
+    this.agingNanos = agingNanos;
+    pool.owner = this;
+  }
+
+  public int getDefaultPriority() {
+    return defaultPriority;
+  }
+
+  public int getQueuedTaskCount() {
+    return pool.getQueue().size();
+  }
+
+  public <T> FunFuture<T> submit(int priority, Callable<T> task) {
+    FunRunnableFuture<T> future = newTask(priority, true, task);
+    pool.execute(future);
+    return future;
+  }
+
+  public FunFuture<Nothing> submit(int priority, Runnable task) {
+    return submit(priority, Executors.callable(task, Nothing.NOTHING));
+  }
+
+  public <T> FunFuture<T> submitAsync(int priority, Callable<? extends ListenableFuture<T>> asyncCallable) {
+    return FunFuture.<T>dereference(submit(priority, asyncCallable));
+  }
+
+  public <T> Callable<FunFuture<T>> wrapCallable(int priority, Callable<T> callable) {
+    return () -> submit(priority, callable);
+  }
+
+  public <T> Callable<FunFuture<T>> wrapAsyncCallable(int priority, Callable<? extends ListenableFuture<T>> callable) {
+    return () -> submitAsync(priority, callable);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    execute(defaultPriority, command);
+  }
+
+  public void execute(int priority, Runnable command) {
+    pool.execute(newTask(priority, false, () -> {
+      // as with a plain ThreadPoolExecutor, failures are reported to the thread's UncaughtExceptionHandler
+      SideEffect.runIgnoringExceptions(command);
+      return Nothing.NOTHING;
+    }));
+  }
+
+  @Override
+  public <T> FunFuture<T> submit(Callable<T> task) {
+    return submit(defaultPriority, task);
+  }
+
+  @Override
+  public FunFuture<?> submit(Runnable task) {
+    return submit(defaultPriority, task);
+  }
+
+  @Override
+  public <T> FunFuture<T> submit(Runnable task, T result) {
+    return submit(defaultPriority, Executors.callable(task, result));
+  }
+
+  /**
+   * @return a view of this executor that submits every task at the given priority (shutting down the view shuts
+   * down this executor)
+   */
+  public FunctionalExecutorService atPriority(int priority) {
+    return new FunctionalExecutorService(MoreExecutors.listeningDecorator(new AbstractExecutorService() {
+      @Override
+      public void execute(Runnable command) {
+        PriorityExecutorService.this.execute(priority, command);
+      }
+
+      @Override
+      public void shutdown() {
+        pool.shutdown();
+      }
+
+      @Override
+      public List<Runnable> shutdownNow() {
+        return pool.shutdownNow();
+      }
+
+      @Override
+      public boolean isShutdown() {
+        return pool.isShutdown();
+      }
+
+      @Override
+      public boolean isTerminated() {
+        return pool.isTerminated();
+      }
+
+      @Override
+      public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+      }
+    }));
+  }
+
+  private <T> FunRunnableFuture<T> newTask(int priority, boolean allowCancelToInterrupt, Callable<T> callable) {
+    return FunFuture.prioritizedFutureTask(newRank(priority), RANK_ORDER, allowCancelToInterrupt, callable);
+  }
+
+  private Rank newRank(int priority) {
+    long deadline = System.nanoTime() - originNanos - priority * agingNanos;
+    return new Rank(deadline, sequence.getAndIncrement());
+  }
+
+  private static Rank rankOf(Runnable queued) {
+    return queued instanceof AdoptedTask
+            ? ((AdoptedTask<?>) queued).rank
+            : (Rank) ((FunFuture.PrioritizedFutureTask<?, ?>) queued).getPriority();
+  }
+
+  private static final class Rank {
+    final long deadline;
+    final long sequence;
+
+    Rank(long deadline, long sequence) {
+      this.deadline = deadline;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class PriorityThreadPool extends ThreadPoolExecutor {
+    PriorityExecutorService owner;
+
+    PriorityThreadPool(int threadCount, ThreadFactory threadFactory) {
+      // the queue is unbounded, so the pool never grows beyond its core size
+      super(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(11, QUEUE_ORDER), threadFactory, ThreadPoolSaturationPolicy.Abort);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      // tasks from listeningDecorator (eg, invokeAll) arrive unranked
+      if (command instanceof FunFuture.PrioritizedFutureTask) {
+        super.execute(command);
+      } else if (command instanceof RunnableFuture) {
+        super.execute(new AdoptedTask<>((RunnableFuture<?>) command, owner.newRank(owner.defaultPriority)));
+      } else {
+        super.execute(owner.newTask(owner.defaultPriority, false, Executors.callable(command, Nothing.NOTHING)));
+      }
+    }
+  }
+
+  /**
+   * Ranks a RunnableFuture created elsewhere, forwarding everything else to it, so that cancelling the original is
+   * visible to the pool (eg, to {@link ThreadPoolExecutor#purge}), and cancelling this cancels the original.
+   */
+  private static final class AdoptedTask<T> implements RunnableFuture<T> {
+    final RunnableFuture<T> task;
+    final Rank rank;
+
+    AdoptedTask(RunnableFuture<T> task, Rank rank) {
+      this.task = task;
+      this.rank = rank;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return task.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return task.isDone();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      return task.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      return task.get(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+      return task.toString();
+    }
+  }
+}
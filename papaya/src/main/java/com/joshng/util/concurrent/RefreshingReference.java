@@ -1,25 +1,54 @@
 package com.joshng.util.concurrent;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Function;
 import com.joshng.util.blocks.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * Holds a value that is rebuilt (via {@link #getNewInstance}) whenever its {@link #computeNextRefreshTime refresh
+ * time} passes.<p/>
+ * <p>
+ * By default, the first caller to observe an expired value rebuilds it, and concurrent callers wait for the new
+ * value. With {@link #withRefreshAhead refresh-ahead} enabled, the rebuild is instead started on an executor
+ * shortly before the value expires; callers continue to receive the current (possibly stale) value until the new
+ * one is published. Only the very first load blocks, unless the refreshes fall so far behind that the value is more
+ * than the configured {@code maxStaleness} past its refresh time, in which case callers rebuild it synchronously (as
+ * they would without refresh-ahead).<p/>
+ * <p>
+ * The duration of each rebuild, and how stale any stale values served were, are recorded in
+ * {@link Histogram Histograms}, which may be published with {@link #registerMetrics}.
+ *
  * User: josh
  * Date: 11/14/12
  * Time: 12:57 PM
  */
 public abstract class RefreshingReference<T> implements Source<T> {
-
+  private static final Logger LOG = LoggerFactory.getLogger(RefreshingReference.class);
   private final Clock clock;
   private final Object lock = new Object();
   @SuppressWarnings("unchecked")
   private volatile ExpiringContainer<T> currentContainer = ExpiringContainer.NULL;
+  private volatile Duration refreshAheadTime;
+  private volatile Duration maxStaleness;
+  private volatile Executor refreshExecutor;
+  private final AtomicBoolean refreshInFlight = new AtomicBoolean();
+  private final Histogram refreshDurationNanos = new Histogram(new ExponentiallyDecayingReservoir());
+  private final Histogram stalenessMillis = new Histogram(new ExponentiallyDecayingReservoir());
 
   public static <T> RefreshingReference<T> from(long refreshPeriod, TimeUnit timeUnit, Function<? super Instant, ? extends T> newInstanceSupplier) {
     return from(refreshPeriod, timeUnit, Clock.systemUTC(), newInstanceSupplier);
@@ -37,8 +66,58 @@ public abstract class RefreshingReference<T> implements Source<T> {
     this(Clock.systemUTC());
   }
 
+  /**
+   * Enables refresh-ahead, serving expired values for at most {@code refreshAheadTime} past their refresh time.
+   *
+   * @see #withRefreshAhead(long, long, TimeUnit, Executor)
+   */
+  public RefreshingReference<T> withRefreshAhead(long refreshAheadTime, TimeUnit timeUnit, Executor refreshExecutor) {
+    return withRefreshAhead(refreshAheadTime, refreshAheadTime, timeUnit, refreshExecutor);
+  }
+
+  /**
+   * Enables refresh-ahead: once the current value is within {@code refreshAheadTime} of expiring, {@link #get}
+   * starts rebuilding it on the given executor, and continues to return the current value until the rebuild
+   * completes. If a rebuild fails (or the executor rejects it), the next call to {@link #get} will start another.
+   * If the value is more than {@code maxStaleness} past its refresh time, {@link #get} instead rebuilds it
+   * synchronously, blocking (or failing) until a fresh value is available.
+   *
+   * @throws IllegalArgumentException if {@code refreshAheadTime} is not shorter than the {@link #getRefreshPeriod
+   *                                  refresh period}, which would trigger refreshes continuously
+   */
+  public RefreshingReference<T> withRefreshAhead(long refreshAheadTime, long maxStaleness, TimeUnit timeUnit, Executor refreshExecutor) {
+    Duration refreshAhead = Duration.ofNanos(timeUnit.toNanos(refreshAheadTime));
+    Duration refreshPeriod = getRefreshPeriod();
+    checkArgument(!refreshAhead.isNegative(), "refreshAheadTime must not be negative: %s", refreshAhead);
+    checkArgument(refreshPeriod == null || refreshAhead.compareTo(refreshPeriod) < 0, "refreshAheadTime (%s) must be shorter than the refresh period (%s)", refreshAhead, refreshPeriod);
+    checkArgument(maxStaleness >= 0, "maxStaleness must not be negative: %s", maxStaleness);
+    this.refreshExecutor = refreshExecutor;
+    this.maxStaleness = Duration.ofNanos(timeUnit.toNanos(maxStaleness));
+    this.refreshAheadTime = refreshAhead;
+    return this;
+  }
+
   public T get() {
     ExpiringContainer<T> container = currentContainer;
+    Duration refreshAhead = refreshAheadTime;
+    if (refreshAhead != null && container != ExpiringContainer.NULL) {
+      Instant now = currentTime();
+      if (!now.isBefore(container.expireTime.minus(refreshAhead))) {
+        if (container.isExpired(now)) {
+          Duration staleness = Duration.between(container.expireTime, now);
+          // the background refreshes aren't keeping up (or keep failing): fall back to a blocking rebuild
+          if (staleness.compareTo(maxStaleness) > 0) return loadIfExpired(container);
+          stalenessMillis.update(staleness.toMillis());
+        }
+        if (refreshInFlight.compareAndSet(false, true)) startRefresh(container);
+      }
+      return container.getValue();
+    }
+
+    return loadIfExpired(container);
+  }
+
+  private T loadIfExpired(ExpiringContainer<T> container) {
     if (container.isExpired(currentTime())) {
       T expiredInstance = null;
       T newInstance = null;
@@ -49,7 +128,7 @@ public abstract class RefreshingReference<T> implements Source<T> {
           Instant refreshTime = computeNextRefreshTime(now);
           checkState(refreshTime.isAfter(now), "Computed refresh time was already expired", refreshTime, now);
           expiredInstance = container.getValue();
-          newInstance = getNewInstance(refreshTime);
+          newInstance = buildNewInstance(refreshTime);
           currentContainer = container = new ExpiringContainer<T>(newInstance, refreshTime);
         }
       }
@@ -60,13 +139,80 @@ public abstract class RefreshingReference<T> implements Source<T> {
     return container.getValue();
   }
 
+  private void startRefresh(ExpiringContainer<T> container) {
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          refresh(container);
+        } catch (RuntimeException e) {
+          LOG.warn("Refresh failed; will retry upon the next call to get()", e);
+        } finally {
+          refreshInFlight.set(false);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // keep serving the current value; the next call to get() will try again
+      refreshInFlight.set(false);
+      LOG.warn("Refresh executor rejected the refresh; will retry upon the next call to get()", e);
+    }
+  }
+
+  private void refresh(ExpiringContainer<T> expiringContainer) {
+    // the new value takes over when the current one expires (or now, if it already has)
+    Instant now = currentTime();
+    Instant validFrom = expiringContainer.isExpired(now) ? now : expiringContainer.expireTime;
+    Instant refreshTime = computeNextRefreshTime(validFrom);
+    checkState(refreshTime.isAfter(now), "Computed refresh time was already expired", refreshTime, now);
+    T newInstance = buildNewInstance(refreshTime);
+    synchronized (lock) {
+      // a blocking load may have replaced the container in the meantime
+      if (currentContainer != expiringContainer) return;
+      currentContainer = new ExpiringContainer<>(newInstance, refreshTime);
+    }
+    T expiredInstance = expiringContainer.getValue();
+    if (expiredInstance != null) onInstanceExpired(expiredInstance, newInstance);
+  }
+
+  private T buildNewInstance(Instant refreshTime) {
+    long start = System.nanoTime();
+    T newInstance = getNewInstance(refreshTime);
+    refreshDurationNanos.update(System.nanoTime() - start);
+    return newInstance;
+  }
+
   protected void onInstanceExpired(T expiredInstance, T newInstance) {
   }
 
+  public Histogram getRefreshDurationNanosHistogram() {
+    return refreshDurationNanos;
+  }
+
+  /**
+   * @return a histogram of how long past their refresh time any expired values were when they were returned by
+   * {@link #get} (which only happens with refresh-ahead enabled)
+   */
+  public Histogram getStalenessMillisHistogram() {
+    return stalenessMillis;
+  }
+
+  public RefreshingReference<T> registerMetrics(MetricRegistry registry, String prefix) {
+    registry.register(MetricRegistry.name(prefix, "refreshDurationNanos"), refreshDurationNanos);
+    registry.register(MetricRegistry.name(prefix, "stalenessMillis"), stalenessMillis);
+    return this;
+  }
+
   public Instant getNextRefreshTime() {
     return currentContainer.expireTime;
   }
 
+  /**
+   * @return the interval between refreshes, if it is fixed (used to validate the {@link #withRefreshAhead
+   * refresh-ahead} settings); null by default
+   */
+  protected Duration getRefreshPeriod() {
+    return null;
+  }
+
   protected abstract Instant computeNextRefreshTime(Instant now);
 
   protected abstract T getNewInstance(Instant expireTime);
@@ -92,6 +238,11 @@ public abstract class RefreshingReference<T> implements Source<T> {
     protected Instant computeNextRefreshTime(Instant now) {
       return computeNextIntervalTime(now, periodMillis);
     }
+
+    @Override
+    protected Duration getRefreshPeriod() {
+      return Duration.ofMillis(periodMillis);
+    }
   }
 
   public static Instant computeNextIntervalTime(Instant now, long periodMillis) {
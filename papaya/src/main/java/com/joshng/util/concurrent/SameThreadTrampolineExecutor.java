@@ -1,30 +1,59 @@
 package com.joshng.util.concurrent;
 
-import com.google.common.collect.Queues;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.joshng.util.blocks.SideEffect;
 
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Runs tasks in the submitting thread, but "trampolines" any tasks submitted recursively from within a running
+ * task: they are queued, and run in FIFO order after the outermost task returns, rather than growing the stack.<p/>
+ * <p>
+ * Each thread keeps a reusable queue, so submitting allocates nothing beyond the returned future; {@link #execute}
+ * allocates no future at all (any exception thrown by such a task is passed to the thread's
+ * {@link Thread.UncaughtExceptionHandler}, and does not disturb the other queued tasks). If a task throws an
+ * {@link Error}, however, the Error propagates to the outermost submitter, and the tasks still queued behind it are
+ * discarded (and cancelled, if they are futures), rather than left to run during the thread's next submission.<p/>
+ * <p>
+ * After {@link #shutdown}, new submissions are rejected, but tasks already queued by running threads are still
+ * completed; {@link #shutdownNow} causes them to be discarded instead (and cancelled, if they are futures).
+ * The executor {@link #isTerminated is terminated} once it is shut down and no thread is draining its queue.
+ *
  * Created by: josh 10/24/13 1:53 PM
  */
 public class SameThreadTrampolineExecutor extends AbstractExecutorService implements ListeningExecutorService {
+  // retaining a queue that once grew very deep would pin its backing array for the life of the thread
+  private static final int MAX_RETAINED_DEPTH = 256;
+
+  private final ConcurrentMap<Trampoline, Boolean> trampolines = new MapMaker().weakKeys().makeMap();
   private final ThreadLocalRef<Trampoline> trampoline = new ThreadLocalRef<Trampoline>() {
     @Override
     protected Trampoline initialValue() {
-      return new Trampoline();
+      Trampoline trampoline = new Trampoline();
+      trampolines.put(trampoline, Boolean.TRUE);
+      return trampoline;
     }
   };
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicInteger maxDrainLength = new AtomicInteger();
+  private final Object terminationMonitor = new Object();
+  private volatile boolean shutdown;
+  private volatile boolean discardQueuedTasks;
 
   @Override
   public void execute(Runnable command) {
-    submit(command);
+    trampoline.get().run(command);
   }
 
   public FunFuture<?> submit(Runnable command) {
@@ -43,48 +72,136 @@ public class SameThreadTrampolineExecutor extends AbstractExecutorService implem
     return FunFuture.<T>dereference(submit(command));
   }
 
+  /**
+   * @return the greatest number of tasks that have been queued at once in any thread
+   */
+  public int getMaxDepth() {
+    return maxDepth.get();
+  }
+
+  /**
+   * @return the greatest number of tasks that have been run by a single outermost submission (including itself)
+   */
+  public int getMaxDrainLength() {
+    return maxDrainLength.get();
+  }
+
   private class Trampoline {
-    private final Queue<Runnable> queue = Queues.newArrayDeque();
-    private boolean running = false;
+    private ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private volatile boolean running = false;
+    private int peakDepth;
 
     <T> FunFuture<T> runWithTrampoline(FunRunnableFuture<T> task) {
-      queue.offer(task);
-      if (!running) {
+      run(task);
+      return task;
+    }
+
+    void run(Runnable task) {
+      if (shutdown) throw new RejectedExecutionException("SameThreadTrampolineExecutor has been shut down");
+      if (running) {
+        queue.offer(task);
+        int depth = queue.size();
+        if (depth > peakDepth) {
+          peakDepth = depth;
+          if (depth > maxDepth.get()) recordMax(maxDepth, depth);
+        }
+      } else {
         running = true;
         try {
-          drain();
+          drain(task);
         } finally {
-          trampoline.remove();
+          running = false;
+          if (shutdown) signalIfTerminated();
         }
       }
-      return task;
     }
 
-    private void drain() {
+    private void drain(Runnable first) {
+      int drainLength = 1;
+      boolean drained = false;
+      try {
+        SideEffect.runIgnoringExceptions(first);
+        Runnable job;
+        while ((job = queue.poll()) != null) {
+          if (discardQueuedTasks) {
+            ThreadPoolSaturationPolicy.cancel(job);
+          } else {
+            drainLength++;
+            SideEffect.runIgnoringExceptions(job);
+          }
+        }
+        drained = true;
+      } finally {
+        if (!drained) discardQueue();
+        if (drainLength > maxDrainLength.get()) recordMax(maxDrainLength, drainLength);
+        if (peakDepth > MAX_RETAINED_DEPTH && queue.isEmpty()) queue = new ArrayDeque<>();
+        peakDepth = queue.size();
+      }
+    }
+
+    private void discardQueue() {
       Runnable job;
       while ((job = queue.poll()) != null) {
-        job.run();
+        ThreadPoolSaturationPolicy.cancel(job);
       }
     }
+
+    List<Runnable> drainQueued() {
+      List<Runnable> queued = ImmutableList.copyOf(queue);
+      queue.clear();
+      return queued;
+    }
+  }
+
+  private static void recordMax(AtomicInteger max, int value) {
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  private void signalIfTerminated() {
+    synchronized (terminationMonitor) {
+      if (isTerminated()) terminationMonitor.notifyAll();
+    }
   }
 
   @Override public void shutdown() {
-    throw new UnsupportedOperationException("SameThreadTrampolineExecutor.shutdown has not been implemented");
+    shutdown = true;
+    signalIfTerminated();
   }
 
+  /**
+   * Shuts down this executor, and causes all threads to discard (and cancel) their queued tasks rather than
+   * running them.
+   *
+   * @return the tasks that were queued by the calling thread; tasks queued by other threads are discarded by
+   * those threads
+   */
   @Override public List<Runnable> shutdownNow() {
-    throw new UnsupportedOperationException("SameThreadTrampolineExecutor.shutdownNow has not been implemented");
+    discardQueuedTasks = true;
+    shutdown();
+    return trampoline.get().drainQueued();
   }
 
   @Override public boolean isShutdown() {
-    throw new UnsupportedOperationException("SameThreadTrampolineExecutor.isShutdown has not been implemented");
+    return shutdown;
   }
 
   @Override public boolean isTerminated() {
-    throw new UnsupportedOperationException("SameThreadTrampolineExecutor.isTerminated has not been implemented");
+    if (!shutdown) return false;
+    for (Trampoline t : trampolines.keySet()) {
+      if (t.running) return false;
+    }
+    return true;
   }
 
   @Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-    throw new UnsupportedOperationException("SameThreadTrampolineExecutor.awaitTermination has not been implemented");
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (terminationMonitor) {
+      long remaining;
+      while (!isTerminated()) {
+        if ((remaining = deadline - System.nanoTime()) <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(terminationMonitor, remaining);
+      }
+      return true;
+    }
   }
 }
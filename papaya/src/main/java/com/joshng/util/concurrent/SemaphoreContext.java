@@ -1,35 +1,63 @@
 package com.joshng.util.concurrent;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.joshng.util.collect.Nothing;
 import com.joshng.util.exceptions.UncheckedInterruptedException;
 import com.joshng.util.blocks.SideEffect;
 import com.joshng.util.context.TransientContext;
 
 import java.time.Instant;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * A {@link TransientContext} that holds permits from a semaphore while it is entered.<p/>
+ * <p>
+ * Permits are granted by an {@link AsyncSemaphore}, in FIFO order, directly by the {@link Releaser} that returns
+ * them; {@link #acquireAsync} waits without occupying a thread. Upon {@link #shutdown}, all waiting acquisitions
+ * fail immediately with a {@link ShutdownException}.<p/>
+ * <p>
+ * The time spent waiting for permits, and the number of acquisitions already waiting whenever one has to wait,
+ * are recorded in {@link Histogram Histograms}, which may be published with {@link #registerMetrics}.
+ *
  * User: josh
  * Date: 9/25/13
  * Time: 1:48 PM
  */
 public class SemaphoreContext implements TransientContext {
-  private final Semaphore semaphore;
+  private final AsyncSemaphore semaphore;
   private final Releaser singlePermitReleaser = new Releaser(1);
   private final long shutdownPollNanos;
+  private final Histogram waitTimeNanos = new Histogram(new ExponentiallyDecayingReservoir());
+  private final Histogram queueDepth = new Histogram(new ExponentiallyDecayingReservoir());
   private volatile boolean shutdown;
 
+  /**
+   * @param shutdownPollPeriod the interval at which {@link #onBlocked} is invoked while a blocking
+   *                           {@link #acquire} waits (shutdown is no longer detected by polling)
+   */
   public SemaphoreContext(int permits, long shutdownPollPeriod, TimeUnit shutdownPollUnit) {
     this(permits, false, shutdownPollPeriod, shutdownPollUnit);
   }
 
+  /**
+   * @param fair ignored: permits are always granted to waiters in FIFO order
+   */
   public SemaphoreContext(int permits, boolean fair, long shutdownPollPeriod, TimeUnit shutdownPollUnit) {
-    semaphore = new Semaphore(permits, fair);
+    semaphore = new AsyncSemaphore(permits);
     this.shutdownPollNanos = shutdownPollUnit.toNanos(shutdownPollPeriod);
   }
 
   public void shutdown() {
     shutdown = true;
+    semaphore.failWaiters(newShutdownException());
   }
 
   @Override
@@ -65,29 +93,121 @@ public class SemaphoreContext implements TransientContext {
 
   public Releaser acquirePermits(int permits) throws InterruptedException, ShutdownException {
     acquire(permits);
-    return permits == 1 ? singlePermitReleaser : new Releaser(permits);
+    return releaser(permits);
+  }
+
+  /**
+   * Acquires the requested permits without blocking. The returned future completes with a {@link Releaser} once
+   * they are granted, or fails with a {@link ShutdownException} if this context is shut down first; cancelling it
+   * before then withdraws the request.
+   */
+  public FunFuture<Releaser> acquireAsync(int permits) {
+    if (shutdown) return FunFuture.immediateFailedFuture(newShutdownException());
+    Releaser releaser = releaser(permits);
+    FunFuture<Nothing> acquired = requestPermits(permits);
+    if (acquired == Nothing.FUTURE) {
+      waitTimeNanos.update(0);
+      return FunFuture.immediateFuture(releaser);
+    }
+
+    Instant blockedSince = Instant.now();
+    long startNanos = System.nanoTime();
+    onBlocked(1, blockedSince);
+    Promise<Releaser> result = Promise.newPromise();
+    result.addListener(() -> {
+      if (result.isCancelled()) acquired.cancel(false);
+    }, MoreExecutors.directExecutor());
+    acquired.addListener(() -> {
+      if (acquired.isCancelled()) return; // withdrawn because the result was cancelled
+      try {
+        Futures.getDone(acquired);
+      } catch (ExecutionException e) {
+        result.setFailure(e.getCause());
+        return;
+      }
+      waitTimeNanos.update(System.nanoTime() - startNanos);
+      onUnblocked(1, blockedSince);
+      // if the result was cancelled after the permits were granted, nobody else will return them
+      if (!result.setSuccess(releaser)) releaser.exit();
+    }, MoreExecutors.directExecutor());
+    return result;
   }
 
   public void acquire(int permits) throws InterruptedException {
-    int tryCount = 0;
-    Instant blockedSince = null;
-    do {
-      ShutdownException.throwIf(shutdown);
-      if (++tryCount == 1) {
-        if (semaphore.tryAcquire(permits)) return;
-        blockedSince = Instant.now();
-      } else {
-        onBlocked(tryCount, blockedSince);
+    ShutdownException.throwIf(shutdown);
+    FunFuture<Nothing> acquired = requestPermits(permits);
+    if (acquired == Nothing.FUTURE) {
+      waitTimeNanos.update(0);
+      return;
+    }
+
+    int tryCount = 1;
+    Instant blockedSince = Instant.now();
+    long startNanos = System.nanoTime();
+    try {
+      while (true) {
+        try {
+          acquired.get(shutdownPollNanos, TimeUnit.NANOSECONDS);
+          break;
+        } catch (TimeoutException e) {
+          onBlocked(++tryCount, blockedSince);
+        }
       }
-    } while (!semaphore.tryAcquire(permits, shutdownPollNanos, TimeUnit.NANOSECONDS));
+    } catch (InterruptedException e) {
+      // if the permits were granted in the meantime, give them back
+      if (!acquired.cancel(false)) semaphore.release(permits);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.throwIfUnchecked(cause);
+      throw new RuntimeException(cause);
+    }
+    waitTimeNanos.update(System.nanoTime() - startNanos);
 
     onUnblocked(tryCount, blockedSince);
   }
 
+  public Histogram getWaitTimeNanosHistogram() {
+    return waitTimeNanos;
+  }
+
+  public Histogram getQueueDepthHistogram() {
+    return queueDepth;
+  }
+
+  public SemaphoreContext registerMetrics(MetricRegistry registry, String prefix) {
+    registry.register(MetricRegistry.name(prefix, "waitTimeNanos"), waitTimeNanos);
+    registry.register(MetricRegistry.name(prefix, "queueDepth"), queueDepth);
+    registry.register(MetricRegistry.name(prefix, "availablePermits"), (Gauge<Long>) semaphore::availablePermits);
+    registry.register(MetricRegistry.name(prefix, "waitingAcquisitions"), (Gauge<Integer>) semaphore::getQueueLength);
+    return this;
+  }
+
+  /**
+   * Invoked each time a blocking {@link #acquire} has waited for another shutdownPollPeriod (with a tryCount
+   * starting at 2), or once (with a tryCount of 1) when an {@link #acquireAsync} must wait.
+   */
   protected void onBlocked(int tryCount, Instant blockedSince) {
   }
 
   protected void onUnblocked(int tryCount, Instant blockedSince) {
   }
-}
 
+  private FunFuture<Nothing> requestPermits(int permits) {
+    FunFuture<Nothing> acquired = semaphore.acquire(permits);
+    if (acquired != Nothing.FUTURE) {
+      queueDepth.update(semaphore.getQueueLength() - 1);
+      // in case we raced with shutdown
+      if (shutdown) semaphore.failWaiters(newShutdownException());
+    }
+    return acquired;
+  }
+
+  private Releaser releaser(int permits) {
+    return permits == 1 ? singlePermitReleaser : new Releaser(permits);
+  }
+
+  private static ShutdownException newShutdownException() {
+    return new ShutdownException("SemaphoreContext was shut down");
+  }
+}
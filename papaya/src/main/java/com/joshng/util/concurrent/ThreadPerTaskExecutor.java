@@ -0,0 +1,231 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} that starts a new thread for every task, optionally limiting the
+ * number of tasks that may run concurrently. Intended for use with virtual threads (see
+ * {@link #newVirtualThreadExecutor}), which make a thread per blocking task affordable.<p/>
+ * <p>
+ * Tasks waiting for a concurrency permit do not occupy a thread: they are started asynchronously by an
+ * {@link AsyncSemaphore} as running tasks complete. The submitting thread's {@link AsyncContext} is carried over to
+ * the thread that runs each task.
+ *
+ * @see FunctionalExecutorService#virtualThreadExecutor
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+  private static final Logger LOG = LoggerFactory.getLogger(ThreadPerTaskExecutor.class);
+  private static final ThreadFactory VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+  private final ThreadFactory threadFactory;
+  @Nullable private final AsyncSemaphore concurrencyLimit;
+  private final Set<Thread> runningThreads = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger incompleteTaskCount = new AtomicInteger();
+  private final Object terminationMonitor = new Object();
+  private volatile boolean shutdown;
+  private volatile boolean discardWaitingTasks;
+
+  public ThreadPerTaskExecutor(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+    this.concurrencyLimit = null;
+  }
+
+  public ThreadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+    checkArgument(maxConcurrency > 0, "maxConcurrency must be positive", maxConcurrency);
+    this.threadFactory = threadFactory;
+    this.concurrencyLimit = new AsyncSemaphore(maxConcurrency);
+  }
+
+  public static boolean isVirtualThreadSupported() {
+    return VIRTUAL_THREAD_FACTORY != null;
+  }
+
+  /**
+   * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+   */
+  public static ThreadPerTaskExecutor newVirtualThreadExecutor() {
+    return new ThreadPerTaskExecutor(getVirtualThreadFactory());
+  }
+
+  /**
+   * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+   */
+  public static ThreadPerTaskExecutor newVirtualThreadExecutor(int maxConcurrency) {
+    return new ThreadPerTaskExecutor(getVirtualThreadFactory(), maxConcurrency);
+  }
+
+  public static ThreadFactory getVirtualThreadFactory() {
+    if (VIRTUAL_THREAD_FACTORY == null) {
+      throw new UnsupportedOperationException("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + ")");
+    }
+    return VIRTUAL_THREAD_FACTORY;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    rejectIfShutdown(command);
+    Runnable task = AsyncContext.wrapRunnable(command);
+    incompleteTaskCount.incrementAndGet();
+    if (shutdown) {
+      // raced with shutdown: no permit has been acquired yet, so there is none to release
+      onTaskAbandoned();
+      rejectIfShutdown(command);
+    }
+
+    if (concurrencyLimit == null) {
+      RejectedExecutionException rejection = tryStart(command, task);
+      if (rejection != null) throw rejection;
+    } else {
+      concurrencyLimit.acquire(1).addSameThreadListener(() -> {
+        if (discardWaitingTasks) {
+          ThreadPoolSaturationPolicy.cancel(command);
+          onTaskFinished(); // releases the permit to the next waiter, which will be discarded in turn
+        } else {
+          // there's no caller left to throw to; tryStart has cancelled the task (if it's a future)
+          RejectedExecutionException rejection = tryStart(command, task);
+          if (rejection != null) LOG.warn("Discarded task that was waiting for a permit: {}", command, rejection);
+        }
+      });
+    }
+  }
+
+  public int getRunningTaskCount() {
+    return runningThreads.size();
+  }
+
+  /**
+   * @return the number of tasks waiting for a concurrency permit
+   */
+  public int getWaitingTaskCount() {
+    return concurrencyLimit == null ? 0 : concurrencyLimit.getQueueLength();
+  }
+
+  /**
+   * @return null if the task was started; otherwise, the task has been cancelled (if it is a future) and its permit
+   * released, and the returned exception describes the failure
+   */
+  @Nullable
+  private RejectedExecutionException tryStart(Runnable command, Runnable task) {
+    Thread thread = null;
+    try {
+      thread = threadFactory.newThread(() -> {
+        try {
+          if (discardWaitingTasks) {
+            ThreadPoolSaturationPolicy.cancel(command);
+          } else {
+            task.run();
+          }
+        } finally {
+          runningThreads.remove(Thread.currentThread());
+          onTaskFinished();
+        }
+      });
+      // registered before starting, so that shutdownNow can't miss it
+      runningThreads.add(thread);
+      thread.start();
+      return null;
+    } catch (RuntimeException | Error e) {
+      if (thread != null) runningThreads.remove(thread);
+      ThreadPoolSaturationPolicy.cancel(command);
+      onTaskFinished();
+      return new RejectedExecutionException("Unable to start a thread for task", e);
+    }
+  }
+
+  private void onTaskFinished() {
+    if (concurrencyLimit != null) concurrencyLimit.release(1);
+    onTaskAbandoned();
+  }
+
+  /**
+   * Accounts for a task that has finished (or will never run) without holding a concurrency permit
+   */
+  private void onTaskAbandoned() {
+    if (incompleteTaskCount.decrementAndGet() == 0 && shutdown) signalTermination();
+  }
+
+  private void rejectIfShutdown(Runnable command) {
+    if (shutdown) {
+      ThreadPoolSaturationPolicy.cancel(command);
+      throw new RejectedExecutionException("ThreadPerTaskExecutor has been shut down");
+    }
+  }
+
+  private void signalTermination() {
+    synchronized (terminationMonitor) {
+      terminationMonitor.notifyAll();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    if (isTerminated()) signalTermination();
+  }
+
+  /**
+   * Shuts down this executor, interrupts all running tasks, and discards (cancelling, if they are futures) any
+   * tasks that are still waiting for a concurrency permit.
+   *
+   * @return an empty list: waiting tasks are cancelled rather than returned
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    discardWaitingTasks = true;
+    shutdown();
+    for (Thread thread : runningThreads) {
+      thread.interrupt();
+    }
+    return ImmutableList.of();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return shutdown && incompleteTaskCount.get() == 0;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (terminationMonitor) {
+      long remaining;
+      while (!isTerminated()) {
+        if ((remaining = deadline - System.nanoTime()) <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(terminationMonitor, remaining);
+      }
+      return true;
+    }
+  }
+
+  @Nullable
+  private static ThreadFactory findVirtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // virtual threads are unavailable (or still a preview feature) on this JVM
+      return null;
+    }
+  }
+}
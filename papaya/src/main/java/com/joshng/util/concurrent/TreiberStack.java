@@ -0,0 +1,117 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free LIFO stack (Treiber's algorithm): each {@link #push} allocates a single node and publishes it with
+ * one CAS on the head.<p/>
+ * <p>
+ * {@link #drainAll} detaches the entire contents with a single atomic swap of the head, so concurrent producers are
+ * never held up by a consumer collecting results in bulk. Unlike {@link AtomicStack}, this is not a {@link List}:
+ * it offers no indexed access.
+ */
+public class TreiberStack<T> {
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<TreiberStack, Node> HEAD_UPDATER
+          = AtomicReferenceFieldUpdater.newUpdater(TreiberStack.class, Node.class, "head");
+  private volatile Node<T> head;
+
+  public static <T> TreiberStack<T> newTreiberStack() {
+    return new TreiberStack<>();
+  }
+
+  public void push(T value) {
+    Node<T> node = new Node<>(value);
+    Node<T> h;
+    do {
+      h = head;
+      node.next = h;
+    } while (!headUpdater().compareAndSet(this, h, node));
+  }
+
+  /**
+   * Pushes all of the given values, as a single atomic operation: the last value will be at the top of the stack.
+   */
+  public void pushAll(Iterable<? extends T> values) {
+    Node<T> first = null;
+    Node<T> last = null;
+    for (T value : values) {
+      Node<T> node = new Node<>(value);
+      node.next = last;
+      if (first == null) first = node;
+      last = node;
+    }
+    if (last == null) return;
+
+    Node<T> h;
+    do {
+      h = head;
+      first.next = h;
+    } while (!headUpdater().compareAndSet(this, h, last));
+  }
+
+  /**
+   * @return the value at the top of the stack, or null if it is empty
+   */
+  @Nullable
+  public T pop() {
+    Node<T> h;
+    do {
+      h = head;
+      if (h == null) return null;
+    } while (!headUpdater().compareAndSet(this, h, h.next));
+    return h.value;
+  }
+
+  @Nullable
+  public T peek() {
+    Node<T> h = head;
+    return h == null ? null : h.value;
+  }
+
+  public boolean isEmpty() {
+    return head == null;
+  }
+
+  /**
+   * Atomically removes the entire contents of the stack.
+   *
+   * @return a new, mutable {@link ArrayList} of the removed values (empty if there were none), most-recently-pushed
+   * first
+   */
+  public List<T> drainAll() {
+    List<T> values = new ArrayList<>();
+    for (Node<T> node = headUpdater().getAndSet(this, null); node != null; node = node.next) {
+      values.add(node.value);
+    }
+    return values;
+  }
+
+  /**
+   * Atomically removes the entire contents of the stack.
+   *
+   * @return a mutable (reversed) view of a new list of the removed values, in the order they were pushed
+   */
+  public List<T> drainAllInPushOrder() {
+    return Lists.reverse(drainAll());
+  }
+
+  @SuppressWarnings("unchecked")
+  private AtomicReferenceFieldUpdater<TreiberStack<T>, Node<T>> headUpdater() {
+    return (AtomicReferenceFieldUpdater<TreiberStack<T>, Node<T>>) (AtomicReferenceFieldUpdater<?, ?>) HEAD_UPDATER;
+  }
+
+  private static class Node<T> {
+    final T value;
+    Node<T> next;
+
+    Node(T value) {
+      this.value = value;
+    }
+  }
+}
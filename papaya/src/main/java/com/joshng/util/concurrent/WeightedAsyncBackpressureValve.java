@@ -0,0 +1,48 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A variant of {@link AsyncBackpressureValve} that bounds the total <em>cost</em> of concurrently-running jobs
+ * (eg, bytes or rows), rather than their count.<p/>
+ * <p>
+ * Each job declares its cost when it is submitted, and is started once that many permits are available from an
+ * {@link AsyncSemaphore}. Waiting jobs are started in FIFO order as running jobs complete, each via its own
+ * {@link FunFuture}, so reopening the valve does not wake every waiter at once.
+ */
+public class WeightedAsyncBackpressureValve {
+  private final AsyncSemaphore permits;
+
+  public WeightedAsyncBackpressureValve(long capacity) {
+    permits = new AsyncSemaphore(capacity);
+  }
+
+  public <T> Callable<FunFuture<T>> wrapJobStarter(long cost, Callable<? extends ListenableFuture<T>> jobStarter) {
+    return () -> callWithBackpressure(cost, jobStarter);
+  }
+
+  public <T> FunFuture<T> callWithBackpressure(Callable<? extends ListenableFuture<T>> jobStarter) {
+    return callWithBackpressure(1, jobStarter);
+  }
+
+  /**
+   * @param cost the weight of the job, which must not exceed the capacity of this valve
+   */
+  public <T> FunFuture<T> callWithBackpressure(long cost, Callable<? extends ListenableFuture<T>> jobStarter) {
+    return permits.callWithPermits(cost, jobStarter);
+  }
+
+  public long getCapacity() {
+    return permits.getMaxPermits();
+  }
+
+  public long getAvailableCapacity() {
+    return permits.availablePermits();
+  }
+
+  public int getWaitingJobCount() {
+    return permits.getQueueLength();
+  }
+}
@@ -7,7 +7,7 @@ import com.joshng.util.concurrent.Promise;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * User: josh
@@ -17,9 +17,12 @@ import java.util.concurrent.atomic.AtomicLong;
 public abstract class AbstractCompletionTracker<I, O> {
   private final Executor jobCompletionExecutor;
   private final Promise<O> completionPromise = Promise.newPromise();
-  private final AtomicLong startedCount = new AtomicLong();
-  private final AtomicLong completedCount = new AtomicLong();
+  // striped, so that trackers fanning out many jobs from many threads don't contend on a single cache-line
+  private final LongAdder startedCount = new LongAdder();
+  private final LongAdder completedCount = new LongAdder();
   private final AtomicBoolean markedComplete = new AtomicBoolean();
+  // a lower bound on startedCount, letting most completion-checks skip summing it
+  private volatile long knownStartedCount;
 
   public AbstractCompletionTracker(Executor jobCompletionExecutor) {
     this.jobCompletionExecutor = jobCompletionExecutor;
@@ -49,7 +52,7 @@ public abstract class AbstractCompletionTracker<I, O> {
   }
 
   public <F extends CompletionStage<? extends I>> F track(final F job) {
-    startedCount.incrementAndGet();
+    startedCount.increment();
     if (!isAcceptingNewJobs()) job.toCompletableFuture().cancel(completionPromise.wasCancelledWithInterruption());
     job.whenCompleteAsync((r, x) -> {
       try {
@@ -57,7 +60,7 @@ public abstract class AbstractCompletionTracker<I, O> {
       } catch (Exception e) {
         abort(FunFuture.unwrapExecutionException(e));
       } finally {
-        completedCount.incrementAndGet();
+        completedCount.increment();
         checkDone();
       }
     }, jobCompletionExecutor);
@@ -75,11 +78,14 @@ public abstract class AbstractCompletionTracker<I, O> {
   }
 
   public long getIncompleteJobCount() {
-    return startedCount.get() - completedCount.get();
+    // every job is counted as started before it is counted as completed, so reading completedCount first
+    // ensures that this is never negative, and is only zero if there really was an instant with no incomplete jobs
+    long completed = completedCount.sum();
+    return startedCount.sum() - completed;
   }
 
   public long getCompletedJobCount() {
-    return completedCount.get();
+    return completedCount.sum();
   }
 
   protected void checkDone() {
@@ -89,6 +95,12 @@ public abstract class AbstractCompletionTracker<I, O> {
   }
 
   protected boolean allJobsDone() {
-    return getIncompleteJobCount() == 0;
+    long completed = completedCount.sum();
+    // while jobs are known to be outstanding, there's no need to sum the started-count: the completion of the
+    // last job will find completed >= knownStartedCount, and perform the full check
+    if (completed < knownStartedCount) return false;
+    long started = startedCount.sum();
+    knownStartedCount = started;
+    return started == completed;
   }
 }
@@ -12,6 +12,9 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 /**
+ * Collects the results of all tracked jobs, in the order they were tracked. Every result is retained until all jobs
+ * are complete; to consume results as they become available, see {@link StreamingResultTracker}.
+ *
  * Created by: josh 11/15/13 1:39 PM
  */
 public class IncrementalFutureList<T> extends AbstractIndependentCompletionTracker<T, FunList<T>> {
@@ -12,6 +12,8 @@ import com.joshng.util.concurrent.FunFuture;
 import com.joshng.util.exceptions.MultiException;
 
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,26 +23,46 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Time: 4:55 PM
  */
 public class ParallelFold<I, O> extends AbstractIndependentCompletionTracker<I, O> {
-  private final MutableReference<O> foldedResult;
-  private final F<I, O> resultFolder;
+  private final FoldStrategy<I, O> foldStrategy;
   private final Cache<Class<? extends Throwable>, ErrorAccumulator> errorAccumulators = CacheBuilder.newBuilder().build();
   private final boolean abortOnFailure;
 
   public ParallelFold(O seedValue, boolean abortOnFailure, ListeningExecutorService foldExecutor, F2<? super I, ? super O, ? extends O> folder) {
+    this(new SharedFold<>(seedValue, folder), abortOnFailure, foldExecutor);
+  }
+
+  /**
+   * Constructs a ParallelFold in which each thread folds results into its own accumulator (starting from the
+   * {@code identity} value), and the accumulators are merged with the {@code combiner} only once all jobs are
+   * complete. This avoids contending on a single shared result when results arrive rapidly on many threads, but
+   * requires that the combiner be associative, and that the identity be neutral for both the folder and
+   * the combiner. (Note that the order in which results are folded is undefined in either case.)
+   */
+  public ParallelFold(O identity, boolean abortOnFailure, ListeningExecutorService foldExecutor, F2<? super I, ? super O, ? extends O> folder, F2<? super O, ? super O, ? extends O> combiner) {
+    this(new PerThreadFold<>(identity, folder, combiner), abortOnFailure, foldExecutor);
+  }
+
+  private ParallelFold(FoldStrategy<I, O> foldStrategy, boolean abortOnFailure, ListeningExecutorService foldExecutor) {
     super(foldExecutor);
     this.abortOnFailure = abortOnFailure;
-    this.foldedResult = AtomicMutableReference.newReference(seedValue);
-    resultFolder = foldedResult.modifier(folder);
+    this.foldStrategy = foldStrategy;
   }
 
   public static <I, O> ParallelFold<I, O> newParallelFold(O initialValue, boolean abortOnFailure, ListeningExecutorService foldExecutor, F2<? super I, ? super O, ? extends O> folder) {
     return new ParallelFold<I, O>(initialValue, abortOnFailure, foldExecutor, folder);
   }
 
+  /**
+   * @see #ParallelFold(Object, boolean, ListeningExecutorService, F2, F2)
+   */
+  public static <I, O> ParallelFold<I, O> newCombiningParallelFold(O identity, boolean abortOnFailure, ListeningExecutorService foldExecutor, F2<? super I, ? super O, ? extends O> folder, F2<? super O, ? super O, ? extends O> combiner) {
+    return new ParallelFold<I, O>(identity, abortOnFailure, foldExecutor, folder, combiner);
+  }
+
   @Override
   protected void handleCompletedJob(CompletionStage<? extends I> job) throws Exception {
     try {
-      resultFolder.apply(job.toCompletableFuture().join());
+      foldStrategy.fold(job.toCompletableFuture().join());
     } catch (final Exception e) {
       if (abortOnFailure) throw e;
       Throwable cause = FunFuture.unwrapExecutionException(e);
@@ -59,7 +81,99 @@ public class ParallelFold<I, O> extends AbstractIndependentCompletionTracker<I,
       e = e.with(accumulator.getRepresentativeException());
     }
     e.throwIfException(Exception.class);
-    return foldedResult.get();
+    return foldStrategy.getResult();
+  }
+
+  private interface FoldStrategy<I, O> {
+    void fold(I input);
+
+    O getResult();
+  }
+
+  private static class SharedFold<I, O> implements FoldStrategy<I, O> {
+    private final MutableReference<O> foldedResult;
+    private final F<I, O> resultFolder;
+
+    SharedFold(O seedValue, F2<? super I, ? super O, ? extends O> folder) {
+      foldedResult = AtomicMutableReference.newReference(seedValue);
+      resultFolder = foldedResult.modifier(folder);
+    }
+
+    @Override public void fold(I input) {
+      resultFolder.apply(input);
+    }
+
+    @Override public O getResult() {
+      return foldedResult.get();
+    }
+  }
+
+  private static class PerThreadFold<I, O> implements FoldStrategy<I, O> {
+    private final O identity;
+    private final F2<? super I, ? super O, ? extends O> folder;
+    private final F2<? super O, ? super O, ? extends O> combiner;
+    // keyed by thread, rather than held in a ThreadLocal, so that harvesting the results can drop every thread's
+    // accumulator (a pool thread would otherwise retain its stale accumulator after the fold completes)
+    private final ConcurrentMap<Thread, Accumulator<O>> accumulators = new ConcurrentHashMap<>();
+    private O result; // guarded by this
+    private boolean harvested; // guarded by this
+
+    PerThreadFold(O identity, F2<? super I, ? super O, ? extends O> folder, F2<? super O, ? super O, ? extends O> combiner) {
+      this.identity = identity;
+      this.folder = folder;
+      this.combiner = combiner;
+    }
+
+    @Override public void fold(I input) {
+      Thread thread = Thread.currentThread();
+      Accumulator<O> accumulator = accumulators.get(thread);
+      if (accumulator == null) accumulator = accumulators.computeIfAbsent(thread, t -> new Accumulator<>(identity));
+      accumulator.value = folder.apply(input, accumulator.value);
+    }
+
+    @Override public synchronized O getResult() {
+      if (!harvested) {
+        result = combineAll();
+        accumulators.clear();
+        harvested = true;
+      }
+      return result;
+    }
+
+    private O combineAll() {
+      // merge pairwise, so that combining the partial results forms a balanced tree
+      Accumulator<?>[] partials = accumulators.values().toArray(new Accumulator<?>[0]);
+      if (partials.length == 0) return identity;
+      Object[] results = new Object[partials.length];
+      for (int i = 0; i < partials.length; i++) {
+        results[i] = partials[i].value;
+      }
+      for (int width = results.length; width > 1; width = (width + 1) / 2) {
+        for (int i = 0; i < width / 2; i++) {
+          results[i] = combine(results[2 * i], results[2 * i + 1]);
+        }
+        if ((width & 1) != 0) results[width / 2] = results[width - 1];
+      }
+      return cast(results[0]);
+    }
+
+    private O combine(Object left, Object right) {
+      return combiner.apply(cast(left), cast(right));
+    }
+
+    @SuppressWarnings("unchecked")
+    private O cast(Object value) {
+      return (O) value;
+    }
+  }
+
+  private static class Accumulator<O> {
+    // only written by its owning thread; published to computeResult by the completion of the tracked jobs
+    private volatile O value;
+
+    Accumulator(O value) {
+      this.value = value;
+    }
   }
 
   public static class ErrorAccumulator {
@@ -0,0 +1,202 @@
+package com.joshng.util.concurrent.trackers;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.joshng.util.collect.Nothing;
+import com.joshng.util.concurrent.AsyncSemaphore;
+import com.joshng.util.concurrent.FunFuture;
+
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A completion-tracker that passes the result of each tracked job to a consumer as soon as it can be delivered,
+ * either in the order the jobs complete, or in the order they were {@link #track tracked}. Unlike
+ * {@link IncrementalFutureList}, results are released once they are delivered, rather than being retained until
+ * all jobs are complete.<p/>
+ * <p>
+ * The consumer is never invoked concurrently (though it may be invoked from any thread that completes a job), and
+ * every successful result has been delivered before the {@link #getCompletionFuture completion-future} completes.
+ * If any job fails (or the consumer throws), the tracker is aborted with that exception, and no further results
+ * are delivered.<p/>
+ * <p>
+ * A tracker may optionally bound the number of tracked jobs whose results have not yet been delivered: in
+ * submission order, this bounds the number of results that may be buffered while waiting for an earlier job to
+ * complete. Jobs started via {@link #trackWhenReady} wait (asynchronously) for room within that window;
+ * jobs passed directly to {@link #track} are counted against it, but are never delayed. A job that is waiting for
+ * room is tracked from the moment {@link #trackWhenReady} is called: it holds its place in submission order, and
+ * the tracker will not complete (even after {@link #setNoMoreJobs}) until it has been started and completed.
+ */
+public class StreamingResultTracker<T> extends AbstractIndependentCompletionTracker<T, Nothing> {
+  private final Consumer<? super T> consumer;
+  private final boolean submissionOrder;
+  @Nullable private final AsyncSemaphore window;
+  private final Queue<CompletableFuture<? extends T>> undelivered = new ConcurrentLinkedQueue<>();
+  // placeholders for jobs that are tracked, but still waiting for their window permit
+  private final Set<CompletableFuture<?>> awaitingPermit = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger deliveryRequests = new AtomicInteger();
+  private volatile long deliveredCount;
+
+  private StreamingResultTracker(boolean submissionOrder, int maxUndeliveredJobs, Consumer<? super T> consumer) {
+    super(MoreExecutors.directExecutor());
+    checkArgument(maxUndeliveredJobs > 0, "maxUndeliveredJobs must be positive", maxUndeliveredJobs);
+    this.consumer = consumer;
+    this.submissionOrder = submissionOrder;
+    window = maxUndeliveredJobs == Integer.MAX_VALUE ? null : new AsyncSemaphore(maxUndeliveredJobs);
+    getCompletionFuture().uponFailure(e -> {
+      for (CompletableFuture<? extends T> future : undelivered) {
+        future.cancel(false);
+      }
+    });
+  }
+
+  public static <T> StreamingResultTracker<T> inCompletionOrder(Consumer<? super T> consumer) {
+    return new StreamingResultTracker<>(false, Integer.MAX_VALUE, consumer);
+  }
+
+  /**
+   * @param maxRunningJobs the number of jobs started via {@link #trackWhenReady} that may run concurrently
+   */
+  public static <T> StreamingResultTracker<T> inCompletionOrder(int maxRunningJobs, Consumer<? super T> consumer) {
+    return new StreamingResultTracker<>(false, maxRunningJobs, consumer);
+  }
+
+  public static <T> StreamingResultTracker<T> inSubmissionOrder(Consumer<? super T> consumer) {
+    return new StreamingResultTracker<>(true, Integer.MAX_VALUE, consumer);
+  }
+
+  /**
+   * @param reorderWindow the number of tracked jobs whose results may be awaiting delivery at any time: jobs
+   *                      started via {@link #trackWhenReady} will wait for the earliest of these to be delivered
+   */
+  public static <T> StreamingResultTracker<T> inSubmissionOrder(int reorderWindow, Consumer<? super T> consumer) {
+    return new StreamingResultTracker<>(true, reorderWindow, consumer);
+  }
+
+  @Override
+  public <F extends CompletionStage<? extends T>> F track(F job) {
+    if (window != null) window.reducePermits(1);
+    return trackWithinWindow(job);
+  }
+
+  /**
+   * Waits for room within this tracker's window (if it has one), then starts and tracks a job. The job is counted
+   * as tracked immediately, so a failure thrown by the {@code jobStarter} aborts the tracker like any job failure.
+   *
+   * @return a future that completes when the job has been started and tracked
+   */
+  public FunFuture<Nothing> trackWhenReady(Callable<? extends CompletionStage<? extends T>> jobStarter) {
+    if (!isAcceptingNewJobs()) return FunFuture.immediateFailedFuture(notAcceptingNewJobs());
+    if (window == null) return FunFuture.runSafely(() -> trackWithinWindow(jobStarter.call()));
+
+    // track a placeholder right away, and complete it with the job's result once the job has been started
+    CompletableFuture<T> placeholder = new CompletableFuture<>();
+    awaitingPermit.add(placeholder);
+    trackWithinWindow(placeholder);
+    FunFuture<Nothing> permit = window.acquire(1);
+    // if the placeholder is discarded (ie, the tracker is aborted) while waiting, withdraw the request
+    placeholder.whenComplete((result, e) -> permit.cancel(false));
+    return permit.map(granted -> {
+      if (!awaitingPermit.remove(placeholder)) {
+        // the placeholder was already delivered, without holding a permit: the job will never start
+        window.release(1);
+        throw new CancellationException("StreamingResultTracker was aborted before the job could start");
+      }
+      // from here on, delivering the placeholder releases the permit
+      if (placeholder.isDone() || isDone()) {
+        placeholder.cancel(false);
+        throw new CancellationException("StreamingResultTracker was aborted before the job could start");
+      }
+      startInto(jobStarter, placeholder);
+      return Nothing.NOTHING;
+    });
+  }
+
+  private void startInto(Callable<? extends CompletionStage<? extends T>> jobStarter, CompletableFuture<T> placeholder) throws Exception {
+    CompletionStage<? extends T> job;
+    try {
+      job = jobStarter.call();
+    } catch (Exception | Error e) {
+      placeholder.completeExceptionally(e);
+      throw e;
+    }
+    job.whenComplete((result, e) -> {
+      if (e == null) {
+        placeholder.complete(result);
+      } else {
+        placeholder.completeExceptionally(e);
+      }
+    });
+    placeholder.whenComplete((result, e) -> {
+      if (placeholder.isCancelled()) job.toCompletableFuture().cancel(false);
+    });
+  }
+
+  private static IllegalStateException notAcceptingNewJobs() {
+    return new IllegalStateException("StreamingResultTracker is not accepting new jobs");
+  }
+
+  public long getDeliveredResultCount() {
+    return deliveredCount;
+  }
+
+  private <F extends CompletionStage<? extends T>> F trackWithinWindow(F job) {
+    if (submissionOrder) undelivered.offer(job.toCompletableFuture());
+    return super.track(job);
+  }
+
+  @Override
+  protected void handleCompletedJob(CompletionStage<? extends T> job) throws Exception {
+    CompletableFuture<? extends T> future = job.toCompletableFuture();
+    if (!submissionOrder) undelivered.offer(future);
+    deliverReadyResults();
+    future.join();
+  }
+
+  /**
+   * Delivers results from the head of the queue for as long as they're complete. Only one thread at a time
+   * delivers; concurrent callers just register that another pass is needed, which the active thread will
+   * perform before it returns (and thus before its own job is counted as complete).
+   */
+  private void deliverReadyResults() {
+    if (deliveryRequests.getAndIncrement() != 0) return;
+    int missed = 1;
+    do {
+      CompletableFuture<? extends T> future;
+      while ((future = undelivered.peek()) != null && future.isDone()) {
+        undelivered.poll();
+        deliver(future);
+      }
+      missed = deliveryRequests.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void deliver(CompletableFuture<? extends T> future) {
+    try {
+      if (!isDone()) {
+        // join() rethrows a failed job's exception, aborting before any later result is delivered
+        consumer.accept(future.join());
+        deliveredCount++; // only written by the single active deliverer
+      }
+    } catch (RuntimeException | Error e) {
+      abort(FunFuture.unwrapExecutionException(e));
+    } finally {
+      if (window != null && !awaitingPermit.remove(future)) window.release(1);
+    }
+  }
+
+  @Override
+  protected Nothing computeResult() {
+    return Nothing.NOTHING;
+  }
+}
@@ -0,0 +1,46 @@
+package com.joshng.util.collect;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DoubleFunIterableTest {
+  @Test
+  public void testPipeline() {
+    DoubleFunIterable values = DoubleFunIterable.of(1.5, -2.0, 4.25).map(d -> d * 2).filter(d -> d > 0);
+    assertArrayEquals(new double[]{3.0, 8.5}, values.toArray(), 0);
+    assertEquals(11.5, values.sum(), 0);
+    assertEquals(11.5, values.fold(0, Double::sum), 0);
+    assertEquals(3.0, values.min().getAsDouble(), 0);
+    assertEquals(8.5, values.max().getAsDouble(), 0);
+    assertFalse(DoubleFunIterable.of().max().isPresent());
+  }
+
+  @Test
+  public void testCompensatedSum() {
+    double[] tenths = new double[1_000_000];
+    Arrays.fill(tenths, 0.1);
+    assertEquals(100_000.0, DoubleFunIterable.of(tenths).sum(), 0);
+  }
+
+  @Test
+  public void testSumMatchesDoubleStreamForNonFiniteValues() {
+    assertEquals(Double.POSITIVE_INFINITY, DoubleFunIterable.of(Double.POSITIVE_INFINITY, 1.0).sum(), 0);
+    assertEquals(Double.NEGATIVE_INFINITY, DoubleFunIterable.of(1.0, Double.NEGATIVE_INFINITY).sum(), 0);
+    assertEquals(Double.POSITIVE_INFINITY, DoubleFunIterable.of(Double.MAX_VALUE, Double.MAX_VALUE, 1.0).sum(), 0);
+    assertEquals(Double.NaN, DoubleFunIterable.of(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY).sum(), 0);
+    assertEquals(Double.NaN, DoubleFunIterable.of(1.0, Double.NaN).sum(), 0);
+  }
+
+  @Test
+  public void testBridges() {
+    FunIterable<String> words = Functional.extend(Arrays.asList("a", "bb", "ccc"));
+    assertEquals(3.0, words.mapToDouble(String::length).max().getAsDouble(), 0);
+    assertEquals(6, DoubleFunIterable.of(0.1, 0.2, 0.3).mapToLong(d -> Math.round(d * 10)).sum());
+    assertArrayEquals(new int[]{1, 2}, DoubleFunIterable.of(1.2, 2.7).mapToInt(d -> (int) d).toArray());
+  }
+}
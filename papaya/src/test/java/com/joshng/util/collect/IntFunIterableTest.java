@@ -0,0 +1,73 @@
+package com.joshng.util.collect;
+
+import com.joshng.util.blocks.IntOp;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.OptionalInt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntFunIterableTest {
+  @Test
+  public void testLazyPipeline() {
+    int[] calls = new int[1];
+    IntFunIterable squares = IntFunIterable.range(0, 10).map(i -> {
+      calls[0]++;
+      return i * i;
+    });
+    assertEquals(0, calls[0]);
+
+    assertArrayEquals(new int[]{0, 4, 16, 36, 64}, squares.filter(i -> i % 2 == 0).toArray());
+    assertEquals(10, calls[0]);
+    // each terminal operation iterates afresh
+    assertEquals(285, squares.sum());
+    assertEquals(20, calls[0]);
+  }
+
+  @Test
+  public void testAggregates() {
+    IntFunIterable values = IntFunIterable.of(3, -7, 12, 0);
+    assertEquals(8, values.sum());
+    assertEquals(8, values.fold(0, IntOp.Add));
+    assertEquals(OptionalInt.of(-7), values.min());
+    assertEquals(OptionalInt.of(12), values.max());
+    assertEquals(4, values.count());
+    assertEquals(2, values.limit(2).count());
+  }
+
+  @Test
+  public void testSumDoesNotOverflow() {
+    assertEquals(2L * Integer.MAX_VALUE, IntFunIterable.of(Integer.MAX_VALUE, Integer.MAX_VALUE).sum());
+  }
+
+  @Test
+  public void testEmpty() {
+    IntFunIterable empty = IntFunIterable.range(5, 5);
+    assertTrue(empty.isEmpty());
+    assertFalse(empty.min().isPresent());
+    assertFalse(empty.max().isPresent());
+    assertEquals(0, empty.sum());
+    assertEquals(0, empty.toArray().length);
+  }
+
+  @Test
+  public void testToArrayGrows() {
+    int[] expected = new int[1000];
+    Arrays.setAll(expected, i -> i);
+    assertArrayEquals(expected, IntFunIterable.range(0, 1000).toArray());
+  }
+
+  @Test
+  public void testBridges() {
+    FunIterable<String> words = Functional.extend(Arrays.asList("a", "bb", "ccc"));
+    assertEquals(6, words.mapToInt(String::length).sum());
+    assertEquals(Arrays.asList(1, 2, 3, 4), Count.FromOne.intsUpTo(5).boxed().toList());
+    assertArrayEquals(new int[]{0, 2, 4}, new CountingIterable(0, 2).ints().limit(3).toArray());
+    assertEquals(Arrays.asList("1", "2"), IntFunIterable.of(1, 2).mapToObj(Integer::toString).toList());
+    assertEquals(3_000_000_000L, IntFunIterable.of(1, 2).mapToLong(i -> i * 1_000_000_000L).sum());
+  }
+}
@@ -0,0 +1,37 @@
+package com.joshng.util.collect;
+
+import com.joshng.util.blocks.LongOp;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LongFunIterableTest {
+  @Test
+  public void testPipeline() {
+    LongFunIterable values = LongFunIterable.range(0, 10).map(l -> l * 10_000_000_000L).filter(l -> l % 3 == 0);
+    assertArrayEquals(new long[]{0, 30_000_000_000L, 60_000_000_000L, 90_000_000_000L}, values.toArray());
+    assertEquals(180_000_000_000L, values.sum());
+    assertEquals(180_000_000_000L, values.fold(0, LongOp.Add));
+    assertEquals(OptionalLong.of(0), values.min());
+    assertEquals(OptionalLong.of(90_000_000_000L), values.max());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertFalse(LongFunIterable.of().min().isPresent());
+    assertEquals(0, LongFunIterable.of().sum());
+  }
+
+  @Test
+  public void testBridges() {
+    FunIterable<String> words = Functional.extend(Arrays.asList("a", "bb", "ccc"));
+    assertEquals(6L, words.mapToLong(String::length).sum());
+    assertArrayEquals(new int[]{5, 6, 7}, LongFunIterable.range(5, 8).mapToInt(l -> (int) l).toArray());
+    assertEquals(Arrays.asList(5L, 6L), LongFunIterable.range(5, 7).boxed().toList());
+  }
+}
@@ -0,0 +1,73 @@
+package com.joshng.util.collect;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashSetTest {
+  @Test
+  public void testWithAndWithoutMatchHashSet() {
+    Random random = new Random(17);
+    PersistentHashSet<Integer> set = PersistentHashSet.empty();
+    Set<Integer> expected = new HashSet<>();
+    for (int i = 0; i < 20_000; i++) {
+      Integer value = random.nextInt(2_000);
+      PersistentHashSet<Integer> before = set;
+      if (random.nextBoolean()) {
+        set = set.with(value);
+        assertEquals(expected.add(value), set != before);
+      } else {
+        set = set.without(value);
+        assertEquals(expected.remove(value), set != before);
+      }
+      assertEquals(expected.size(), set.size());
+    }
+    assertEquals(expected, set);
+    assertEquals(expected, set.parallelStream().collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void testUnchangedSetsAreReused() {
+    PersistentHashSet<String> set = PersistentHashSet.of("a", "b");
+    assertSame(set, set.with("a"));
+    assertSame(set, set.without("c"));
+    assertSame(set, set.without(null));
+    assertSame(PersistentHashSet.empty(), set.without("a").without("b"));
+    assertSame(set, PersistentHashSet.copyOf(set));
+    assertFalse(set.contains(null));
+  }
+
+  @Test
+  public void testUnion() {
+    PersistentHashSet<Integer> evens = PersistentHashSet.empty();
+    PersistentHashSet<Integer> triples = PersistentHashSet.empty();
+    for (int i = 0; i < 1_000; i++) {
+      if (i % 2 == 0) evens = evens.with(i);
+      if (i % 3 == 0) triples = triples.with(i);
+    }
+    PersistentHashSet<Integer> union = evens.union(triples);
+    Set<Integer> expected = new HashSet<>(evens);
+    expected.addAll(triples);
+    assertEquals(expected, union);
+    assertEquals(expected, evens.union(ImmutableSet.copyOf(triples)));
+    assertSame(evens, evens.union(PersistentHashSet.of(0, 2, 4)));
+    assertTrue(union.containsAll(evens));
+  }
+
+  @Test
+  public void testBuilderAndWithFunction() {
+    PersistentHashSet<String> built = PersistentHashSet.<String>builder().add("a").addAll(ImmutableSet.of("b", "a")).build();
+    assertEquals(ImmutableSet.of("a", "b"), built);
+    assertEquals(ImmutableSet.of("a", "b", "c"), PersistentHashSet.<String>with().apply("c", built));
+    assertSame(PersistentHashSet.empty(), PersistentHashSet.builder().build());
+  }
+}
@@ -0,0 +1,314 @@
+package com.joshng.util.collect;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentMapTest {
+  private static final int KEY_COUNT = 4_000;
+  private static final IntUnaryOperator XOR_SPREADER = h -> h ^ 0x5bd1e995;
+
+  @Test
+  public void testRandomOperationsMatchHashMap() {
+    for (IntUnaryOperator spreader : new IntUnaryOperator[]{null, PersistentMap.MURMUR3_SPREADER}) {
+      Random random = new Random(42);
+      PersistentMap<Key, Integer> map = empty(spreader);
+      Map<Key, Integer> expected = new HashMap<>();
+      List<PersistentMap<Key, Integer>> snapshots = new ArrayList<>();
+      List<Map<Key, Integer>> expectedSnapshots = new ArrayList<>();
+
+      for (int i = 0; i < 100_000; i++) {
+        Key key = randomKey(random);
+        if (random.nextInt(3) == 0) {
+          PersistentMap<Key, Integer> before = map;
+          map = map.without(key);
+          assertEquals(expected.remove(key) != null, map != before);
+        } else {
+          int value = random.nextInt(10);
+          PersistentMap<Key, Integer> before = map;
+          map = map.with(key, value);
+          Integer previous = expected.put(key, value);
+          if (previous != null && previous == value) assertSame("an unchanged map should be reused", before, map);
+        }
+        assertEquals(expected.size(), map.size());
+        if (i % 10_000 == 0) {
+          snapshots.add(map);
+          expectedSnapshots.add(new HashMap<>(expected));
+        }
+      }
+      assertMapEquals(expected, map);
+
+      // drain it completely
+      for (Key key : new ArrayList<>(expected.keySet())) {
+        map = map.without(key);
+      }
+      assertTrue(map.isEmpty());
+
+      // earlier versions are unaffected by all of the later changes
+      for (int i = 0; i < snapshots.size(); i++) {
+        assertMapEquals(expectedSnapshots.get(i), snapshots.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testBuilderMatchesHashMapAndBuiltSnapshotsAreUnaffectedByLaterEdits() {
+    Random random = new Random(7);
+    PersistentMap.Builder<Key, Integer> builder = PersistentMap.builder();
+    Map<Key, Integer> expected = new HashMap<>();
+    List<PersistentMap<Key, Integer>> built = new ArrayList<>();
+    List<Map<Key, Integer>> expectedBuilt = new ArrayList<>();
+
+    for (int i = 0; i < 100_000; i++) {
+      Key key = randomKey(random);
+      if (random.nextInt(3) == 0) {
+        builder.remove(key);
+        expected.remove(key);
+      } else {
+        int value = random.nextInt();
+        builder.put(key, value);
+        expected.put(key, value);
+      }
+      assertEquals(expected.size(), builder.size());
+      assertEquals(expected.get(key), builder.get(key));
+      if (i % 5_000 == 0) {
+        // the Builder keeps going after build(): it must copy, rather than mutate, the nodes it has handed out
+        built.add(builder.build());
+        expectedBuilt.add(new HashMap<>(expected));
+      }
+    }
+    assertMapEquals(expected, builder.build());
+    for (int i = 0; i < built.size(); i++) {
+      assertMapEquals(expectedBuilt.get(i), built.get(i));
+    }
+
+    // a Builder derived from a map doesn't affect the map
+    PersistentMap<Key, Integer> source = built.get(built.size() - 1);
+    Map<Key, Integer> expectedSource = expectedBuilt.get(expectedBuilt.size() - 1);
+    PersistentMap.Builder<Key, Integer> derived = source.toBuilder();
+    for (Key key : expectedSource.keySet()) {
+      derived.remove(key);
+    }
+    derived.put(new Key(-1, 0), -1);
+    assertEquals(1, derived.build().size());
+    assertMapEquals(expectedSource, source);
+  }
+
+  @Test
+  public void testParallelStreamsSeeEveryEntryOnce() {
+    Random random = new Random(3);
+    PersistentMap.Builder<Key, Integer> builder = PersistentMap.builder();
+    Map<Key, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 50_000; i++) {
+      Key key = randomKey(random);
+      builder.put(key, i);
+      expected.put(key, i);
+    }
+    PersistentMap<Key, Integer> map = builder.build();
+
+    Map<Key, Integer> collected = map.entrySet().parallelStream()
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    assertEquals(expected, collected);
+    assertEquals(expected.size(), map.keySet().parallelStream().distinct().count());
+    assertEquals(expected.values().stream().mapToLong(Integer::longValue).sum(),
+            map.values().parallelStream().mapToLong(Integer::longValue).sum());
+    assertEquals(expected.size(), map.entrySet().spliterator().estimateSize());
+  }
+
+  @Test
+  public void testUnionAndMergeMatchHashMap() {
+    BinaryOperator<Integer> sum = Integer::sum;
+    IntUnaryOperator[] spreaders = {null, PersistentMap.MURMUR3_SPREADER, XOR_SPREADER};
+    for (IntUnaryOperator leftSpreader : spreaders) {
+      for (IntUnaryOperator rightSpreader : spreaders) {
+        Random random = new Random(11);
+        PersistentMap<Key, Integer> common = empty(leftSpreader);
+        Map<Key, Integer> expectedCommon = new HashMap<>();
+        for (int i = 0; i < 2_000; i++) {
+          Key key = randomKey(random);
+          common = common.with(key, i);
+          expectedCommon.put(key, i);
+        }
+        // the left map shares structure with the common ancestor; the right map (possibly arranged differently)
+        // overlaps with both
+        PersistentMap<Key, Integer> left = common;
+        Map<Key, Integer> expectedLeft = new HashMap<>(expectedCommon);
+        PersistentMap<Key, Integer> right = empty(rightSpreader);
+        Map<Key, Integer> expectedRight = new HashMap<>();
+        for (int i = 0; i < 3_000; i++) {
+          Key key = randomKey(random);
+          if (random.nextBoolean()) {
+            left = left.with(key, i);
+            expectedLeft.put(key, i);
+          } else {
+            right = right.with(key, i);
+            expectedRight.put(key, i);
+          }
+        }
+        for (Map.Entry<Key, Integer> entry : expectedCommon.entrySet()) {
+          if (random.nextInt(4) == 0) {
+            right = right.with(entry.getKey(), entry.getValue());
+            expectedRight.put(entry.getKey(), entry.getValue());
+          }
+        }
+
+        Map<Key, Integer> expectedUnion = new HashMap<>(expectedLeft);
+        expectedUnion.putAll(expectedRight);
+        assertMapEquals(expectedUnion, left.union(right));
+
+        Map<Key, Integer> expectedMerge = new HashMap<>(expectedLeft);
+        expectedRight.forEach((key, value) -> expectedMerge.merge(key, value, sum));
+        assertMapEquals(expectedMerge, left.merge(right, sum));
+
+        // the inputs are unchanged
+        assertMapEquals(expectedLeft, left);
+        assertMapEquals(expectedRight, right);
+        assertSame(left, left.union(empty(rightSpreader)));
+      }
+    }
+
+    PersistentMap<Key, Integer> map = PersistentMap.<Key, Integer>empty().with(new Key(1, 1), 1);
+    assertMapEquals(map.asMap(), map.union(map));
+    assertMapEquals(map.asMap(), PersistentMap.<Key, Integer>builder().putAll(map).build());
+  }
+
+  @Test
+  public void testCollidingKeys() {
+    PersistentMap<Key, Integer> comparable = PersistentMap.empty();
+    PersistentMap<PlainKey, Integer> plain = PersistentMap.empty();
+    Map<Key, Integer> expected = new HashMap<>();
+    // 50 groups of 20 keys, all of the keys in each group sharing a hash; inserted in descending order
+    for (int id = 999; id >= 0; id--) {
+      comparable = comparable.with(new Key(id, id / 20), id);
+      plain = plain.with(new PlainKey(id, id / 20), id);
+      expected.put(new Key(id, id / 20), id);
+    }
+    assertMapEquals(expected, comparable);
+    assertEquals(1000, plain.size());
+
+    PersistentMap.CollisionStats stats = comparable.collisionStats();
+    assertEquals(1000, stats.getEntryCount());
+    assertEquals(50, stats.getOverflowNodeCount());
+    assertEquals(1000, stats.getCollidingEntryCount());
+    assertEquals(20, stats.getMaxChainLength());
+    assertEquals(20.0, stats.getMeanChainLength(), 0);
+
+    for (int id = 0; id < 1000; id++) {
+      assertEquals(Integer.valueOf(id), comparable.get(new Key(id, id / 20)));
+      assertEquals(Integer.valueOf(id), plain.get(new PlainKey(id, id / 20)));
+      assertNull(comparable.get(new Key(id + 1000, id / 20)));
+    }
+
+    // removing keys from the middle of each collision leaves the rest searchable
+    for (int id = 0; id < 1000; id += 3) {
+      comparable = comparable.without(new Key(id, id / 20));
+      plain = plain.without(new PlainKey(id, id / 20));
+      expected.remove(new Key(id, id / 20));
+    }
+    assertMapEquals(expected, comparable);
+    assertEquals(expected.size(), plain.size());
+    assertEquals(expected.size(), comparable.collisionStats().getCollidingEntryCount());
+
+    // spreading doesn't help complete collisions, but must still find every key
+    PersistentMap<Key, Integer> spread = PersistentMap.<Key, Integer>empty(PersistentMap.MURMUR3_SPREADER).union(comparable);
+    assertMapEquals(expected, spread);
+    assertFalse(spread.containsKey(new Key(0, 0)));
+  }
+
+  private static PersistentMap<Key, Integer> empty(IntUnaryOperator spreader) {
+    return spreader == null ? PersistentMap.empty() : PersistentMap.empty(spreader);
+  }
+
+  /**
+   * Keys with a mixture of hash distributions: well-spread, complete collisions, and hashes that differ only in
+   * their high bits (which build deep paths through an unspread trie).
+   */
+  private static Key randomKey(Random random) {
+    int id = random.nextInt(KEY_COUNT);
+    switch (id % 3) {
+      case 0:
+        return new Key(id, id * 0x9e3779b9);
+      case 1:
+        return new Key(id, id / 30);
+      default:
+        return new Key(id, id << 20);
+    }
+  }
+
+  private static <K, V> void assertMapEquals(Map<K, V> expected, PersistentMap<K, V> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (Map.Entry<K, V> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+    assertEquals(expected, actual.asMap());
+    int iterated = 0;
+    for (Map.Entry<K, V> entry : actual.entrySet()) {
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+      iterated++;
+    }
+    assertEquals(expected.size(), iterated);
+  }
+
+  private static class Key implements Comparable<Key> {
+    final int id;
+    final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      return Integer.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "Key(" + id + ")";
+    }
+  }
+
+  private static class PlainKey {
+    final int id;
+    final int hash;
+
+    PlainKey(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof PlainKey && ((PlainKey) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
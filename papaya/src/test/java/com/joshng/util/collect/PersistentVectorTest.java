@@ -0,0 +1,212 @@
+package com.joshng.util.collect;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PersistentVectorTest {
+  // sizes around the tail/trie boundaries: the first push into the trie, and the root gaining its second and third
+  // levels (32 + 32^2 and 32 + 32^3 elements)
+  private static final List<Integer> BOUNDARY_SIZES = ImmutableList.of(
+          0, 1, 31, 32, 33, 63, 64, 65, 1023, 1024, 1025, 1055, 1056, 1057, 1088, 1089, 32799, 32800, 32801, 32832, 32833);
+
+  @Test
+  public void testAppendAndWithoutLastAcrossLevels() {
+    List<PersistentVector<Integer>> snapshots = new ArrayList<>();
+    PersistentVector<Integer> vector = PersistentVector.empty();
+    int maxSize = BOUNDARY_SIZES.get(BOUNDARY_SIZES.size() - 1);
+    for (int i = 0; i <= maxSize; i++) {
+      if (BOUNDARY_SIZES.contains(i)) {
+        assertContents(i, vector);
+        snapshots.add(vector);
+      }
+      if (i < maxSize) vector = vector.append(i);
+    }
+
+    // shrinking back down crosses the same boundaries, popping leaves from the trie and removing levels
+    for (int i = maxSize; i >= 0; i--) {
+      if (BOUNDARY_SIZES.contains(i)) {
+        assertContents(i, vector);
+        // the shrunken vector must behave like the one that grew to the same size
+        assertContents(i + 1, vector.append(i));
+      }
+      if (i > 0) vector = vector.withoutLast();
+    }
+    assertSame(PersistentVector.empty(), vector);
+
+    // none of the earlier versions was disturbed
+    for (int i = 0; i < snapshots.size(); i++) {
+      assertContents(BOUNDARY_SIZES.get(i), snapshots.get(i));
+    }
+  }
+
+  @Test
+  public void testRandomizedOperationsMatchArrayList() {
+    Random random = new Random(2024);
+    PersistentVector<Integer> vector = PersistentVector.empty();
+    List<Integer> expected = new ArrayList<>();
+    List<PersistentVector<Integer>> snapshots = new ArrayList<>();
+    List<List<Integer>> expectedSnapshots = new ArrayList<>();
+    int operations = 200_000;
+    int maxSize = 0;
+    for (int i = 0; i < operations; i++) {
+      // grow for the first half (to about 35k elements, giving the trie three levels), then shrink back towards empty
+      int appendPercent = i < operations / 2 ? 55 : 20;
+      int roll = random.nextInt(100);
+      if (roll < appendPercent || expected.isEmpty()) {
+        vector = vector.append(i);
+        expected.add(i);
+      } else if (roll < appendPercent + 25) {
+        int index = random.nextInt(expected.size());
+        vector = vector.with(index, -i);
+        expected.set(index, -i);
+        assertEquals(Integer.valueOf(-i), vector.get(index));
+      } else {
+        vector = vector.withoutLast();
+        expected.remove(expected.size() - 1);
+      }
+      assertEquals(expected.size(), vector.size());
+      maxSize = Math.max(maxSize, expected.size());
+      if (!expected.isEmpty()) {
+        int index = random.nextInt(expected.size());
+        assertEquals(expected.get(index), vector.get(index));
+        assertEquals(expected.get(expected.size() - 1), vector.get(vector.size() - 1));
+      }
+      if (i % 10_000 == 0) {
+        assertEquals(expected, vector);
+        snapshots.add(vector);
+        expectedSnapshots.add(new ArrayList<>(expected));
+      }
+    }
+    assertEquals(expected, vector);
+    assertTrue("the run should have shrunk back down", maxSize > 32800 && expected.size() < 1056);
+
+    // then shrink all the way to empty
+    while (!vector.isEmpty()) {
+      vector = vector.withoutLast();
+      expected.remove(expected.size() - 1);
+      if (expected.size() % 997 == 0) assertEquals(expected, vector);
+    }
+    assertSame(PersistentVector.empty(), vector);
+
+    for (int i = 0; i < snapshots.size(); i++) {
+      assertEquals(expectedSnapshots.get(i), snapshots.get(i));
+    }
+  }
+
+  @Test
+  public void testWithAtTheBoundaries() {
+    PersistentVector<Integer> vector = PersistentVector.copyOf(range(1100));
+    for (int index : new int[]{0, 31, 32, 1023, 1024, 1055, 1056, 1099}) {
+      PersistentVector<Integer> updated = vector.with(index, -1);
+      List<Integer> expected = new ArrayList<>(range(1100));
+      expected.set(index, -1);
+      assertEquals(expected, updated);
+    }
+    assertEquals(range(1100), vector);
+
+    try {
+      vector.with(1100, 0);
+      fail("expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException expected) {
+    }
+    try {
+      PersistentVector.empty().withoutLast();
+      fail("expected NoSuchElementException");
+    } catch (NoSuchElementException expected) {
+    }
+  }
+
+  @Test
+  public void testSlice() {
+    PersistentVector<Integer> vector = PersistentVector.copyOf(range(2000));
+    int[] bounds = {0, 1, 31, 32, 33, 1000, 1055, 1056, 1057, 1999, 2000};
+    for (int from : bounds) {
+      for (int to : bounds) {
+        if (from > to) continue;
+        PersistentVector<Integer> slice = vector.slice(from, to);
+        assertEquals(range(2000).subList(from, to), slice);
+        // a slice is a vector in its own right
+        assertEquals(to - from + 1, slice.append(-1).size());
+      }
+    }
+    assertSame(vector, vector.slice(0, 2000));
+    try {
+      vector.slice(5, 2001);
+      fail("expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  @Test
+  public void testBuilderIsUnaffectedByEarlierBuilds() {
+    PersistentVector.Builder<Integer> builder = PersistentVector.builder();
+    List<PersistentVector<Integer>> built = new ArrayList<>();
+    for (int i = 0; i < 1100; i++) {
+      builder.add(i);
+      if (BOUNDARY_SIZES.contains(builder.size())) built.add(builder.build());
+    }
+    // keep editing (in both the trie and the tail) after each build
+    for (int i = 0; i < 1100; i += 7) {
+      builder.set(i, -i);
+    }
+    builder.addAll(range(100));
+    PersistentVector<Integer> last = builder.build();
+
+    for (PersistentVector<Integer> vector : built) {
+      assertContents(vector.size(), vector);
+    }
+    assertEquals(1200, last.size());
+    assertEquals(Integer.valueOf(-7), last.get(7));
+    assertEquals(Integer.valueOf(8), last.get(8));
+    assertEquals(Integer.valueOf(99), last.get(1199));
+
+    // a Builder derived from a vector doesn't affect it
+    PersistentVector<Integer> source = PersistentVector.copyOf(range(1056));
+    PersistentVector.Builder<Integer> derived = source.toBuilder();
+    derived.set(0, -1).set(1055, -1).add(-2);
+    assertEquals(Integer.valueOf(-1), derived.get(0));
+    assertEquals(range(1056), source);
+    assertEquals(1057, derived.build().size());
+    assertSame(PersistentVector.empty(), PersistentVector.builder().build());
+  }
+
+  @Test
+  public void testCollector() {
+    List<Integer> expected = range(100_000);
+    assertEquals(expected, expected.stream().collect(PersistentVector.collector()));
+    assertEquals(expected, IntStream.range(0, 100_000).boxed().parallel().collect(PersistentVector.collector()));
+    assertEquals(expected.stream().map(i -> i * 2).collect(Collectors.toList()),
+            IntStream.range(0, 100_000).parallel().mapToObj(i -> i * 2).collect(PersistentVector.collector()));
+    assertTrue(IntStream.range(0, 0).boxed().parallel().collect(PersistentVector.collector()).isEmpty());
+  }
+
+  private static void assertContents(int size, PersistentVector<Integer> vector) {
+    assertEquals(size, vector.size());
+    int i = 0;
+    for (Integer value : vector) {
+      assertEquals(Integer.valueOf(i++), value);
+    }
+    assertEquals(size, i);
+    for (int index = 0; index < size; index++) {
+      assertEquals(Integer.valueOf(index), vector.get(index));
+    }
+  }
+
+  private static List<Integer> range(int size) {
+    List<Integer> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) list.add(i);
+    return list;
+  }
+}
@@ -0,0 +1,88 @@
+package com.joshng.util.concurrent;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchSizingPolicyTest {
+  private final AdaptiveBatchSizingPolicy policy = AdaptiveBatchSizingPolicy.newAdaptivePolicy(4, 64, 1, 10, TimeUnit.MILLISECONDS);
+
+  @Test
+  public void testStartsAtMinimums() {
+    assertEquals(64, policy.maxBatchSize());
+    assertEquals(4, policy.currentBatchSize());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), policy.currentLingerNanos());
+  }
+
+  @Test
+  public void testFullBatchesGrowUpToTheMaximums() {
+    int previous = policy.currentBatchSize();
+    for (int i = 0; i < 100; i++) {
+      policy.onBatchDispatched(policy.currentBatchSize(), 1);
+      assertTrue(policy.currentBatchSize() >= previous);
+      assertTrue(policy.currentBatchSize() <= 64);
+      assertTrue(policy.currentLingerNanos() <= TimeUnit.MILLISECONDS.toNanos(10));
+      previous = policy.currentBatchSize();
+    }
+    assertEquals(64, policy.currentBatchSize());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), policy.currentLingerNanos());
+  }
+
+  @Test
+  public void testSparseBatchesShrinkBackToTheMinimums() {
+    for (int i = 0; i < 100; i++) policy.onBatchDispatched(policy.currentBatchSize(), 1);
+    assertEquals(64, policy.currentBatchSize());
+
+    for (int i = 0; i < 100; i++) {
+      policy.onBatchDispatched(1, 1);
+      assertTrue(policy.currentBatchSize() >= 4);
+      assertTrue(policy.currentLingerNanos() >= TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    assertEquals(4, policy.currentBatchSize());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), policy.currentLingerNanos());
+  }
+
+  @Test
+  public void testRisingLatencyIsDetected() {
+    for (int i = 0; i < 50; i++) policy.onBatchCompleted(4, 1_000);
+    assertFalse(policy.isDownstreamSlow());
+    for (int i = 0; i < 5; i++) policy.onBatchCompleted(4, 10_000);
+    assertTrue(policy.isDownstreamSlow());
+
+    // a slow downstream grows the batches, even when they aren't full
+    int size = policy.currentBatchSize();
+    policy.onBatchDispatched(size - 1, 1);
+    assertTrue(policy.currentBatchSize() > size);
+    assertEquals(55, policy.getBatchLatencyNanosHistogram().getCount());
+  }
+
+  @Test
+  public void testRegisterMetrics() {
+    MetricRegistry registry = new MetricRegistry();
+    policy.registerMetrics(registry, "batcher");
+    policy.onBatchDispatched(4, 1);
+    assertEquals(1, registry.histogram("batcher.batchSize").getCount());
+    assertTrue(registry.getGauges().containsKey("batcher.currentBatchSize"));
+    assertTrue(registry.getGauges().containsKey("batcher.arrivalsPerSecond"));
+  }
+
+  @Test
+  public void testFixedPolicy() {
+    BatchSizingPolicy fixed = BatchSizingPolicy.fixed(10, 5, TimeUnit.MILLISECONDS);
+    fixed.onBatchDispatched(1, 1);
+    fixed.onBatchCompleted(1, 1);
+    assertEquals(10, fixed.maxBatchSize());
+    assertEquals(10, fixed.currentBatchSize());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), fixed.currentLingerNanos());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsInvertedBounds() {
+    AdaptiveBatchSizingPolicy.newAdaptivePolicy(8, 4, 0, 1, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,146 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveThreadPoolExecutorTest {
+  private final List<Runnable> handled = new CopyOnWriteArrayList<>();
+  private final RejectedExecutionHandler recordingHandler = (task, executor) -> handled.add(task);
+  private final CountDownLatch unblock = new CountDownLatch(1);
+  private AdaptiveThreadPoolExecutor executor;
+
+  @After
+  public void shutdown() {
+    unblock.countDown();
+    if (executor != null) executor.shutdownNow();
+  }
+
+  @Test
+  public void testRemoveAndPurgeFindTheSubmittedTasks() throws Exception {
+    executor = newExecutor(1, 1, 1, TimeUnit.SECONDS, 10);
+    blockWorker();
+    AtomicInteger ran = new AtomicInteger();
+    Runnable removed = ran::incrementAndGet;
+    FutureTask<Void> cancelled = new FutureTask<>(ran::incrementAndGet, null);
+    Runnable kept = ran::incrementAndGet;
+    executor.execute(removed);
+    executor.execute(cancelled);
+    executor.execute(kept);
+
+    assertTrue(executor.remove(removed));
+    assertFalse(executor.remove(removed));
+    cancelled.cancel(false);
+    executor.purge();
+    assertEquals(1, executor.getQueue().size());
+    assertEquals(kept.toString(), executor.getQueue().peek().toString());
+
+    unblock.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, ran.get());
+  }
+
+  @Test
+  public void testShutdownNowReturnsTheSubmittedTasks() throws Exception {
+    executor = newExecutor(1, 1, 1, TimeUnit.SECONDS, 10);
+    blockWorker();
+    Runnable first = () -> { };
+    Runnable second = () -> { };
+    executor.execute(first);
+    executor.execute(second);
+    List<Runnable> neverRan = executor.shutdownNow();
+    assertEquals(2, neverRan.size());
+    assertSame(first, neverRan.get(0));
+    assertSame(second, neverRan.get(1));
+  }
+
+  @Test
+  public void testRejectedTasksReachTheHandlerUnwrapped() throws Exception {
+    executor = newExecutor(1, 1, 1, TimeUnit.SECONDS, 1);
+    blockWorker();
+    executor.execute(() -> { });
+    Runnable rejected = () -> { };
+    executor.execute(rejected);
+
+    assertEquals(ImmutableList.of(rejected), handled);
+    assertEquals(1, executor.getRejectedTaskCount());
+  }
+
+  @Test
+  public void testStandingQueueGrowsThePool() throws Exception {
+    executor = newExecutor(1, 2, 5, TimeUnit.MILLISECONDS, 1000);
+    for (int i = 0; i < 40; i++) {
+      executor.execute(() -> sleep(10));
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    assertEquals(2, executor.getLargestPoolSize());
+  }
+
+  @Test
+  public void testShedTasksArePassedToTheHandler() throws Exception {
+    executor = newExecutor(1, 1, 5, TimeUnit.MILLISECONDS, 1000);
+    int taskCount = 60;
+    AtomicInteger ran = new AtomicInteger();
+    List<Runnable> submitted = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < taskCount; i++) {
+      Runnable task = () -> {
+        sleep(5);
+        ran.incrementAndGet();
+      };
+      submitted.add(task);
+      executor.execute(task);
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    long shed = executor.getShedTaskCount();
+    assertTrue("expected some tasks to be shed", shed > 0);
+    assertEquals(shed, handled.size());
+    assertEquals(taskCount, ran.get() + shed);
+    for (Runnable task : handled) assertTrue("the handler must see the submitted task", submitted.contains(task));
+    assertEquals(0, executor.getRejectedTaskCount());
+  }
+
+  private AdaptiveThreadPoolExecutor newExecutor(int minPoolSize, int maxPoolSize, long target, TimeUnit unit, int queueCapacity) {
+    // CoDel's recommended interval: about 20 times the target
+    return new AdaptiveThreadPoolExecutor(minPoolSize, maxPoolSize, target, target * 20, unit, queueCapacity,
+            Executors.defaultThreadFactory(), recordingHandler);
+  }
+
+  private void blockWorker() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      try {
+        unblock.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    started.await();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
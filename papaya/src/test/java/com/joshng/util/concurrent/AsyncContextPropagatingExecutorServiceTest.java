@@ -0,0 +1,110 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncContextPropagatingExecutorServiceTest {
+  private static final AsyncContext<String> USER = AsyncContext.newAsyncContext();
+
+  private final FunctionalExecutorService executor = FunctionalExecutorService.asyncContextPropagatingDecorator(
+          Executors.newSingleThreadExecutor());
+
+  @After
+  public void shutdown() {
+    USER.remove();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testWrappedRunnableRestoresTheRunningThreadsContext() {
+    USER.set("submitter");
+    Runnable wrapped = AsyncContext.wrapRunnable(() -> {
+      assertEquals("submitter", USER.get());
+      USER.set("changed by task");
+    });
+
+    USER.set("runner");
+    wrapped.run();
+    assertEquals("runner", USER.get());
+
+    USER.remove();
+    wrapped.run();
+    assertNull(USER.get());
+  }
+
+  @Test
+  public void testSubmissionsSeeTheSubmittersContext() throws Exception {
+    USER.set("alice");
+    assertEquals("alice", executor.submit(USER::get).get(5, TimeUnit.SECONDS));
+
+    AtomicReference<String> seen = new AtomicReference<>();
+    CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(() -> {
+      seen.set(USER.get());
+      ran.countDown();
+    });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals("alice", seen.get());
+
+    List<Future<String>> all = executor.invokeAll(ImmutableList.of(USER::get, USER::get));
+    for (Future<String> future : all) assertEquals("alice", future.get());
+    assertEquals("alice", executor.invokeAny(ImmutableList.of(USER::get)));
+
+    // the worker thread doesn't retain the submitter's values
+    USER.remove();
+    assertNull(executor.submit(USER::get).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testPropagatingViewIsIdempotent() {
+    assertSame(executor, executor.propagatingAsyncContext());
+  }
+
+  @Test
+  public void testPropagatingExecutor() throws Exception {
+    AtomicReference<String> seen = new AtomicReference<>();
+    CountDownLatch ran = new CountDownLatch(1);
+    USER.set("bob");
+    AsyncContext.propagatingExecutor(command -> new Thread(command).start()).execute(() -> {
+      seen.set(USER.get());
+      ran.countDown();
+    });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals("bob", seen.get());
+  }
+
+  @Test
+  public void testFutureListenersSeeTheContextOfTheirRegistration() throws Exception {
+    Promise<String> promise = Promise.newPromise();
+    USER.set("registrar");
+    FunFuture<String> mapped = promise.map(value -> value + " " + USER.get());
+    USER.set("completer");
+    promise.setSuccess("hello");
+    assertEquals("hello registrar", mapped.get());
+    assertEquals("completer", USER.get());
+  }
+
+  @Test
+  public void testThreadPerTaskExecutorCarriesContext() throws Exception {
+    ThreadPerTaskExecutor threadPerTask = new ThreadPerTaskExecutor(Thread::new, 1);
+    try {
+      USER.set("carol");
+      assertEquals("carol", threadPerTask.submit(USER::get).get(5, TimeUnit.SECONDS));
+    } finally {
+      threadPerTask.shutdown();
+    }
+  }
+}
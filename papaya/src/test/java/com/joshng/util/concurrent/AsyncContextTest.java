@@ -0,0 +1,111 @@
+package com.joshng.util.concurrent;
+
+import com.joshng.util.context.TransientContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncContextTest {
+  private final AsyncContext<String> user = AsyncContext.newAsyncContext();
+  private final AsyncContext<String> request = new AsyncContext<>("none");
+
+  @After
+  public void clear() {
+    user.remove();
+    request.remove();
+  }
+
+  @Test
+  public void testValues() {
+    assertNull(user.get());
+    assertEquals("none", request.get());
+
+    user.set("alice");
+    request.set("r1");
+    assertEquals("alice", user.get());
+    assertEquals("r1", request.get());
+
+    assertEquals("alice", user.getAndSet("bob"));
+    assertFalse(user.compareAndSet("alice", "carol"));
+    assertTrue(user.compareAndSet("bob", "carol"));
+    assertEquals("carol", user.get());
+
+    user.set(null);
+    assertNull(user.get());
+    request.remove();
+    assertEquals("none", request.get());
+  }
+
+  @Test
+  public void testSnapshotsAreIsolatedFromLaterUpdates() {
+    user.set("alice");
+    TransientContext snapshot = AsyncContext.snapshot();
+    user.set("bob");
+    request.set("r2");
+
+    snapshot.runInContext(() -> {
+      assertEquals("alice", user.get());
+      assertEquals("none", request.get());
+      // updates made within the snapshot don't leak out of it
+      user.set("carol");
+    });
+    assertEquals("bob", user.get());
+    assertEquals("r2", request.get());
+  }
+
+  @Test
+  public void testValuesAreThreadLocal() throws Exception {
+    user.set("alice");
+    ExecutorService other = Executors.newSingleThreadExecutor();
+    try {
+      assertNull(other.submit(user::get).get(5, TimeUnit.SECONDS));
+      assertEquals("alice", other.submit(AsyncContext.wrapCallable(user::get)).get(5, TimeUnit.SECONDS));
+      // the worker thread is left as it was
+      assertNull(other.submit(user::get).get(5, TimeUnit.SECONDS));
+    } finally {
+      other.shutdown();
+    }
+  }
+
+  @Test
+  public void testWrappingIsFreeWhenNoValuesAreSet() {
+    Runnable runnable = () -> { };
+    Callable<String> callable = () -> "x";
+    assertSame(runnable, AsyncContext.wrapRunnable(runnable));
+    assertSame(callable, AsyncContext.wrapCallable(callable));
+    assertSame(TransientContext.NULL, AsyncContext.snapshot());
+
+    user.set("alice");
+    user.remove();
+    assertSame(runnable, AsyncContext.wrapRunnable(runnable));
+  }
+
+  @Test
+  public void testManyContexts() {
+    List<AsyncContext<Integer>> contexts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      AsyncContext<Integer> context = AsyncContext.newAsyncContext();
+      context.set(i);
+      contexts.add(context);
+    }
+    TransientContext snapshot = AsyncContext.snapshot();
+    for (AsyncContext<Integer> context : contexts) context.remove();
+
+    snapshot.runInContext(() -> {
+      for (int i = 0; i < contexts.size(); i++) assertEquals(Integer.valueOf(i), contexts.get(i).get());
+    });
+    for (AsyncContext<Integer> context : contexts) assertNull(context.get());
+  }
+}
@@ -0,0 +1,73 @@
+package com.joshng.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncExpiringReferenceTest {
+  private final List<Promise<String>> loads = new ArrayList<>();
+
+  @Test
+  public void testReloadsOnceExpired() throws Exception {
+    AsyncExpiringReference<String> reference = AsyncExpiringReference.fromAsyncSupplier(50, TimeUnit.MILLISECONDS, this::load);
+    reference.get();
+    loads.get(0).setSuccess("first");
+    assertEquals("first", reference.get().get());
+    assertEquals(1, loads.size());
+
+    Thread.sleep(60);
+    FunFuture<String> reloading = reference.get();
+    FunFuture<String> sharing = reference.get();
+    assertFalse("without maxStaleness, callers wait for the reload", reloading.isDone());
+    assertEquals(2, loads.size());
+
+    loads.get(1).setSuccess("second");
+    assertEquals("second", reloading.get());
+    assertEquals("second", sharing.get());
+    assertEquals("second", reference.get().get());
+    assertEquals(2, loads.size());
+  }
+
+  @Test
+  public void testServesStaleValueWhileReloading() throws Exception {
+    AsyncExpiringReference<String> reference = AsyncExpiringReference.fromAsyncSupplier(50, 10_000, TimeUnit.MILLISECONDS, this::load);
+    reference.get();
+    loads.get(0).setSuccess("first");
+
+    Thread.sleep(60);
+    FunFuture<String> stale = reference.get();
+    assertTrue(stale.isDone());
+    assertEquals("first", stale.get());
+    assertEquals("first", reference.get().get());
+    assertEquals("only one reload may be in flight", 2, loads.size());
+
+    loads.get(1).setSuccess("second");
+    assertEquals("second", reference.get().get());
+  }
+
+  @Test
+  public void testFailedReloadKeepsServingStaleValue() throws Exception {
+    AsyncExpiringReference<String> reference = AsyncExpiringReference.fromAsyncSupplier(50, 10_000, TimeUnit.MILLISECONDS, this::load);
+    reference.get();
+    loads.get(0).setSuccess("first");
+
+    Thread.sleep(60);
+    assertEquals("first", reference.get().get());
+    loads.get(1).setFailure(new IllegalStateException("boom"));
+
+    assertEquals("first", reference.get().get());
+    assertEquals("the next caller starts another reload", 3, loads.size());
+  }
+
+  private Promise<String> load() {
+    Promise<String> load = Promise.newPromise();
+    loads.add(load);
+    return load;
+  }
+}
@@ -0,0 +1,122 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncLazyReferenceTest {
+  private final List<Promise<String>> loads = new ArrayList<>();
+  private final AsyncLazyReference<String> reference = AsyncLazyReference.from(() -> {
+    Promise<String> load = Promise.newPromise();
+    loads.add(load);
+    return load;
+  });
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+  @After
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentCallersShareOneLoad() throws Exception {
+    FunFuture<String> first = reference.get();
+    FunFuture<String> second = reference.get();
+    assertEquals(1, loads.size());
+    assertFalse(reference.isSet());
+
+    loads.get(0).setSuccess("value");
+    assertEquals("value", first.get());
+    assertEquals("value", second.get());
+    assertTrue(reference.isSet());
+    assertEquals("value", reference.get().get());
+    assertEquals(1, loads.size());
+  }
+
+  @Test
+  public void testFailedLoadIsRetriedByTheNextCaller() throws Exception {
+    FunFuture<String> first = reference.get();
+    FunFuture<String> second = reference.get();
+    loads.get(0).setFailure(new IllegalStateException("boom"));
+    for (FunFuture<String> future : ImmutableList.of(first, second)) {
+      try {
+        future.get();
+        fail("expected failure");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    assertFalse(reference.isSet());
+
+    FunFuture<String> retry = reference.get();
+    assertEquals(2, loads.size());
+    loads.get(1).setSuccess("value");
+    assertEquals("value", retry.get());
+  }
+
+  @Test
+  public void testCancellingOneCallerDoesNotCancelTheSharedLoad() throws Exception {
+    FunFuture<String> cancelled = reference.get();
+    FunFuture<String> other = reference.get();
+    assertTrue(cancelled.cancel(true));
+    assertFalse(loads.get(0).isCancelled());
+
+    loads.get(0).setSuccess("value");
+    assertEquals("value", other.get());
+  }
+
+  @Test
+  public void testRemoveForcesReload() throws Exception {
+    reference.get();
+    loads.get(0).setSuccess("first");
+    reference.remove();
+    assertFalse(reference.isSet());
+
+    FunFuture<String> reloaded = reference.get();
+    assertEquals(2, loads.size());
+    loads.get(1).setSuccess("second");
+    assertEquals("second", reloaded.get());
+  }
+
+  @Test
+  public void testRacingThreadsLoadOnce() throws Exception {
+    AtomicInteger loadCount = new AtomicInteger();
+    Promise<Integer> load = Promise.newPromise();
+    AsyncLazyReference<Integer> racing = AsyncLazyReference.from(() -> {
+      loadCount.incrementAndGet();
+      return load;
+    });
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<FunFuture<Integer>>> callers = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      callers.add(pool.submit(() -> {
+        start.await();
+        return racing.get();
+      }));
+    }
+    start.countDown();
+    List<FunFuture<Integer>> results = new ArrayList<>();
+    for (Future<FunFuture<Integer>> caller : callers) results.add(caller.get(10, TimeUnit.SECONDS));
+    assertEquals(1, loadCount.get());
+
+    load.setSuccess(42);
+    for (FunFuture<Integer> result : results) assertEquals(Integer.valueOf(42), result.get());
+    assertSame(racing.get().get(), results.get(0).get());
+  }
+}
@@ -0,0 +1,169 @@
+package com.joshng.util.concurrent;
+
+import com.joshng.util.collect.Nothing;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncSemaphoreTest {
+  private final AsyncSemaphore semaphore = new AsyncSemaphore(10);
+
+  @Test
+  public void testImmediateAcquisition() {
+    assertTrue(semaphore.acquire(4).isDone());
+    assertTrue(semaphore.tryAcquire(6));
+    assertFalse(semaphore.tryAcquire(1));
+    assertEquals(0, semaphore.availablePermits());
+    semaphore.release(10);
+    assertEquals(10, semaphore.availablePermits());
+  }
+
+  @Test
+  public void testWaitersAreGrantedInArrivalOrder() {
+    semaphore.acquire(10);
+    FunFuture<Nothing> heavy = semaphore.acquire(8);
+    FunFuture<Nothing> light = semaphore.acquire(1);
+    assertEquals(2, semaphore.getQueueLength());
+
+    // enough for the light waiter, but it must not overtake the heavy one
+    semaphore.release(5);
+    assertFalse(heavy.isDone());
+    assertFalse(light.isDone());
+    assertFalse("tryAcquire must not barge past waiters", semaphore.tryAcquire(1));
+
+    semaphore.release(4);
+    assertTrue(heavy.isDone());
+    assertTrue(light.isDone());
+    assertEquals(0, semaphore.getQueueLength());
+    assertEquals(0, semaphore.availablePermits());
+  }
+
+  @Test
+  public void testCancellingAWaiterLetsTheNextProceed() {
+    semaphore.acquire(8);
+    FunFuture<Nothing> heavy = semaphore.acquire(5);
+    FunFuture<Nothing> light = semaphore.acquire(2);
+    assertFalse(light.isDone());
+
+    assertTrue(heavy.cancel(false));
+    assertTrue(light.isDone());
+    assertEquals(0, semaphore.availablePermits());
+    assertEquals(0, semaphore.getQueueLength());
+
+    // the cancelled waiter never took its permits
+    semaphore.release(10);
+    assertEquals(10, semaphore.availablePermits());
+  }
+
+  @Test
+  public void testReleasingUnacquiredPermitsIsRejected() {
+    semaphore.acquire(3);
+    semaphore.release(3);
+    try {
+      semaphore.release(1);
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(10, semaphore.availablePermits());
+  }
+
+  @Test
+  public void testReducePermits() {
+    semaphore.reducePermits(12);
+    assertEquals(-2, semaphore.availablePermits());
+    FunFuture<Nothing> waiter = semaphore.acquire(1);
+    semaphore.release(2);
+    assertFalse(waiter.isDone());
+    semaphore.release(1);
+    assertTrue(waiter.isDone());
+  }
+
+  @Test
+  public void testFailWaiters() throws Exception {
+    semaphore.acquire(10);
+    FunFuture<Nothing> waiter = semaphore.acquire(1);
+    IllegalStateException shutdown = new IllegalStateException("shutdown");
+    semaphore.failWaiters(shutdown);
+    try {
+      waiter.get();
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertSame(shutdown, e.getCause());
+    }
+    assertEquals(0, semaphore.getQueueLength());
+    assertTrue(semaphore.acquire(0).isDone());
+  }
+
+  @Test
+  public void testCallWithPermits() throws Exception {
+    Promise<String> job = Promise.newPromise();
+    FunFuture<String> result = semaphore.callWithPermits(7, () -> job);
+    assertEquals(3, semaphore.availablePermits());
+
+    AtomicInteger started = new AtomicInteger();
+    FunFuture<String> waiting = semaphore.callWithPermits(7, () -> {
+      started.incrementAndGet();
+      return FunFuture.immediateFuture("second");
+    });
+    FunFuture<String> cancelled = semaphore.callWithPermits(1, () -> {
+      started.incrementAndGet();
+      return FunFuture.immediateFuture("never");
+    });
+    assertTrue(cancelled.cancel(false));
+    assertEquals(0, started.get());
+
+    job.setSuccess("first");
+    assertEquals("first", result.get());
+    assertEquals("second", waiting.get());
+    assertEquals(1, started.get());
+    assertEquals(10, semaphore.availablePermits());
+    try {
+      cancelled.get();
+      fail("expected cancellation");
+    } catch (CancellationException expected) {
+    }
+  }
+
+  @Test
+  public void testConcurrentUseNeverExceedsThePermits() throws Exception {
+    AtomicLong held = new AtomicLong();
+    AtomicLong maxHeld = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        int weight = t + 1;
+        workers.add(pool.submit(() -> {
+          for (int i = 0; i < 2_000; i++) {
+            semaphore.acquire(weight).get(10, TimeUnit.SECONDS);
+            maxHeld.accumulateAndGet(held.addAndGet(weight), Math::max);
+            held.addAndGet(-weight);
+            semaphore.release(weight);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) worker.get(30, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+    assertTrue("held " + maxHeld, maxHeld.get() <= 10);
+    assertEquals(10, semaphore.availablePermits());
+    assertEquals(0, semaphore.getQueueLength());
+  }
+}
@@ -0,0 +1,178 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedCacheTest {
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  @Test
+  public void testSizeNeverExceedsMaximum() {
+    BoundedCache<Integer, Integer> cache = BoundedCache.newBoundedCache(100);
+    for (int i = 0; i < 10_000; i++) {
+      cache.put(i, i);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(100, cache.size());
+    assertEquals(9_900, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testFrequentlyReadEntriesSurviveAScan() {
+    BoundedCache<Integer, Integer> cache = BoundedCache.newBoundedCache(100);
+    for (int hot = 0; hot < 50; hot++) cache.put(hot, hot);
+    for (int round = 0; round < 5; round++) {
+      for (int hot = 0; hot < 50; hot++) assertEquals(Integer.valueOf(hot), cache.get(hot));
+    }
+    cache.cleanUp();
+
+    // a scan of one-hit wonders (five times the cache's size, but short enough that the frequency sketch doesn't
+    // age the hot keys' counts) must not flush the entries that are actually in use
+    for (int i = 1_000; i < 1_500; i++) cache.put(i, i);
+    for (int hot = 0; hot < 50; hot++) assertEquals("hot key " + hot, Integer.valueOf(hot), cache.get(hot));
+    assertEquals(100, cache.size());
+  }
+
+  @Test
+  public void testExpireAfterWrite() {
+    BoundedCache<String, String> cache = BoundedCache.newBuilder()
+            .maximumSize(10)
+            .expireAfterWrite(100, TimeUnit.NANOSECONDS)
+            .ticker(ticker)
+            .build();
+    cache.put("a", "1");
+    nanos.set(50);
+    assertEquals("1", cache.get("a"));
+    nanos.set(100);
+    assertNull(cache.get("a"));
+    assertFalse(cache.containsKey("a"));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getExpirationCount());
+
+    cache.put("b", "2");
+    nanos.set(250);
+    assertNull("an expired entry is treated as absent", cache.putIfAbsent("b", "3"));
+    assertEquals("3", cache.get("b"));
+  }
+
+  @Test
+  public void testExpireAfterAccessIsExtendedByReads() {
+    BoundedCache<String, String> cache = BoundedCache.newBuilder()
+            .maximumSize(10)
+            .expireAfterAccess(100, TimeUnit.NANOSECONDS)
+            .ticker(ticker)
+            .build();
+    cache.put("a", "1");
+    cache.put("b", "2");
+    for (long now = 50; now <= 500; now += 50) {
+      nanos.set(now);
+      assertEquals("1", cache.get("a"));
+    }
+    cache.cleanUp();
+    assertEquals("the unread entry expired and was cleaned up", 1, cache.size());
+    assertFalse(cache.containsKey("b"));
+  }
+
+  @Test
+  public void testGetAsyncSharesOneLoadAndDoesNotCacheFailures() throws Exception {
+    BoundedCache<String, Integer> cache = BoundedCache.newBoundedCache(10);
+    AtomicInteger loads = new AtomicInteger();
+    Promise<Integer> failing = Promise.newPromise();
+    FunFuture<Integer> first = cache.getAsync("a", key -> {
+      loads.incrementAndGet();
+      return failing;
+    });
+    FunFuture<Integer> second = cache.getAsync("a", key -> {
+      loads.incrementAndGet();
+      return failing;
+    });
+    failing.setFailure(new IllegalStateException("boom"));
+    for (FunFuture<Integer> future : ImmutableList.of(first, second)) {
+      try {
+        future.get();
+        fail("expected failure");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    assertFalse(cache.containsKey("a"));
+    assertEquals(1, cache.getLoadFailureCount());
+    assertEquals("the load should have been shared", 1, loads.get());
+
+    assertEquals(Integer.valueOf(7), cache.getAsync("a", key -> FunFuture.immediateFuture(7)).get());
+    assertEquals(Integer.valueOf(7), cache.get("a"));
+    assertEquals(1, cache.getLoadSuccessCount());
+  }
+
+  @Test
+  public void testConditionalOperations() {
+    BoundedCache<String, String> cache = BoundedCache.newBoundedCache(10);
+    assertNull(cache.putIfAbsent("a", "1"));
+    assertEquals("1", cache.putIfAbsent("a", "2"));
+    assertFalse(cache.replace("a", "2", "3"));
+    assertTrue(cache.replace("a", "1", "3"));
+    assertEquals("3", cache.replace("a", "4"));
+    assertNull(cache.replace("missing", "x"));
+    assertFalse(cache.remove("a", "3"));
+    assertTrue(cache.remove("a", "4"));
+    assertEquals("5", cache.computeIfAbsent("a", key -> "5"));
+    assertEquals("5", cache.computeIfAbsent("a", key -> "6"));
+    assertNull(cache.computeIfAbsent("b", key -> null));
+    assertEquals(1, cache.size());
+    cache.clear();
+    assertTrue(cache.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentUseStaysBounded() throws Exception {
+    BoundedCache<Integer, Integer> cache = BoundedCache.newBoundedCache(64);
+    int threadCount = 4;
+    CountDownLatch done = new CountDownLatch(threadCount);
+    AtomicInteger wrongValues = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      long seed = t;
+      threads.add(new Thread(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 50_000; i++) {
+          int key = random.nextInt(random.nextBoolean() ? 32 : 1_000);
+          if (random.nextInt(4) == 0) {
+            cache.put(key, key);
+          } else {
+            Integer value = cache.get(key);
+            if (value != null && value != key) wrongValues.incrementAndGet();
+          }
+        }
+        done.countDown();
+      }));
+    }
+    for (Thread thread : threads) thread.start();
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    cache.cleanUp();
+    assertEquals(0, wrongValues.get());
+    assertTrue("size was " + cache.size(), cache.size() <= 64);
+    assertEquals(cache.size(), cache.entrySet().size());
+  }
+}
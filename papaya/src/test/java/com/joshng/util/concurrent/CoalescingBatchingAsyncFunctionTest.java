@@ -0,0 +1,138 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingBatchingAsyncFunctionTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testIdenticalWaitingKeysShareOneSlot() throws Exception {
+    CoalescingBatchingAsyncFunction<String, String> batcher = newBatcher(false);
+
+    // occupy the only in-flight slot, so that subsequent requests wait together
+    FunFuture<String> blocker = batcher.applyAsync("x");
+    Batch first = nextBatch();
+    assertEquals(ImmutableList.of("x"), first.keys);
+
+    FunFuture<String> a1 = batcher.applyAsync("a");
+    FunFuture<String> b = batcher.applyAsync("b");
+    FunFuture<String> a2 = batcher.applyAsync("a");
+    assertEquals(1, batcher.getCoalescedRequestCount());
+
+    first.completeAll();
+    assertEquals("X", blocker.get(5, TimeUnit.SECONDS));
+    Batch second = nextBatch();
+    assertEquals(ImmutableList.of("a", "b"), second.keys);
+    second.completeAll();
+
+    assertEquals("A", a1.get(5, TimeUnit.SECONDS));
+    assertEquals("A", a2.get(5, TimeUnit.SECONDS));
+    assertEquals("B", b.get(5, TimeUnit.SECONDS));
+    assertNoMoreBatches();
+    assertEquals(0, batcher.getPendingKeyCount());
+  }
+
+  @Test
+  public void testJoiningInFlightBatches() throws Exception {
+    CoalescingBatchingAsyncFunction<String, String> batcher = newBatcher(true);
+    FunFuture<String> first = batcher.applyAsync("a");
+    Batch batch = nextBatch();
+
+    FunFuture<String> joined = batcher.applyAsync("a");
+    assertEquals(1, batcher.getCoalescedRequestCount());
+    batch.completeAll();
+    assertEquals("A", first.get(5, TimeUnit.SECONDS));
+    assertEquals("A", joined.get(5, TimeUnit.SECONDS));
+    assertNoMoreBatches();
+
+    // once complete, the key is requested afresh
+    FunFuture<String> later = batcher.applyAsync("a");
+    nextBatch().completeAll();
+    assertEquals("A", later.get(5, TimeUnit.SECONDS));
+    assertEquals(1, batcher.getCoalescedRequestCount());
+  }
+
+  @Test
+  public void testNotJoiningInFlightBatches() throws Exception {
+    CoalescingBatchingAsyncFunction<String, String> batcher = newBatcher(false);
+    FunFuture<String> first = batcher.applyAsync("a");
+    Batch batch = nextBatch();
+
+    FunFuture<String> second = batcher.applyAsync("a");
+    assertEquals(0, batcher.getCoalescedRequestCount());
+    batch.completeAll();
+    assertEquals("A", first.get(5, TimeUnit.SECONDS));
+
+    nextBatch().completeAll();
+    assertEquals("A", second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCancellingOneCallerDoesNotAffectTheOthers() throws Exception {
+    CoalescingBatchingAsyncFunction<String, String> batcher = newBatcher(true);
+    FunFuture<String> first = batcher.applyAsync("a");
+    Batch batch = nextBatch();
+    FunFuture<String> second = batcher.applyAsync("a");
+
+    assertTrue(second.cancel(false));
+    assertFalse(batch.results.get(0).isDone());
+    batch.completeAll();
+    assertEquals("A", first.get(5, TimeUnit.SECONDS));
+  }
+
+  private CoalescingBatchingAsyncFunction<String, String> newBatcher(boolean joinInFlightBatches) {
+    return CoalescingBatchingAsyncFunction.newCoalescingAsyncBatcher(
+            16, 0, TimeUnit.MILLISECONDS, 1, joinInFlightBatches, executor,
+            (ImmutableList<String> keys) -> {
+              Batch batch = new Batch(keys);
+              batches.add(batch);
+              return batch.results;
+            });
+  }
+
+  private Batch nextBatch() throws InterruptedException {
+    Batch batch = batches.poll(5, TimeUnit.SECONDS);
+    assertNotNull("no batch was dispatched", batch);
+    return batch;
+  }
+
+  private void assertNoMoreBatches() throws InterruptedException {
+    assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  private static class Batch {
+    final ImmutableList<String> keys;
+    final List<Promise<String>> results = new ArrayList<>();
+
+    Batch(ImmutableList<String> keys) {
+      this.keys = keys;
+      for (String key : keys) results.add(Promise.newPromise());
+    }
+
+    void completeAll() {
+      for (int i = 0; i < keys.size(); i++) results.get(i).setSuccess(keys.get(i).toUpperCase());
+    }
+  }
+}
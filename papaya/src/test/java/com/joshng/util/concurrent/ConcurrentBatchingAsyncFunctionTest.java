@@ -0,0 +1,166 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentBatchingAsyncFunctionTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ScheduledExecutorService completer = Executors.newScheduledThreadPool(2);
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+    completer.shutdownNow();
+  }
+
+  @Test
+  public void testBatchesRespectSizeAndInFlightLimits() throws Exception {
+    int maxBatchSize = 8;
+    int maxBatchesInFlight = 3;
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger maxObservedBatch = new AtomicInteger();
+
+    ConcurrentBatchingAsyncFunction<Integer, Integer> batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(
+            maxBatchSize, 1, TimeUnit.MILLISECONDS, maxBatchesInFlight, executor,
+            (ImmutableList<Integer> batch) -> {
+              maxObservedBatch.accumulateAndGet(batch.size(), Math::max);
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              List<Promise<Integer>> results = new ArrayList<>();
+              for (Integer input : batch) results.add(Promise.newPromise());
+              completer.schedule(() -> {
+                // leave the batch before completing it, so we never under-count the batcher's own bookkeeping
+                running.decrementAndGet();
+                for (int i = 0; i < batch.size(); i++) results.get(i).setSuccess(batch.get(i) * 2);
+              }, 2, TimeUnit.MILLISECONDS);
+              return results;
+            });
+
+    List<FunFuture<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < 500; i++) futures.add(batcher.applyAsync(i));
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(Integer.valueOf(i * 2), futures.get(i).get(10, TimeUnit.SECONDS));
+    }
+
+    assertTrue("batch of " + maxObservedBatch, maxObservedBatch.get() <= maxBatchSize);
+    assertTrue(maxRunning.get() + " concurrent batches", maxRunning.get() <= maxBatchesInFlight);
+    awaitNoBatchesInFlight(batcher);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    ConcurrentBatchingAsyncFunction<Integer, Integer> batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(
+            16, 0, TimeUnit.MILLISECONDS, 2, executor,
+            (ImmutableList<Integer> batch) -> Lists.transform(batch, i -> FunFuture.immediateFuture(-i)));
+
+    ExecutorService producers = Executors.newFixedThreadPool(4);
+    try {
+      List<java.util.concurrent.Future<List<FunFuture<Integer>>>> submitted = new ArrayList<>();
+      for (int p = 0; p < 4; p++) {
+        int base = p * 10_000;
+        submitted.add(producers.submit(() -> {
+          List<FunFuture<Integer>> results = new ArrayList<>();
+          for (int i = 0; i < 10_000; i++) results.add(batcher.applyAsync(base + i));
+          return results;
+        }));
+      }
+      for (int p = 0; p < 4; p++) {
+        List<FunFuture<Integer>> results = submitted.get(p).get(30, TimeUnit.SECONDS);
+        for (int i = 0; i < results.size(); i++) {
+          assertEquals(Integer.valueOf(-(p * 10_000 + i)), results.get(i).get(10, TimeUnit.SECONDS));
+        }
+      }
+    } finally {
+      producers.shutdownNow();
+    }
+    awaitNoBatchesInFlight(batcher);
+  }
+
+  @Test
+  public void testAdaptivePolicyBoundsBatches() throws Exception {
+    AdaptiveBatchSizingPolicy policy = AdaptiveBatchSizingPolicy.newAdaptivePolicy(2, 32, 0, 2, TimeUnit.MILLISECONDS);
+    AtomicInteger maxObservedBatch = new AtomicInteger();
+    ConcurrentBatchingAsyncFunction<Integer, Integer> batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(
+            policy, 2, executor,
+            (ImmutableList<Integer> batch) -> {
+              maxObservedBatch.accumulateAndGet(batch.size(), Math::max);
+              return Lists.transform(batch, FunFuture::immediateFuture);
+            });
+
+    List<FunFuture<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) futures.add(batcher.applyAsync(i));
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+    }
+    assertTrue("batch of " + maxObservedBatch, maxObservedBatch.get() <= 32);
+    awaitNoBatchesInFlight(batcher);
+    assertEquals(policy.getBatchSizeHistogram().getCount(), policy.getBatchLatencyNanosHistogram().getCount());
+  }
+
+  @Test
+  public void testFailingConsumerFailsTheBatchAndFreesItsSlot() throws Exception {
+    IllegalStateException boom = new IllegalStateException("boom");
+    AtomicInteger calls = new AtomicInteger();
+    ConcurrentBatchingAsyncFunction<Integer, Integer> batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(
+            4, 0, TimeUnit.MILLISECONDS, 1, executor,
+            (ImmutableList<Integer> batch) -> {
+              if (calls.incrementAndGet() <= 3) throw boom;
+              return Lists.transform(batch, FunFuture::immediateFuture);
+            });
+
+    // more failures than maxBatchesInFlight: each must release its slot, or later batches would never dispatch
+    for (int round = 0; round < 3; round++) {
+      FunFuture<Integer> result = batcher.applyAsync(round);
+      try {
+        result.get(10, TimeUnit.SECONDS);
+        fail("expected failure");
+      } catch (ExecutionException e) {
+        assertSame(boom, e.getCause());
+      }
+      awaitNoBatchesInFlight(batcher);
+    }
+
+    assertEquals(Integer.valueOf(7), batcher.applyAsync(7).get(10, TimeUnit.SECONDS));
+    awaitNoBatchesInFlight(batcher);
+  }
+
+  @Test
+  public void testMissingResultsFailTheirJobs() throws Exception {
+    ConcurrentBatchingAsyncFunction<Integer, Integer> batcher = ConcurrentBatchingAsyncFunction.newConcurrentAsyncBatcher(
+            4, 0, TimeUnit.MILLISECONDS, 1, executor,
+            (ImmutableList<Integer> batch) -> ImmutableList.<FunFuture<Integer>>of());
+
+    try {
+      batcher.applyAsync(1).get(10, TimeUnit.SECONDS);
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    awaitNoBatchesInFlight(batcher);
+  }
+
+  static void awaitNoBatchesInFlight(ConcurrentBatchingAsyncFunction<?, ?> batcher) throws InterruptedException {
+    // the last result's listeners may still be running when its future's waiters wake up
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (batcher.getBatchesInFlight() != 0) {
+      assertTrue("batches still in flight: " + batcher.getBatchesInFlight(), System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
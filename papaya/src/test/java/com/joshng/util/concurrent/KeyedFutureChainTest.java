@@ -0,0 +1,141 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyedFutureChainTest {
+  private final KeyedFutureChain<String> chain = new KeyedFutureChain<>();
+  private final List<String> started = new CopyOnWriteArrayList<>();
+  private final ListeningExecutorService listeningPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+  @After
+  public void shutdown() {
+    listeningPool.shutdownNow();
+  }
+
+  @Test
+  public void testJobsForOneKeyRunInOrder() throws Exception {
+    Promise<Integer> first = Promise.newPromise();
+    Promise<Integer> second = Promise.newPromise();
+    FunFuture<Integer> firstResult = chain.append("a", () -> start("a1", first));
+    FunFuture<Integer> secondResult = chain.append("a", () -> start("a2", second));
+    FunFuture<Integer> thirdResult = chain.append("a", () -> start("a3", FunFuture.immediateFuture(3)));
+
+    assertEquals(ImmutableList.of("a1"), started);
+    second.setSuccess(2);
+    assertFalse("a job must not start before its predecessor completes", secondResult.isDone());
+
+    first.setSuccess(1);
+    assertEquals(ImmutableList.of("a1", "a2", "a3"), started);
+    assertEquals(Integer.valueOf(1), firstResult.get());
+    assertEquals(Integer.valueOf(2), secondResult.get());
+    assertEquals(Integer.valueOf(3), thirdResult.get());
+    assertEquals(0, chain.getActiveKeyCount());
+  }
+
+  @Test
+  public void testOtherKeysAreIndependent() throws Exception {
+    Promise<Integer> blocked = Promise.newPromise();
+    chain.append("a", () -> start("a1", blocked));
+    FunFuture<Integer> other = chain.append("b", () -> start("b1", FunFuture.immediateFuture(7)));
+
+    assertEquals(Integer.valueOf(7), other.get());
+    assertEquals(ImmutableList.of("a1", "b1"), started);
+    assertEquals(1, chain.getActiveKeyCount());
+    assertFalse(chain.getTail("a").isDone());
+    assertTrue(chain.getTail("b").isDone());
+
+    blocked.setSuccess(1);
+    assertTrue(chain.getTail("a").isDone());
+    assertEquals(0, chain.getActiveKeyCount());
+  }
+
+  @Test
+  public void testFailureDoesNotBlockSuccessor() throws Exception {
+    FunFuture<Integer> failed = chain.append("a", () -> {
+      throw new IllegalStateException("boom");
+    });
+    FunFuture<Integer> next = chain.append("a", () -> start("a2", FunFuture.immediateFuture(2)));
+
+    try {
+      failed.get();
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(Integer.valueOf(2), next.get());
+  }
+
+  @Test
+  public void testCancelledJobIsSkipped() throws Exception {
+    Promise<Integer> first = Promise.newPromise();
+    chain.append("a", () -> start("a1", first));
+    FunFuture<Integer> skipped = chain.append("a", () -> start("a2", FunFuture.immediateFuture(2)));
+    FunFuture<Integer> last = chain.append("a", () -> start("a3", FunFuture.immediateFuture(3)));
+
+    assertTrue(skipped.cancel(false));
+    first.setSuccess(1);
+    assertEquals(Integer.valueOf(3), last.get());
+    assertEquals(ImmutableList.of("a1", "a3"), started);
+    assertEquals(0, chain.getActiveKeyCount());
+  }
+
+  @Test
+  public void testConcurrentAppendsAreSerializedPerKey() throws Exception {
+    KeyedFutureChain<Integer> concurrentChain = new KeyedFutureChain<>(listeningPool);
+    int keys = 4;
+    int jobsPerKey = 500;
+    AtomicInteger[] running = new AtomicInteger[keys];
+    int[] lastSeen = new int[keys];
+    AtomicInteger overlaps = new AtomicInteger();
+    AtomicInteger outOfOrder = new AtomicInteger();
+    for (int k = 0; k < keys; k++) running[k] = new AtomicInteger();
+
+    List<FunFuture<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < jobsPerKey; i++) {
+      for (int k = 0; k < keys; k++) {
+        int key = k;
+        int seq = i + 1;
+        results.add(concurrentChain.append(key, () -> {
+          if (running[key].incrementAndGet() != 1) overlaps.incrementAndGet();
+          if (lastSeen[key] != seq - 1) outOfOrder.incrementAndGet();
+          lastSeen[key] = seq;
+          return listeningPool.submit(() -> {
+            running[key].decrementAndGet();
+            return seq;
+          });
+        }));
+      }
+    }
+    for (FunFuture<Integer> result : results) result.get(30, TimeUnit.SECONDS);
+    assertEquals(0, overlaps.get());
+    assertEquals(0, outOfOrder.get());
+    for (int k = 0; k < keys; k++) {
+      concurrentChain.getTail(k).get(30, TimeUnit.SECONDS);
+      assertEquals(jobsPerKey, lastSeen[k]);
+    }
+    assertEquals(0, concurrentChain.getActiveKeyCount());
+  }
+
+  private ListenableFuture<Integer> start(String name, ListenableFuture<Integer> job) {
+    started.add(name);
+    return job;
+  }
+}
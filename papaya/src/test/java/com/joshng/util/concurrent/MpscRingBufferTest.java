@@ -0,0 +1,89 @@
+package com.joshng.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscRingBufferTest {
+  @Test
+  public void testCapacityRoundsUpToPowerOfTwo() {
+    assertEquals(1, new MpscRingBuffer<String>(1).capacity());
+    assertEquals(8, new MpscRingBuffer<String>(5).capacity());
+    assertEquals(8, new MpscRingBuffer<String>(8).capacity());
+  }
+
+  @Test
+  public void testFifoAndFull() {
+    MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+    assertTrue(buffer.isEmpty());
+    for (int i = 0; i < 4; i++) assertTrue(buffer.offer(i));
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+
+    assertEquals(Integer.valueOf(0), buffer.poll());
+    assertTrue(buffer.offer(4));
+
+    List<Integer> drained = new ArrayList<>();
+    assertEquals(3, buffer.drainTo(drained, 3));
+    assertEquals(Integer.valueOf(4), buffer.poll());
+    assertNull(buffer.poll());
+    assertTrue(buffer.isEmpty());
+    assertEquals(3, drained.size());
+    assertEquals(Integer.valueOf(1), drained.get(0));
+    assertEquals(Integer.valueOf(3), drained.get(2));
+  }
+
+  @Test
+  public void testConcurrentProducersPreserveEachProducersOrder() throws Exception {
+    int producers = 4;
+    int perProducer = 20_000;
+    MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(16);
+    ExecutorService pool = Executors.newFixedThreadPool(producers);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      for (int p = 0; p < producers; p++) {
+        long producer = p;
+        pool.execute(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          for (long i = 0; i < perProducer; i++) {
+            long[] value = {producer, i};
+            while (!buffer.offer(value)) Thread.yield();
+          }
+        });
+      }
+      start.countDown();
+
+      long[] nextExpected = new long[producers];
+      int received = 0;
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (received < producers * perProducer) {
+        assertTrue("timed out after " + received, System.nanoTime() < deadline);
+        long[] value = buffer.poll();
+        if (value == null) {
+          Thread.yield();
+          continue;
+        }
+        int producer = (int) value[0];
+        assertEquals(nextExpected[producer]++, value[1]);
+        received++;
+      }
+      assertNull(buffer.poll());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
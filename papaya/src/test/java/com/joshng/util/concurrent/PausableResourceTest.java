@@ -0,0 +1,151 @@
+package com.joshng.util.concurrent;
+
+import com.joshng.util.collect.Maybe;
+import com.joshng.util.collect.Nothing;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PausableResourceTest {
+  private final ExecutorService pool = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testAsyncWaitersAreGrantedOnResume() throws Exception {
+    PausableResource resource = new PausableResource();
+    PausableResource.PauseId pauseId = resource.pause(1, 60, TimeUnit.SECONDS).getOrThrow();
+    assertTrue(resource.isPaused());
+
+    FunFuture<Nothing> first = resource.obtainAsync();
+    FunFuture<Nothing> second = resource.obtainAsync();
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+
+    assertTrue(resource.resume(pauseId));
+    assertFalse(resource.isPaused());
+    assertTrue(first.isDone());
+    assertTrue(second.isDone());
+    assertFalse("a PauseId may only be resumed once", resource.resume(pauseId));
+
+    // the granted waiters hold access until they release it, from any thread
+    assertTrue(resource.pause(10, 60, TimeUnit.MILLISECONDS).isEmpty());
+    pool.submit(resource::release).get();
+    resource.release();
+    assertTrue(resource.pause(1, 60, TimeUnit.SECONDS).isDefined());
+  }
+
+  @Test
+  public void testPauseWaitsForHolders() throws Exception {
+    PausableResource resource = new PausableResource();
+    resource.obtain();
+    long start = System.nanoTime();
+    assertTrue(resource.pause(50, 60, TimeUnit.MILLISECONDS).isEmpty());
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertFalse(resource.isPaused());
+
+    Future<Maybe<PausableResource.PauseId>> pause = pool.submit(() -> resource.pause(30, 60, TimeUnit.SECONDS));
+    while (!resource.obtainAsync().cancel(false)) {
+      // wait until the pause attempt has closed the gate (before that, obtainAsync succeeds immediately)
+      resource.release();
+      Thread.yield();
+    }
+    resource.release();
+    assertTrue(pause.get(10, TimeUnit.SECONDS).isDefined());
+    assertTrue(resource.isPaused());
+  }
+
+  @Test
+  public void testObtainIsReentrantWhilePauseIsPending() throws Exception {
+    PausableResource resource = new PausableResource();
+    resource.obtain();
+    CountDownLatch attempting = new CountDownLatch(1);
+    Future<Maybe<PausableResource.PauseId>> pause = pool.submit(() -> {
+      attempting.countDown();
+      return resource.pause(30, 60, TimeUnit.SECONDS);
+    });
+    attempting.await();
+    while (!resource.obtainAsync().cancel(false)) {
+      resource.release();
+      Thread.yield();
+    }
+
+    long start = System.nanoTime();
+    resource.obtain();
+    assertTrue("nested obtain() must not wait for the pending pause",
+            System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    resource.release();
+    assertFalse(pause.isDone());
+
+    resource.release();
+    assertTrue(pause.get(10, TimeUnit.SECONDS).isDefined());
+  }
+
+  @Test
+  public void testBlockedObtainEndsExpiredPause() throws Exception {
+    PausableResource resource = new PausableResource();
+    long start = System.nanoTime();
+    PausableResource.PauseId pauseId = resource.pause(1, 100, TimeUnit.MILLISECONDS).getOrThrow();
+
+    resource.obtain();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertFalse(resource.isPaused());
+    assertFalse("the pause already expired", resource.resume(pauseId));
+    resource.release();
+  }
+
+  @Test
+  public void testExpirySchedulerGrantsAsyncWaiters() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      PausableResource resource = new PausableResource(scheduler);
+      resource.pause(1, 50, TimeUnit.MILLISECONDS).getOrThrow();
+      FunFuture<Nothing> waiter = resource.obtainAsync();
+      assertFalse(waiter.isDone());
+      waiter.get(10, TimeUnit.SECONDS);
+      assertFalse(resource.isPaused());
+      resource.release();
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCancelledWaiterDoesNotHoldAccess() throws Exception {
+    PausableResource resource = new PausableResource();
+    PausableResource.PauseId pauseId = resource.pause(1, 60, TimeUnit.SECONDS).getOrThrow();
+    FunFuture<Nothing> waiter = resource.obtainAsync();
+    assertTrue(waiter.cancel(false));
+    assertTrue(resource.resume(pauseId));
+
+    assertTrue(resource.pause(0, 60, TimeUnit.SECONDS).isDefined());
+  }
+
+  @Test
+  public void testCallInContextAsyncReleasesWhenTheBlockCompletes() throws Exception {
+    PausableResource resource = new PausableResource();
+    PausableResource.PauseId pauseId = resource.pause(1, 60, TimeUnit.SECONDS).getOrThrow();
+    Promise<String> block = Promise.newPromise();
+    FunFuture<String> result = resource.callInContextAsync(() -> block);
+    assertTrue(resource.resume(pauseId));
+    assertFalse(result.isDone());
+
+    assertTrue(resource.pause(10, 60, TimeUnit.MILLISECONDS).isEmpty());
+    block.setSuccess("done");
+    assertEquals("done", result.get());
+    assertTrue(resource.pause(0, 60, TimeUnit.SECONDS).isDefined());
+  }
+}
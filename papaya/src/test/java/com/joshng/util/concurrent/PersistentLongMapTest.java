@@ -0,0 +1,85 @@
+package com.joshng.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentLongMapTest {
+  @Test
+  public void testBasicOperations() {
+    PersistentLongMap<String> empty = PersistentLongMap.empty();
+    PersistentLongMap<String> one = empty.with(7, "seven");
+    assertTrue(empty.isEmpty());
+    assertNull(empty.get(7));
+    assertEquals(1, one.size());
+    assertEquals("seven", one.get(7));
+    assertNull(one.get(7 + 32)); // same slot at the first level
+
+    assertSame(one, one.with(7, "seven"));
+    assertSame(one, one.without(8));
+    assertTrue(one.without(7).isEmpty());
+  }
+
+  @Test
+  public void testKeysSharingPrefixes() {
+    // keys that agree in their low bits force the trie to grow deeper
+    long[] keys = {1, 1 + (1L << 5), 1 + (1L << 10), 1 + (1L << 35), 1 + (1L << 60), Long.MIN_VALUE + 1, -1};
+    PersistentLongMap<Long> map = PersistentLongMap.empty();
+    for (long key : keys) map = map.with(key, key);
+    assertEquals(keys.length, map.size());
+    for (long key : keys) assertEquals(Long.valueOf(key), map.get(key));
+
+    for (int i = 0; i < keys.length; i++) {
+      map = map.without(keys[i]);
+      assertEquals(keys.length - i - 1, map.size());
+      assertNull(map.get(keys[i]));
+      for (int j = i + 1; j < keys.length; j++) assertEquals(Long.valueOf(keys[j]), map.get(keys[j]));
+    }
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testRandomizedAgainstHashMap() {
+    Random random = new Random(42);
+    Map<Long, Integer> expected = new HashMap<>();
+    PersistentLongMap<Integer> map = PersistentLongMap.empty();
+    List<PersistentLongMap<Integer>> snapshots = new ArrayList<>();
+    List<Map<Long, Integer>> expectedSnapshots = new ArrayList<>();
+
+    for (int i = 0; i < 20_000; i++) {
+      // mostly small, dense keys (like AsyncContext's), with some sparse ones
+      long key = random.nextInt(4) == 0 ? random.nextLong() >>> random.nextInt(64) : random.nextInt(300);
+      if (random.nextInt(3) == 0) {
+        map = map.without(key);
+        expected.remove(key);
+      } else {
+        map = map.with(key, i);
+        expected.put(key, i);
+      }
+      if (i % 1000 == 0) {
+        snapshots.add(map);
+        expectedSnapshots.add(new HashMap<>(expected));
+      }
+    }
+
+    assertMatches(expected, map);
+    // earlier versions are unaffected by later updates
+    for (int i = 0; i < snapshots.size(); i++) assertMatches(expectedSnapshots.get(i), snapshots.get(i));
+  }
+
+  private static void assertMatches(Map<Long, Integer> expected, PersistentLongMap<Integer> map) {
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityExecutorServiceTest {
+  private final PriorityExecutorService executor = FunctionalExecutorService.priorityThreadPool(1, 1, TimeUnit.HOURS, Executors.defaultThreadFactory());
+  private final List<String> ran = new CopyOnWriteArrayList<>();
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  @After
+  public void shutdown() {
+    unblock.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testHigherPrioritiesRunFirstAndTiesRunInSubmissionOrder() throws Exception {
+    blockWorker();
+    executor.submit(1, record("low"));
+    executor.submit(5, record("high-1"));
+    executor.execute(record("default"));
+    executor.submit(3, record("medium"));
+    executor.execute(5, record("high-2"));
+    executor.atPriority(4).execute(record("view"));
+    FunFuture<String> last = executor.submit(-1, () -> "done");
+    assertEquals(7, executor.getQueuedTaskCount());
+
+    unblock.countDown();
+    assertEquals("done", last.get(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableList.of("high-1", "high-2", "view", "medium", "low", "default"), ran);
+  }
+
+  @Test
+  public void testWaitingTasksAge() throws Exception {
+    PriorityExecutorService aging = FunctionalExecutorService.priorityThreadPool(1, 1, TimeUnit.MILLISECONDS, Executors.defaultThreadFactory());
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      aging.execute(() -> {
+        started.countDown();
+        awaitUnblock();
+      });
+      started.await();
+      aging.execute(0, record("old"));
+      Thread.sleep(50);
+      aging.execute(10, record("urgent"));
+      aging.execute(100, record("very urgent"));
+
+      unblock.countDown();
+      aging.shutdown();
+      assertTrue(aging.awaitTermination(10, TimeUnit.SECONDS));
+      // the old task has waited longer than 10 aging periods, but not 100
+      assertEquals(ImmutableList.of("very urgent", "old", "urgent"), ran);
+    } finally {
+      aging.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAdoptedTasksAreRankedAtTheDefaultPriority() throws Exception {
+    blockWorker();
+    Thread invoker = new Thread(() -> {
+      try {
+        executor.invokeAll(ImmutableList.of(recordCallable("adopted-1"), recordCallable("adopted-2")));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    invoker.start();
+    while (executor.getQueuedTaskCount() < 2) Thread.yield();
+    executor.submit(1, record("urgent"));
+    executor.submit(-1, record("background"));
+
+    unblock.countDown();
+    invoker.join(10_000);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableList.of("urgent", "adopted-1", "adopted-2", "background"), ran);
+  }
+
+  @Test
+  public void testCancelledAdoptedTasksDoNotRun() throws Exception {
+    blockWorker();
+    List<Future<String>> futures = executor.invokeAll(ImmutableList.of(recordCallable("timed-out")), 20, TimeUnit.MILLISECONDS);
+    assertTrue(futures.get(0).isCancelled());
+
+    unblock.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(ran.isEmpty());
+  }
+
+  private void blockWorker() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      awaitUnblock();
+    });
+    started.await();
+  }
+
+  private void awaitUnblock() {
+    try {
+      unblock.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Runnable record(String name) {
+    return () -> ran.add(name);
+  }
+
+  private Callable<String> recordCallable(String name) {
+    return () -> {
+      ran.add(name);
+      return name;
+    };
+  }
+}
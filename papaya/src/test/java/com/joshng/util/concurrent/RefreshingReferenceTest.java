@@ -0,0 +1,154 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RefreshingReferenceTest {
+  private final MutableClock clock = new MutableClock(10_000);
+  private final AtomicInteger loads = new AtomicInteger();
+  private final Queue<Runnable> refreshes = new ArrayDeque<>();
+  private final Executor refreshExecutor = refreshes::add;
+  private final List<String> expired = new ArrayList<>();
+
+  private final RefreshingReference<Integer> reference = new RefreshingReference<Integer>(clock) {
+    @Override
+    protected Instant computeNextRefreshTime(Instant now) {
+      return computeNextIntervalTime(now, 1000);
+    }
+
+    @Override
+    protected Integer getNewInstance(Instant expireTime) {
+      return loads.incrementAndGet();
+    }
+
+    @Override
+    protected void onInstanceExpired(Integer expiredInstance, Integer newInstance) {
+      expired.add(expiredInstance + "->" + newInstance);
+    }
+  };
+
+  @Test
+  public void testRebuildsWhenExpired() {
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertEquals(Instant.ofEpochMilli(11_000), reference.getNextRefreshTime());
+    clock.advance(999);
+    assertEquals(Integer.valueOf(1), reference.get());
+    clock.advance(1);
+    assertEquals(Integer.valueOf(2), reference.get());
+    assertEquals(ImmutableList.of("1->2"), expired);
+    assertEquals(2, reference.getRefreshDurationNanosHistogram().getCount());
+  }
+
+  @Test
+  public void testRefreshAheadServesCurrentValueWhileRebuilding() {
+    reference.withRefreshAhead(100, 500, TimeUnit.MILLISECONDS, refreshExecutor);
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertTrue(refreshes.isEmpty());
+
+    clock.advance(900);
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertEquals("only one refresh may be in flight", 1, refreshes.size());
+
+    refreshes.poll().run();
+    // the new value is valid for the period following the current value's refresh time
+    assertEquals(Integer.valueOf(2), reference.get());
+    assertEquals(Instant.ofEpochMilli(12_000), reference.getNextRefreshTime());
+    assertEquals(ImmutableList.of("1->2"), expired);
+    assertEquals(0, reference.getStalenessMillisHistogram().getCount());
+  }
+
+  @Test
+  public void testStaleValuesAreServedUpToMaxStaleness() {
+    reference.withRefreshAhead(100, 500, TimeUnit.MILLISECONDS, refreshExecutor);
+    reference.get();
+
+    clock.advance(1200);
+    assertEquals("stale, but within maxStaleness", Integer.valueOf(1), reference.get());
+    assertEquals(1, reference.getStalenessMillisHistogram().getCount());
+    assertEquals(200, reference.getStalenessMillisHistogram().getSnapshot().getMax());
+    assertEquals(1, refreshes.size());
+
+    clock.advance(400);
+    assertEquals("beyond maxStaleness, the value is rebuilt synchronously", Integer.valueOf(2), reference.get());
+    assertEquals(Instant.ofEpochMilli(12_000), reference.getNextRefreshTime());
+
+    // the background refresh that lost the race must not replace the newer value
+    refreshes.poll().run();
+    assertEquals(Integer.valueOf(2), reference.get());
+  }
+
+  @Test
+  public void testRejectedRefreshIsRetried() {
+    AtomicInteger rejections = new AtomicInteger();
+    reference.withRefreshAhead(100, 500, TimeUnit.MILLISECONDS, command -> {
+      if (rejections.getAndIncrement() == 0) throw new RejectedExecutionException("busy");
+      refreshes.add(command);
+    });
+    reference.get();
+    clock.advance(950);
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertTrue(refreshes.isEmpty());
+
+    assertEquals(Integer.valueOf(1), reference.get());
+    assertEquals(1, refreshes.size());
+    refreshes.poll().run();
+    assertEquals(Integer.valueOf(2), reference.get());
+  }
+
+  @Test
+  public void testRefreshAheadMustBeShorterThanThePeriod() {
+    RefreshingReference<Instant> periodic = RefreshingReference.from(1, TimeUnit.SECONDS, clock, expireTime -> expireTime);
+    try {
+      periodic.withRefreshAhead(1, TimeUnit.SECONDS, refreshExecutor);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    periodic.withRefreshAhead(999, TimeUnit.MILLISECONDS, refreshExecutor);
+    assertEquals(Instant.ofEpochMilli(11_000), periodic.get());
+  }
+
+  private static class MutableClock extends Clock {
+    private volatile long millis;
+
+    MutableClock(long millis) {
+      this.millis = millis;
+    }
+
+    void advance(long deltaMillis) {
+      millis += deltaMillis;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+  }
+}
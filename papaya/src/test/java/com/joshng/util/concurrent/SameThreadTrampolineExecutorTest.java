@@ -0,0 +1,170 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SameThreadTrampolineExecutorTest {
+  private final SameThreadTrampolineExecutor executor = new SameThreadTrampolineExecutor();
+
+  @Test
+  public void testNestedTasksRunAfterTheirSubmitterReturns() {
+    List<String> events = new ArrayList<>();
+    executor.execute(() -> {
+      events.add("outer start");
+      executor.execute(() -> {
+        events.add("first nested");
+        executor.execute(() -> events.add("doubly nested"));
+      });
+      executor.execute(() -> events.add("second nested"));
+      events.add("outer end");
+    });
+    assertEquals(
+            ImmutableList.of("outer start", "outer end", "first nested", "second nested", "doubly nested"),
+            events);
+    assertEquals(4, executor.getMaxDrainLength());
+    assertEquals(2, executor.getMaxDepth());
+  }
+
+  @Test
+  public void testDeepRecursionDoesNotGrowTheStack() throws Exception {
+    AtomicInteger remaining = new AtomicInteger(100_000);
+    Runnable[] step = new Runnable[1];
+    step[0] = () -> {
+      if (remaining.decrementAndGet() > 0) executor.execute(step[0]);
+    };
+    FunFuture<?> result = executor.submit(step[0]);
+    assertTrue(result.isDone());
+    result.get();
+    assertEquals(0, remaining.get());
+  }
+
+  @Test
+  public void testSubmittedResults() throws Exception {
+    assertEquals("value", executor.submit(() -> "value").get());
+    IllegalStateException failure = new IllegalStateException("boom");
+    FunFuture<Object> failed = executor.submit(() -> {
+      throw failure;
+    });
+    try {
+      failed.get();
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void testExecutedExceptionsGoToTheUncaughtExceptionHandler() {
+    List<Throwable> uncaught = new ArrayList<>();
+    List<String> events = new ArrayList<>();
+    Thread thread = Thread.currentThread();
+    Thread.UncaughtExceptionHandler previous = thread.getUncaughtExceptionHandler();
+    thread.setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+    try {
+      IllegalStateException failure = new IllegalStateException("boom");
+      executor.execute(() -> {
+        executor.execute(() -> {
+          throw failure;
+        });
+        executor.execute(() -> events.add("still ran"));
+      });
+      assertEquals(ImmutableList.of(failure), uncaught);
+      assertEquals(ImmutableList.of("still ran"), events);
+    } finally {
+      thread.setUncaughtExceptionHandler(previous);
+    }
+  }
+
+  @Test
+  public void testErrorsDiscardTheQueuedTasks() {
+    List<String> events = new ArrayList<>();
+    List<FunFuture<?>> queued = new ArrayList<>();
+    Boom boom = new Boom();
+    try {
+      executor.execute(() -> {
+        queued.add(executor.submit(() -> events.add("queued")));
+        throw boom;
+      });
+      fail("expected the Error to propagate");
+    } catch (Boom e) {
+      assertSame(boom, e);
+    }
+    assertTrue(queued.get(0).isCancelled());
+
+    // the next submission doesn't run the discarded task
+    executor.execute(() -> events.add("next"));
+    assertEquals(ImmutableList.of("next"), events);
+  }
+
+  @Test
+  public void testShutdownCompletesQueuedTasks() throws Exception {
+    List<String> events = new ArrayList<>();
+    executor.execute(() -> {
+      executor.execute(() -> events.add("queued"));
+      executor.shutdown();
+      assertFalse(executor.isTerminated());
+      try {
+        executor.execute(() -> events.add("rejected"));
+        fail("expected rejection");
+      } catch (RejectedExecutionException expected) {
+      }
+    });
+    assertEquals(ImmutableList.of("queued"), events);
+    assertTrue(executor.isShutdown());
+    assertTrue(executor.isTerminated());
+    assertTrue(executor.awaitTermination(0, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testShutdownNowCancelsQueuedTasks() throws Exception {
+    List<Runnable> returned = new ArrayList<>();
+    List<FunFuture<?>> queued = new ArrayList<>();
+    executor.execute(() -> {
+      queued.add(executor.submit(() -> fail("should not run")));
+      returned.addAll(executor.shutdownNow());
+    });
+    assertEquals(1, returned.size());
+    assertTrue(executor.isTerminated());
+    assertFalse(queued.get(0).isDone());
+  }
+
+  @Test
+  public void testAwaitTerminationWaitsForRunningThreads() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread worker = new Thread(() -> executor.execute(() -> {
+      running.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }));
+    worker.start();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+
+    executor.shutdown();
+    assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+    release.countDown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    worker.join();
+  }
+
+  private static class Boom extends Error {
+    private static final long serialVersionUID = 1L;
+  }
+}
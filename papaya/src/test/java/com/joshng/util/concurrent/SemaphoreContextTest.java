@@ -0,0 +1,106 @@
+package com.joshng.util.concurrent;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SemaphoreContextTest {
+  private final SemaphoreContext context = new SemaphoreContext(2, 10, TimeUnit.MILLISECONDS);
+
+  @Test
+  public void testAsyncAcquisitionsAreGrantedInOrder() throws Exception {
+    SemaphoreContext.Releaser held = context.acquirePermits(2);
+    FunFuture<SemaphoreContext.Releaser> first = context.acquireAsync(2);
+    FunFuture<SemaphoreContext.Releaser> second = context.acquireAsync(1);
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+
+    held.exit();
+    assertTrue(first.isDone());
+    assertFalse("the second waiter must not overtake the first", second.isDone());
+
+    first.get().exit();
+    second.get().exit();
+    assertTrue(context.acquireAsync(2).isDone());
+  }
+
+  @Test
+  public void testCancellingWaiterWithdrawsTheRequest() throws Exception {
+    SemaphoreContext.Releaser held = context.acquirePermits(2);
+    FunFuture<SemaphoreContext.Releaser> cancelled = context.acquireAsync(2);
+    FunFuture<SemaphoreContext.Releaser> next = context.acquireAsync(1);
+    assertTrue(cancelled.cancel(false));
+
+    held.exit();
+    assertTrue(next.isDone());
+    next.get().exit();
+    context.acquirePermits(2).exit();
+  }
+
+  @Test
+  public void testCancellingAfterTheGrantReturnsThePermits() throws Exception {
+    AtomicReference<FunFuture<SemaphoreContext.Releaser>> pending = new AtomicReference<>();
+    SemaphoreContext racingContext = new SemaphoreContext(1, 10, TimeUnit.MILLISECONDS) {
+      @Override
+      protected void onUnblocked(int tryCount, Instant blockedSince) {
+        // the permits have been granted, but the result is not yet complete
+        FunFuture<SemaphoreContext.Releaser> future = pending.get();
+        if (future != null) future.cancel(false);
+      }
+    };
+    SemaphoreContext.Releaser held = racingContext.acquireOnePermit();
+    pending.set(racingContext.acquireAsync(1));
+    held.exit();
+
+    assertTrue(pending.get().isCancelled());
+    FunFuture<SemaphoreContext.Releaser> next = racingContext.acquireAsync(1);
+    assertTrue("the cancelled acquisition must not keep its permit", next.isDone());
+  }
+
+  @Test
+  public void testShutdownFailsWaiters() throws Exception {
+    context.acquirePermits(2);
+    FunFuture<SemaphoreContext.Releaser> waiter = context.acquireAsync(1);
+    context.shutdown();
+    try {
+      waiter.get();
+      fail("expected ShutdownException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ShutdownException);
+    }
+    try {
+      context.acquireAsync(1).get();
+      fail("expected ShutdownException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ShutdownException);
+    }
+  }
+
+  @Test
+  public void testBlockingAcquireWaitsForRelease() throws Exception {
+    SemaphoreContext.Releaser held = context.acquirePermits(2);
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      held.exit();
+    });
+    releaser.start();
+    context.acquirePermits(2).exit();
+    releaser.join();
+
+    assertEquals(2, context.getWaitTimeNanosHistogram().getCount());
+    assertTrue(context.getWaitTimeNanosHistogram().getSnapshot().getMax() > 0);
+    assertEquals(1, context.getQueueDepthHistogram().getCount());
+  }
+}
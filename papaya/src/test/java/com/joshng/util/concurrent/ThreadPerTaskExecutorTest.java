@@ -0,0 +1,174 @@
+package com.joshng.util.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ThreadPerTaskExecutorTest {
+  private ThreadPerTaskExecutor executor;
+
+  @After
+  public void shutdown() throws InterruptedException {
+    if (executor != null) {
+      executor.shutdownNow();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testEachTaskGetsItsOwnThread() throws Exception {
+    executor = new ThreadPerTaskExecutor(Thread::new);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    List<Future<?>> futures = new ArrayList<>();
+    CountDownLatch allStarted = new CountDownLatch(5);
+    for (int i = 0; i < 5; i++) {
+      futures.add(executor.submit(() -> {
+        threads.add(Thread.currentThread());
+        allStarted.countDown();
+        allStarted.await();
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) future.get(5, TimeUnit.SECONDS);
+    assertEquals(5, threads.size());
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    executor = new ThreadPerTaskExecutor(Thread::new, 2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      futures.add(executor.submit(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        release.await();
+        running.decrementAndGet();
+        return null;
+      }));
+    }
+    assertEquals(4, executor.getWaitingTaskCount());
+    release.countDown();
+    for (Future<?> future : futures) future.get(5, TimeUnit.SECONDS);
+    assertEquals(2, maxRunning.get());
+    assertEquals(0, executor.getWaitingTaskCount());
+  }
+
+  @Test
+  public void testThreadFactoryFailureRejectsAndCancelsTheTask() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    ThreadFactory failingFactory = runnable -> {
+      if (attempts.incrementAndGet() == 1) throw new IllegalStateException("no threads for you");
+      return new Thread(runnable);
+    };
+    executor = new ThreadPerTaskExecutor(failingFactory);
+    FunRunnableFuture<String> task = FunFuture.funFutureTask(() -> "ran");
+    try {
+      executor.execute(task);
+      fail("expected rejection");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertTrue(task.isCancelled());
+    assertEquals("ok", executor.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWaitingTaskIsCancelledWhenItsThreadCannotStart() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger attempts = new AtomicInteger();
+    executor = new ThreadPerTaskExecutor(runnable -> {
+      if (attempts.incrementAndGet() == 2) throw new IllegalStateException("no threads for you");
+      return new Thread(runnable);
+    }, 1);
+    Future<?> first = executor.submit(() -> {
+      release.await();
+      return null;
+    });
+    Future<?> waiting = executor.submit(() -> "never");
+    Future<?> next = executor.submit(() -> "next");
+    release.countDown();
+
+    first.get(5, TimeUnit.SECONDS);
+    assertEquals("next", next.get(5, TimeUnit.SECONDS));
+    assertTrue(waiting.isCancelled());
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    executor = new ThreadPerTaskExecutor(Thread::new, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> running = executor.submit(() -> {
+      release.await();
+      return "done";
+    });
+    Future<?> waiting = executor.submit(() -> "waited");
+
+    executor.shutdown();
+    try {
+      executor.execute(() -> fail("should not run"));
+      fail("expected rejection");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+    // tasks submitted before shutdown still run
+    release.countDown();
+    assertEquals("done", running.get(5, TimeUnit.SECONDS));
+    assertEquals("waited", waiting.get(5, TimeUnit.SECONDS));
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testShutdownNowInterruptsRunningAndCancelsWaitingTasks() throws Exception {
+    executor = new ThreadPerTaskExecutor(Thread::new, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    Future<?> waiting = executor.submit(() -> "never");
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertTrue(executor.shutdownNow().isEmpty());
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(waiting.isCancelled());
+  }
+
+  @Test
+  public void testVirtualThreadSupportMatchesTheRuntime() {
+    if (ThreadPerTaskExecutor.isVirtualThreadSupported()) {
+      executor = ThreadPerTaskExecutor.newVirtualThreadExecutor(4);
+    } else {
+      try {
+        ThreadPerTaskExecutor.newVirtualThreadExecutor();
+        fail("expected UnsupportedOperationException");
+      } catch (UnsupportedOperationException expected) {
+      }
+    }
+  }
+}
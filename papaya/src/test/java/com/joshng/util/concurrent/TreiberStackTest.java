@@ -0,0 +1,105 @@
+package com.joshng.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TreiberStackTest {
+  private final TreiberStack<Integer> stack = TreiberStack.newTreiberStack();
+
+  @Test
+  public void testLifoOrder() {
+    assertNull(stack.pop());
+    assertNull(stack.peek());
+    stack.push(1);
+    stack.push(2);
+    stack.push(3);
+    assertEquals(Integer.valueOf(3), stack.peek());
+    assertEquals(Integer.valueOf(3), stack.pop());
+    assertEquals(Integer.valueOf(2), stack.pop());
+    assertEquals(Integer.valueOf(1), stack.pop());
+    assertTrue(stack.isEmpty());
+  }
+
+  @Test
+  public void testPushAllLeavesTheLastValueOnTop() {
+    stack.push(0);
+    stack.pushAll(ImmutableList.of(1, 2, 3));
+    stack.pushAll(ImmutableList.<Integer>of());
+    assertEquals(ImmutableList.of(3, 2, 1, 0), stack.drainAll());
+    assertTrue(stack.isEmpty());
+  }
+
+  @Test
+  public void testDrainAllAlwaysReturnsANewMutableList() {
+    List<Integer> empty = stack.drainAll();
+    assertEquals(ArrayList.class, empty.getClass());
+    empty.add(1);
+    assertTrue("each drain returns a new list", stack.drainAll().isEmpty());
+
+    stack.push(1);
+    stack.push(2);
+    List<Integer> drained = stack.drainAll();
+    assertEquals(ArrayList.class, drained.getClass());
+    drained.add(3);
+    assertEquals(ImmutableList.of(2, 1, 3), drained);
+
+    stack.push(1);
+    stack.push(2);
+    List<Integer> inPushOrder = stack.drainAllInPushOrder();
+    assertEquals(ImmutableList.of(1, 2), inPushOrder);
+    inPushOrder.add(3);
+    assertEquals(ImmutableList.of(1, 2, 3), inPushOrder);
+    assertTrue(stack.drainAllInPushOrder().isEmpty());
+  }
+
+  @Test
+  public void testConcurrentPushesAndDrainsLoseNothing() throws Exception {
+    int producerCount = 4;
+    int perProducer = 25_000;
+    CountDownLatch done = new CountDownLatch(producerCount);
+    for (int p = 0; p < producerCount; p++) {
+      int base = p * perProducer;
+      new Thread(() -> {
+        for (int i = 0; i < perProducer; i++) {
+          if (i % 10 == 0) {
+            stack.pushAll(ImmutableList.of(base + i, base + i + 1));
+            i++;
+          } else {
+            stack.push(base + i);
+          }
+        }
+        done.countDown();
+      }).start();
+    }
+
+    Set<Integer> seen = new HashSet<>();
+    int[] lastSeenPerProducer = new int[producerCount];
+    Arrays.fill(lastSeenPerProducer, -1);
+    boolean ordered = true;
+    while (true) {
+      boolean finished = done.await(0, TimeUnit.MILLISECONDS);
+      for (Integer value : stack.drainAllInPushOrder()) {
+        assertTrue("duplicate " + value, seen.add(value));
+        int producer = value / perProducer;
+        ordered &= value > lastSeenPerProducer[producer];
+        lastSeenPerProducer[producer] = value;
+      }
+      if (finished && stack.isEmpty()) break;
+      Thread.yield();
+    }
+    assertEquals(producerCount * perProducer, seen.size());
+    assertTrue("each producer's values must be drained in the order it pushed them", ordered);
+  }
+}
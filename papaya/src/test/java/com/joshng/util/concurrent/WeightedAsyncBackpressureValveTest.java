@@ -0,0 +1,49 @@
+package com.joshng.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WeightedAsyncBackpressureValveTest {
+  @Test
+  public void testJobsStartWithinCapacityInFifoOrder() throws Exception {
+    WeightedAsyncBackpressureValve valve = new WeightedAsyncBackpressureValve(100);
+    List<String> started = new ArrayList<>();
+    Promise<String> big = Promise.newPromise();
+    Promise<String> medium = Promise.newPromise();
+
+    FunFuture<String> bigResult = valve.callWithBackpressure(70, () -> {
+      started.add("big");
+      return big;
+    });
+    FunFuture<String> mediumResult = valve.callWithBackpressure(50, () -> {
+      started.add("medium");
+      return medium;
+    });
+    FunFuture<String> smallResult = valve.wrapJobStarter(10, () -> {
+      started.add("small");
+      return FunFuture.immediateFuture("small");
+    }).call();
+
+    assertEquals(1, started.size());
+    assertEquals(2, valve.getWaitingJobCount());
+    assertEquals(30, valve.getAvailableCapacity());
+    assertFalse("the small job must wait behind the medium one", smallResult.isDone());
+
+    big.setSuccess("big");
+    assertEquals("big", bigResult.get());
+    assertEquals("small", smallResult.get());
+    assertEquals(3, started.size());
+    assertEquals("medium", started.get(1));
+    assertEquals(50, valve.getAvailableCapacity());
+
+    medium.setSuccess("medium");
+    assertTrue(mediumResult.isDone());
+    assertEquals(valve.getCapacity(), valve.getAvailableCapacity());
+  }
+}
@@ -0,0 +1,113 @@
+package com.joshng.util.concurrent.trackers;
+
+import com.google.common.base.Throwables;
+import com.joshng.util.collect.Nothing;
+import com.joshng.util.concurrent.FunFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FutureCompletionTrackerTest {
+  @Test
+  public void testCompletesOnceAllJobsAreDoneAndNoMoreAreExpected() {
+    FutureCompletionTracker tracker = new FutureCompletionTracker();
+    CompletableFuture<String> first = tracker.track(new CompletableFuture<>());
+    CompletableFuture<String> second = tracker.track(new CompletableFuture<>());
+    assertEquals(2, tracker.getIncompleteJobCount());
+
+    first.complete("done");
+    second.completeExceptionally(new IllegalStateException("failures count as completion"));
+    assertEquals(0, tracker.getIncompleteJobCount());
+    assertEquals(2, tracker.getCompletedJobCount());
+    assertFalse("more jobs may still be tracked", tracker.isDone());
+
+    FunFuture<Nothing> completion = tracker.setNoMoreJobs();
+    assertTrue(completion.isDone());
+    assertFalse(tracker.isAcceptingNewJobs());
+
+    // jobs tracked after completion are cancelled
+    CompletableFuture<String> late = tracker.track(new CompletableFuture<>());
+    assertTrue(late.isCancelled());
+  }
+
+  @Test
+  public void testWaitsForOutstandingJobsAfterSetNoMoreJobs() {
+    FutureCompletionTracker tracker = new FutureCompletionTracker();
+    CompletableFuture<String> job = tracker.track(new CompletableFuture<>());
+    FunFuture<Nothing> completion = tracker.setNoMoreJobs();
+    assertFalse(completion.isDone());
+    job.complete("done");
+    assertTrue(completion.isDone());
+
+    try {
+      tracker.setNoMoreJobs();
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testSuccessTrackerAbortsOnFailure() throws Exception {
+    FutureSuccessTracker tracker = new FutureSuccessTracker();
+    CompletableFuture<String> pending = tracker.track(new CompletableFuture<>());
+    IllegalStateException failure = new IllegalStateException("boom");
+    tracker.track(new CompletableFuture<>()).completeExceptionally(failure);
+
+    assertTrue(tracker.isDone());
+    try {
+      tracker.getCompletionFuture().get();
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertSame(failure, Throwables.getRootCause(e));
+    }
+    assertFalse(pending.isDone());
+    assertTrue(tracker.track(new CompletableFuture<>()).isCancelled());
+  }
+
+  @Test
+  public void testConcurrentTrackingAndCompletion() throws Exception {
+    int threads = 4;
+    int jobsPerThread = 10_000;
+    FutureCompletionTracker tracker = new FutureCompletionTracker();
+    ExecutorService trackers = Executors.newFixedThreadPool(threads);
+    ExecutorService completers = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<?>> submitted = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        submitted.add(trackers.submit(() -> {
+          start.await();
+          for (int i = 0; i < jobsPerThread; i++) {
+            CompletableFuture<Integer> job = tracker.track(new CompletableFuture<>());
+            int value = i;
+            completers.execute(() -> job.complete(value));
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : submitted) future.get(30, TimeUnit.SECONDS);
+
+      assertEquals(Nothing.NOTHING, tracker.setNoMoreJobs().get(30, TimeUnit.SECONDS));
+      assertEquals(threads * jobsPerThread, tracker.getCompletedJobCount());
+      assertEquals(0, tracker.getIncompleteJobCount());
+    } finally {
+      trackers.shutdownNow();
+      completers.shutdownNow();
+    }
+  }
+}
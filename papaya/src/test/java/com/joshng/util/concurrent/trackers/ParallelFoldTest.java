@@ -0,0 +1,98 @@
+package com.joshng.util.concurrent.trackers;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelFoldTest {
+  private final ListeningExecutorService pool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+  @After
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testSharedFold() throws Exception {
+    ParallelFold<Long, Long> fold = ParallelFold.newParallelFold(0L, true, pool, (i, acc) -> acc + i);
+    assertEquals(Long.valueOf(sumTo(10_000)), trackRange(fold, 10_000));
+  }
+
+  @Test
+  public void testCombiningFold() throws Exception {
+    ParallelFold<Long, Long> fold = ParallelFold.newCombiningParallelFold(0L, true, pool, (i, acc) -> acc + i, (a, b) -> a + b);
+    assertEquals(Long.valueOf(sumTo(10_000)), trackRange(fold, 10_000));
+  }
+
+  @Test
+  public void testCombiningFoldWithNoJobsYieldsTheIdentity() throws Exception {
+    ParallelFold<Long, Long> fold = ParallelFold.newCombiningParallelFold(7L, true, pool, (i, acc) -> acc + i, (a, b) -> a + b);
+    assertEquals(Long.valueOf(7), fold.setNoMoreJobs().get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSuccessiveCombiningFoldsOnTheSamePoolAreIndependent() throws Exception {
+    for (int round = 1; round <= 3; round++) {
+      ParallelFold<Long, Long> fold = ParallelFold.newCombiningParallelFold(0L, true, pool, (i, acc) -> acc + i, (a, b) -> a + b);
+      assertEquals(Long.valueOf(sumTo(1_000 * round)), trackRange(fold, 1_000 * round));
+      // the result is stable once harvested
+      assertEquals(Long.valueOf(sumTo(1_000 * round)), fold.getCompletionFuture().get());
+    }
+  }
+
+  @Test
+  public void testFailuresAreCollectedUnlessAborting() throws Exception {
+    ParallelFold<Long, Long> fold = ParallelFold.newParallelFold(0L, false, pool, (i, acc) -> acc + i);
+    IllegalStateException failure = new IllegalStateException("boom");
+    fold.track(CompletableFuture.completedFuture(1L));
+    CompletableFuture<Long> failed = new CompletableFuture<>();
+    failed.completeExceptionally(failure);
+    fold.track(failed);
+    fold.track(CompletableFuture.completedFuture(2L));
+
+    try {
+      fold.setNoMoreJobs().get(5, TimeUnit.SECONDS);
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertSame(failure, Throwables.getRootCause(e));
+    }
+  }
+
+  @Test
+  public void testAbortOnFailure() throws Exception {
+    ParallelFold<Long, Long> fold = ParallelFold.newCombiningParallelFold(0L, true, pool, (i, acc) -> acc + i, (a, b) -> a + b);
+    CompletableFuture<Long> pending = fold.track(new CompletableFuture<>());
+    CompletableFuture<Long> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("boom"));
+    fold.track(failed);
+
+    try {
+      fold.getCompletionFuture().get(5, TimeUnit.SECONDS);
+      fail("expected failure");
+    } catch (ExecutionException expected) {
+    }
+    assertTrue(fold.track(new CompletableFuture<Long>()).isCancelled());
+    pending.complete(1L);
+  }
+
+  private static Long trackRange(ParallelFold<Long, Long> fold, int count) throws Exception {
+    for (long i = 1; i <= count; i++) fold.track(CompletableFuture.completedFuture(i));
+    return fold.setNoMoreJobs().get(10, TimeUnit.SECONDS);
+  }
+
+  private static long sumTo(long n) {
+    return n * (n + 1) / 2;
+  }
+}
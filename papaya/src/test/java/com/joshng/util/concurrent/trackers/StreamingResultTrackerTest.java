@@ -0,0 +1,158 @@
+package com.joshng.util.concurrent.trackers;
+
+import com.google.common.collect.ImmutableList;
+import com.joshng.util.collect.Nothing;
+import com.joshng.util.concurrent.FunFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingResultTrackerTest {
+  private final List<Integer> delivered = new ArrayList<>();
+
+  @Test
+  public void testCompletionOrder() {
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inCompletionOrder(delivered::add);
+    CompletableFuture<Integer> first = tracker.track(new CompletableFuture<>());
+    CompletableFuture<Integer> second = tracker.track(new CompletableFuture<>());
+
+    second.complete(2);
+    assertEquals(ImmutableList.of(2), delivered);
+    first.complete(1);
+    assertEquals(ImmutableList.of(2, 1), delivered);
+    assertTrue(tracker.setNoMoreJobs().isDone());
+    assertEquals(2, tracker.getDeliveredResultCount());
+  }
+
+  @Test
+  public void testSubmissionOrder() {
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inSubmissionOrder(delivered::add);
+    CompletableFuture<Integer> first = tracker.track(new CompletableFuture<>());
+    CompletableFuture<Integer> second = tracker.track(new CompletableFuture<>());
+    CompletableFuture<Integer> third = tracker.track(new CompletableFuture<>());
+    FunFuture<Nothing> completion = tracker.setNoMoreJobs();
+
+    third.complete(3);
+    second.complete(2);
+    assertTrue(delivered.isEmpty());
+    first.complete(1);
+    assertEquals(ImmutableList.of(1, 2, 3), delivered);
+    assertTrue(completion.isDone());
+  }
+
+  @Test
+  public void testReorderWindowDelaysTrackWhenReady() {
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inSubmissionOrder(2, delivered::add);
+    List<CompletableFuture<Integer>> jobs = new ArrayList<>();
+    List<FunFuture<Nothing>> started = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      started.add(tracker.trackWhenReady(() -> {
+        CompletableFuture<Integer> job = new CompletableFuture<>();
+        jobs.add(job);
+        return job;
+      }));
+    }
+    assertEquals(2, jobs.size());
+    assertFalse(started.get(2).isDone());
+
+    // completing a later job doesn't open the window: the earlier result hasn't been delivered
+    jobs.get(1).complete(1);
+    assertEquals(2, jobs.size());
+    jobs.get(0).complete(0);
+    assertEquals(ImmutableList.of(0, 1), delivered);
+    assertEquals(4, jobs.size());
+    assertTrue(started.get(3).isDone());
+
+    jobs.get(2).complete(2);
+    jobs.get(3).complete(3);
+    assertTrue(tracker.setNoMoreJobs().isDone());
+    assertEquals(ImmutableList.of(0, 1, 2, 3), delivered);
+  }
+
+  @Test
+  public void testConcurrentDeliveryIsSerializedAndComplete() throws Exception {
+    AtomicInteger concurrentDeliveries = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    List<Integer> results = new ArrayList<>();
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inSubmissionOrder(64, value -> {
+      if (concurrentDeliveries.incrementAndGet() != 1) overlaps.incrementAndGet();
+      results.add(value);
+      concurrentDeliveries.decrementAndGet();
+    });
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      for (int i = 0; i < 5_000; i++) {
+        int value = i;
+        tracker.trackWhenReady(() -> CompletableFuture.supplyAsync(() -> value, pool));
+      }
+      tracker.setNoMoreJobs().get(30, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(0, overlaps.get());
+    assertEquals(5_000, results.size());
+    for (int i = 0; i < results.size(); i++) assertEquals(Integer.valueOf(i), results.get(i));
+  }
+
+  @Test
+  public void testFailureAbortsAndCancelsUndeliveredJobs() throws Exception {
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inSubmissionOrder(delivered::add);
+    CompletableFuture<Integer> first = tracker.track(new CompletableFuture<>());
+    CompletableFuture<Integer> second = tracker.track(new CompletableFuture<>());
+    second.complete(2);
+
+    first.completeExceptionally(new IllegalStateException("boom"));
+    assertTrue(tracker.isDone());
+    assertTrue(delivered.isEmpty());
+    try {
+      tracker.getCompletionFuture().get();
+      fail("expected failure");
+    } catch (ExecutionException expected) {
+    }
+  }
+
+  @Test
+  public void testThrowingConsumerAborts() {
+    StreamingResultTracker<Integer> tracker = StreamingResultTracker.inCompletionOrder(value -> {
+      throw new IllegalArgumentException("rejected " + value);
+    });
+    CompletableFuture<Integer> pending = tracker.track(new CompletableFuture<>());
+    tracker.track(CompletableFuture.completedFuture(1));
+    assertTrue(tracker.getCompletionFuture().isDone());
+    assertFalse(pending.isDone());
+  }
+
+  @Test
+  public void testTrackWhenReadyIsRejectedOnceNoMoreJobsAreExpected() {
+    for (StreamingResultTracker<Integer> tracker : ImmutableList.of(
+            StreamingResultTracker.<Integer>inCompletionOrder(delivered::add),
+            StreamingResultTracker.<Integer>inCompletionOrder(2, delivered::add))) {
+      tracker.setNoMoreJobs();
+      AtomicInteger starts = new AtomicInteger();
+      FunFuture<Nothing> started = tracker.trackWhenReady(() -> {
+        starts.incrementAndGet();
+        return CompletableFuture.completedFuture(1);
+      });
+      assertTrue(started.isDone());
+      try {
+        started.get();
+        fail("expected failure");
+      } catch (Exception expected) {
+      }
+      assertEquals(0, starts.get());
+    }
+  }
+}